@@ -0,0 +1,736 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * SNAC Client
+ *
+ * Shared client for the SNAC REST API.  It is the one place where requests are set up:
+ * timeouts, response compression, connection reuse and per-command metrics (requests,
+ * failures, bytes and time).
+ *
+ * Connections are kept alive and pooled by HttpURLConnection; the client makes sure every
+ * response is read to the end and closed, which is what returns a connection to the pool,
+ * and sizes the pool (http.maxConnections) to the number of requests it runs at a time.
+ *
+ * The asynchronous commands (reconcile, parseEac, read, downloadConstellation) run on a
+ * shared pool of daemon threads and return CompletableFutures.  Tools that need to stream
+ * a request or response (large uploads and downloads) open a Request themselves and still
+ * get the same settings and metrics.
+ *
+ * The endpoint may be a list of endpoints serving the same data, which the requests are
+ * spread over; slow or failing endpoints are left out until they recover (see
+ * SNACEndpointSet).  A query SNAC did not receive is sent to another endpoint by send().
+ *
+ * Settings (system properties):
+ *   snac.url                  endpoint(s) used instead of a tool's default
+ *   snac.client.threads       requests at a time (8)
+ *   snac.client.timeout       connect and read timeout in ms (300000)
+ *   snac.client.gzip          ask for gzip-compressed responses (true)
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACClient {
+
+	/**
+	 * Endpoints
+	 */
+	public static final String API_URL = "http://api.snaccooperative.org/";
+	public static final String DEVELOPMENT_URL = "http://snac-dev.iath.virginia.edu/api/";
+
+	/**
+	 * System properties
+	 */
+	public static final String ENDPOINT = "snac.url";
+	public static final String THREADS = "snac.client.threads";
+	public static final String TIMEOUT = "snac.client.timeout";
+	public static final String GZIP = "snac.client.gzip";
+
+	/**
+	 * Size of the buffers used to read responses
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Longest error text kept from a response
+	 */
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	/**
+	 * A request SNAC did not receive, which can be sent again without risk of doing it twice:
+	 * the connection could not be opened, or SNAC answered that it was too busy
+	 */
+	public static class NotSentException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public NotSentException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * An HTTP error status
+	 */
+	public static class HttpException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+		private final String body;
+
+		public HttpException(int status, String body) {
+			super("HTTP " + status + (body.isEmpty() ? "" : ": " + body));
+			this.status = status;
+			this.body = body;
+		}
+
+		/**
+		 * Get the status
+		 *
+		 * @return HTTP status code
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Get the start of the response body
+		 *
+		 * @return The body, cut short if it is long
+		 */
+		public String getBody() {
+			return body;
+		}
+
+		/**
+		 * Could the same request succeed later
+		 *
+		 * @return True for HTTP 429 and server errors
+		 */
+		public boolean isTemporary() {
+			return status == 429 || status >= 500;
+		}
+	}
+
+	/**
+	 * Metrics of one command
+	 */
+	public static class Metrics {
+		private final AtomicInteger requests = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong received = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long sentBytes, long receivedBytes, long elapsed, boolean failed) {
+			requests.incrementAndGet();
+			if (failed)
+				failures.incrementAndGet();
+			sent.addAndGet(sentBytes);
+			received.addAndGet(receivedBytes);
+			nanos.addAndGet(elapsed);
+			long max;
+			while ((max = maxNanos.get()) < elapsed && !maxNanos.compareAndSet(max, elapsed))
+				;
+		}
+
+		public int getRequests() {
+			return requests.get();
+		}
+
+		public int getFailures() {
+			return failures.get();
+		}
+
+		public long getSentBytes() {
+			return sent.get();
+		}
+
+		public long getReceivedBytes() {
+			return received.get();
+		}
+
+		public long getNanos() {
+			return nanos.get();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+	}
+
+	/**
+	 * One request and its response
+	 *
+	 * Opened with open().  Write the body to getOutputStream(), then read the response from
+	 * getInputStream() to the end and close it; the metrics of the command are recorded
+	 * then.  A request given up on before that is recorded as failed by close(), and counts
+	 * against the endpoint only if it failed on the wire (connecting, sending or receiving).
+	 */
+	public class Request implements Closeable {
+		private final String command;
+		private final SNACEndpointSet.Endpoint endpoint;
+		private final HttpURLConnection connection;
+		private final long start = System.nanoTime();
+		private long sent;
+		private long received;
+		private boolean recorded;
+		private boolean wireFailed;
+
+		Request(String command, Collection<SNACEndpointSet.Endpoint> exclude) throws IOException {
+			this.command = command;
+			this.endpoint = endpoints.choose(exclude);
+			try {
+				connection = (HttpURLConnection) new URL(endpoint.getURL()).openConnection();
+				connection.setDoOutput(true);
+				connection.setConnectTimeout(timeout);
+				connection.setReadTimeout(timeout);
+				connection.setRequestProperty("Content-Type", "application/json");
+				if (gzip)
+					connection.setRequestProperty("Accept-Encoding", "gzip");
+				connection.setRequestMethod("PUT");
+			} catch (IOException | RuntimeException e) {
+				endpoints.cancel(endpoint);
+				throw e;
+			}
+		}
+
+		/**
+		 * Get the endpoint the request goes to
+		 *
+		 * @return The SNAC REST endpoint
+		 */
+		public String getEndpoint() {
+			return endpoint.getURL();
+		}
+
+		/**
+		 * Get the connection, to change its settings before the body is written
+		 *
+		 * @return The connection
+		 */
+		public HttpURLConnection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Connect and get the stream to write the body to
+		 *
+		 * @return The request body
+		 * @throws NotSentException If the connection could not be opened
+		 */
+		public OutputStream getOutputStream() throws IOException {
+			OutputStream os;
+			try {
+				os = connection.getOutputStream();
+			} catch (IOException e) {
+				// Nothing has been sent until the connection is open
+				wireFailed = true;
+				throw new NotSentException("Could not connect to " + endpoint.getURL() + ": " + e.getMessage(), e);
+			}
+			return new FilterOutputStream(os) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					try {
+						out.write(b, off, len);
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+					sent += len;
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					try {
+						out.write(b);
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+					sent++;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					try {
+						out.flush();
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						out.close();
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+				}
+			};
+		}
+
+		/**
+		 * Get the response body, decompressed
+		 *
+		 * @return The response, which must be read to the end and closed
+		 * @throws NotSentException If SNAC answered HTTP 429 or 503
+		 * @throws HttpException If SNAC answered with another error status
+		 */
+		public InputStream getInputStream() throws IOException {
+			int status;
+			InputStream response;
+			try {
+				status = connection.getResponseCode();
+				response = status >= 400 ? null : connection.getInputStream();
+			} catch (IOException e) {
+				wireFailed = true;
+				throw e;
+			}
+			if (status >= 400) {
+				// Read the error body too, so the connection can go back to the pool
+				String body = readError();
+				finish(true, status == 429 || status >= 500);
+				if (status == 429 || status == 503)
+					throw new NotSentException("HTTP " + status + (body.isEmpty() ? "" : ": " + body),
+							new HttpException(status, body));
+				throw new HttpException(status, body);
+			}
+			InputStream in = new FilterInputStream(response) {
+				@Override
+				public int read() throws IOException {
+					int b;
+					try {
+						b = in.read();
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+					if (b >= 0)
+						received++;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int read;
+					try {
+						read = in.read(b, off, len);
+					} catch (IOException e) {
+						wireFailed = true;
+						throw e;
+					}
+					if (read > 0)
+						received += read;
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					in.close();
+					finish(false, false);
+				}
+			};
+			if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			return in;
+		}
+
+		/**
+		 * Give up on the request, unless its response has been read
+		 */
+		public void close() {
+			if (!recorded) {
+				finish(true, wireFailed);
+				connection.disconnect();
+			}
+		}
+
+		private synchronized void finish(boolean failed, boolean endpointFailed) {
+			if (recorded)
+				return;
+			recorded = true;
+			long elapsed = System.nanoTime() - start;
+			getMetrics(command).record(sent, received, elapsed, failed);
+			endpoints.finished(endpoint, elapsed, endpointFailed);
+		}
+
+		private String readError() {
+			InputStream err = connection.getErrorStream();
+			if (err == null)
+				return "";
+			StringBuilder body = new StringBuilder();
+			try {
+				if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+					err = new GZIPInputStream(err, BUFFER_SIZE);
+				Reader reader = new InputStreamReader(err, StandardCharsets.UTF_8);
+				char[] buffer = new char[4096];
+				int read;
+				while ((read = reader.read(buffer)) != -1) {
+					received += read;
+					if (body.length() < MAX_ERROR_LENGTH)
+						body.append(buffer, 0, Math.min(read, MAX_ERROR_LENGTH - body.length()));
+				}
+				err.close();
+			} catch (IOException e) {
+				// The status says enough
+			}
+			return body.toString().trim();
+		}
+	}
+
+	/**
+	 * Clients by endpoint, so that tools talking to the same endpoint share metrics
+	 */
+	private static final Map<String, SNACClient> clients = new ConcurrentHashMap<String, SNACClient>();
+
+	/**
+	 * Pool the asynchronous commands run on
+	 */
+	private static ExecutorService executor;
+
+	private final String url;
+	private final SNACEndpointSet endpoints;
+	private final int timeout;
+	private final boolean gzip;
+
+	/**
+	 * Metrics by command
+	 */
+	private final Map<String, Metrics> metrics = new ConcurrentHashMap<String, Metrics>();
+
+	/**
+	 * Constructor
+	 *
+	 * Use get() to share the client of an endpoint.
+	 *
+	 * @param url SNAC REST endpoint, or comma-separated endpoints (see SNACEndpointSet)
+	 * @throws IllegalArgumentException If an endpoint is not a URL
+	 */
+	public SNACClient(String url) {
+		this.url = url;
+		this.endpoints = new SNACEndpointSet(url);
+		endpoints.startHealthChecks();
+		this.timeout = Integer.parseInt(System.getProperty(TIMEOUT, "300000").trim());
+		this.gzip = !"false".equalsIgnoreCase(System.getProperty(GZIP, "true").trim());
+		// One pooled keep-alive connection per request at a time; this must be set before the first request
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", Integer.toString(getThreads()));
+	}
+
+	/**
+	 * Get the client of an endpoint
+	 *
+	 * @param url SNAC REST endpoint, or comma-separated endpoints (see SNACEndpointSet)
+	 * @return The shared client
+	 */
+	public static SNACClient get(String url) {
+		// Only the client that is kept is built, so no health checker is started for nothing
+		return clients.computeIfAbsent(url, new Function<String, SNACClient>() {
+			public SNACClient apply(String endpoint) {
+				return new SNACClient(endpoint);
+			}
+		});
+	}
+
+	/**
+	 * Get the endpoint to use
+	 *
+	 * @param defaultUrl Endpoint of the tool
+	 * @return The snac.url setting, or the tool's endpoint if it is not set
+	 */
+	public static String getURL(String defaultUrl) {
+		String url = System.getProperty(ENDPOINT);
+		return url != null && !url.trim().isEmpty() ? url.trim() : defaultUrl;
+	}
+
+	/**
+	 * Get the number of requests run at a time
+	 *
+	 * @return The snac.client.threads setting
+	 */
+	public static int getThreads() {
+		return Math.max(1, Integer.parseInt(System.getProperty(THREADS, "8").trim()));
+	}
+
+	/**
+	 * Get the endpoint
+	 *
+	 * @return The SNAC REST endpoint, or the endpoints as given
+	 */
+	public String getEndpoint() {
+		return url;
+	}
+
+	/**
+	 * Get the endpoints the requests are spread over
+	 *
+	 * @return The endpoints, with their routing metrics
+	 */
+	public List<SNACEndpointSet.Endpoint> getEndpoints() {
+		return endpoints.getEndpoints();
+	}
+
+	/**
+	 * Open a request
+	 *
+	 * @param command SNAC command, for the metrics
+	 * @return The request, not yet connected
+	 * @throws IOException
+	 */
+	public Request open(String command) throws IOException {
+		return new Request(command, Collections.<SNACEndpointSet.Endpoint>emptySet());
+	}
+
+	/**
+	 * Send a query and read the JSON response
+	 *
+	 * A query SNAC did not receive is sent again to each of the other endpoints in turn.
+	 *
+	 * @param query Query with a "command"
+	 * @return The response
+	 * @throws NotSentException If SNAC did not receive the query
+	 * @throws HttpException If SNAC answered with an error status
+	 * @throws IOException If the response could not be read or is not JSON
+	 */
+	public JSONObject send(JSONObject query) throws IOException {
+		byte[] body = query.toString().getBytes(StandardCharsets.UTF_8);
+		String command = query.optString("command", "unknown");
+		Set<SNACEndpointSet.Endpoint> tried = new HashSet<SNACEndpointSet.Endpoint>();
+		while (true) {
+			Request request = new Request(command, tried);
+			try {
+				request.getConnection().setFixedLengthStreamingMode(body.length);
+				OutputStream os = request.getOutputStream();
+				try {
+					os.write(body);
+				} finally {
+					os.close();
+				}
+				return readJSON(request.getInputStream());
+			} catch (NotSentException e) {
+				tried.add(request.endpoint);
+				if (tried.size() >= endpoints.size())
+					throw e;
+			} finally {
+				request.close();
+			}
+		}
+	}
+
+	/**
+	 * Send a query on the client's pool
+	 *
+	 * @param query Query with a "command"
+	 * @return The response, or the IOException that send() would throw
+	 */
+	public CompletableFuture<JSONObject> sendAsync(final JSONObject query) {
+		return CompletableFuture.supplyAsync(new Supplier<JSONObject>() {
+			public JSONObject get() {
+				try {
+					return send(query);
+				} catch (IOException e) {
+					throw new java.util.concurrent.CompletionException(e);
+				}
+			}
+		}, getExecutor());
+	}
+
+	/**
+	 * Reconcile a constellation
+	 *
+	 * @param constellation Constellation to find matches for (name entries, entity type...)
+	 * @return The response, with the matches in "reconciliation"
+	 */
+	public CompletableFuture<JSONObject> reconcile(JSONObject constellation) {
+		return sendAsync(query("reconcile", "constellation", constellation));
+	}
+
+	/**
+	 * Read a constellation
+	 *
+	 * @param id Constellation ID
+	 * @return The response, with the constellation in "constellation"
+	 */
+	public CompletableFuture<JSONObject> read(long id) {
+		return sendAsync(query("read_constellation", "constellationid", id));
+	}
+
+	/**
+	 * Download a constellation as a file
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param type Type of file: eac-cpf or constellation_json
+	 * @return The response, with the filename and Base64-encoded contents in "file"
+	 */
+	public CompletableFuture<JSONObject> downloadConstellation(String icid, String type) {
+		return sendAsync(query("download_constellation", "constellationid", icid, "type", type));
+	}
+
+	/**
+	 * Parse an EAC-CPF file
+	 *
+	 * The file is read and encoded on the client's pool.  The ingest tools stream large files
+	 * instead (see SNACParseClient).
+	 *
+	 * @param xmlPath File to parse
+	 * @return The response, with "constellation", "result" and "unparsed"
+	 */
+	public CompletableFuture<JSONObject> parseEac(final Path xmlPath) {
+		return CompletableFuture.supplyAsync(new Supplier<JSONObject>() {
+			public JSONObject get() {
+				try {
+					JSONObject file = new JSONObject()
+							.put("mime-type", "text/xml")
+							.put("content", Base64.getEncoder().encodeToString(Files.readAllBytes(xmlPath)));
+					return send(query("parse_eac", "file", file));
+				} catch (IOException e) {
+					throw new java.util.concurrent.CompletionException(e);
+				} catch (JSONException e) {
+					throw new java.util.concurrent.CompletionException(e);
+				}
+			}
+		}, getExecutor());
+	}
+
+	/**
+	 * Get the metrics of a command
+	 *
+	 * @param command SNAC command
+	 * @return Its metrics, all zero if it has not been sent
+	 */
+	public Metrics getMetrics(String command) {
+		Metrics m = metrics.get(command);
+		if (m == null) {
+			metrics.putIfAbsent(command, new Metrics());
+			m = metrics.get(command);
+		}
+		return m;
+	}
+
+	/**
+	 * Print the metrics of every command sent
+	 *
+	 * @param out Stream to print to
+	 */
+	public void printMetrics(PrintStream out) {
+		for (Map.Entry<String, Metrics> entry : new TreeMap<String, Metrics>(metrics).entrySet()) {
+			Metrics m = entry.getValue();
+			if (m.getRequests() == 0)
+				continue;
+			out.println(String.format("%-24s %6d requests, %4d failed, %8.1f KB sent, %8.1f KB received, %6.0f ms average, %6.0f ms slowest",
+					entry.getKey(), m.getRequests(), m.getFailures(), m.getSentBytes() / 1e3, m.getReceivedBytes() / 1e3,
+					m.getNanos() / 1e6 / m.getRequests(), m.getMaxNanos() / 1e6));
+		}
+		if (endpoints.size() > 1)
+			endpoints.printMetrics(out);
+	}
+
+	/**
+	 * Read a JSON response to the end and close it
+	 *
+	 * Reading to the end is what lets the connection be reused.
+	 *
+	 * @param in Response body
+	 * @return The response
+	 * @throws IOException If it could not be read or is not JSON
+	 */
+	public static JSONObject readJSON(InputStream in) throws IOException {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new BufferedInputStream(in, BUFFER_SIZE),
+					StandardCharsets.UTF_8), BUFFER_SIZE);
+			JSONObject response;
+			try {
+				response = new JSONObject(new JSONTokener(reader));
+			} catch (JSONException e) {
+				throw new IOException("Not a JSON response: " + e.getMessage(), e);
+			}
+			while (reader.read() != -1)
+				;
+			return response;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Build a query from a command and pairs of field names and values
+	 */
+	private static JSONObject query(String command, Object... fields) {
+		try {
+			JSONObject query = new JSONObject().put("command", command);
+			for (int i = 0; i + 1 < fields.length; i += 2)
+				query.put((String) fields[i], fields[i + 1]);
+			return query;
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the pool the asynchronous commands run on
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "snac-client-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,481 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * SNAC Endpoint Set
+ *
+ * The endpoints a SNACClient spreads its requests over, given as a comma-separated list,
+ * each with an optional weight:
+ *
+ *   -Dsnac.url=http://snac-a.example.org/rest/*2,http://snac-b.example.org/rest/
+ *
+ * The endpoints must serve the same data: the development and production APIs are not
+ * replicas of each other and must not be listed together.
+ *
+ * Each request goes to the endpoint with the fewest requests outstanding for its weight
+ * (or, with snac.client.balance=weighted, to the endpoints in turn, in proportion to their
+ * weights).  An endpoint that fails several requests in a row, or answers them more slowly
+ * than snac.client.slow, is ejected: it gets no requests for a while, and is then given
+ * requests again; one more failure ejects it for twice as long, and an answered request
+ * clears its record.  Health checks, a GET of each endpoint every few seconds, eject
+ * endpoints that are down before requests are sent to them; any answer other than HTTP 429
+ * or a server error counts as up.  The last endpoint available is never ejected, so there
+ * is always one to send requests to.
+ *
+ * Settings (system properties):
+ *   snac.client.balance          least (fewest outstanding requests) or weighted (least)
+ *   snac.client.eject.failures   failed or slow requests in a row that eject an endpoint (3)
+ *   snac.client.eject.time       first ejection in ms, doubled up to 10 minutes (30000)
+ *   snac.client.slow             requests slower than this (ms) count as failed; 0 is off (60000)
+ *   snac.client.health.interval  ms between health checks; 0 is off (10000)
+ *   snac.client.health.timeout   connect and read timeout of a health check in ms (5000)
+ *
+ * With a single endpoint, nothing is ejected and no health checks are run.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACEndpointSet {
+
+	private static final Logger logger = Logger.getLogger(SNACEndpointSet.class.getName());
+
+	/**
+	 * System properties
+	 */
+	public static final String BALANCE = "snac.client.balance";
+	public static final String EJECT_FAILURES = "snac.client.eject.failures";
+	public static final String EJECT_TIME = "snac.client.eject.time";
+	public static final String SLOW = "snac.client.slow";
+	public static final String HEALTH_INTERVAL = "snac.client.health.interval";
+	public static final String HEALTH_TIMEOUT = "snac.client.health.timeout";
+
+	/**
+	 * Longest ejection
+	 */
+	private static final long MAX_EJECT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+	/**
+	 * One endpoint, with its routing metrics and health
+	 */
+	public static class Endpoint {
+		private final String url;
+		private final int weight;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger requests = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger slow = new AtomicInteger();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicInteger ejections = new AtomicInteger();
+		private final AtomicInteger checkFailures = new AtomicInteger();
+
+		/**
+		 * Health, guarded by the endpoint
+		 */
+		private int failedInARow;
+		private int ejectedInARow;
+		private long ejectedUntil;
+		private boolean ejected;
+
+		/**
+		 * Smooth weighted round-robin state, guarded by the set
+		 */
+		private int currentWeight;
+
+		Endpoint(String url, int weight) {
+			this.url = url;
+			this.weight = weight;
+		}
+
+		public String getURL() {
+			return url;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		public int getRequests() {
+			return requests.get();
+		}
+
+		public int getFailures() {
+			return failures.get();
+		}
+
+		public int getSlowRequests() {
+			return slow.get();
+		}
+
+		public long getNanos() {
+			return nanos.get();
+		}
+
+		public int getEjections() {
+			return ejections.get();
+		}
+
+		public int getCheckFailures() {
+			return checkFailures.get();
+		}
+
+		/**
+		 * Is the endpoint taking requests
+		 *
+		 * @return False while it is ejected
+		 */
+		public synchronized boolean isAvailable() {
+			return !ejected || System.nanoTime() - ejectedUntil >= 0;
+		}
+	}
+
+	private final List<Endpoint> endpoints;
+	private final boolean weighted;
+	private final int ejectFailures;
+	private final long ejectNanos;
+	private final long slowNanos;
+	private final long healthInterval;
+	private final int healthTimeout;
+
+	/**
+	 * Next endpoint to look at first, so that ties are spread out
+	 */
+	private int next;
+
+	/**
+	 * Health checker, when there is more than one endpoint
+	 */
+	private ScheduledExecutorService checker;
+
+	/**
+	 * Constructor
+	 *
+	 * @param spec Comma-separated endpoints, each optionally followed by *weight
+	 * @throws IllegalArgumentException If an endpoint is not a URL or a weight not a positive number
+	 */
+	public SNACEndpointSet(String spec) {
+		List<Endpoint> list = new ArrayList<Endpoint>();
+		for (String part : spec.split(",")) {
+			part = part.trim();
+			if (part.isEmpty())
+				continue;
+			int weight = 1;
+			int star = part.lastIndexOf('*');
+			if (star > 0) {
+				try {
+					weight = Integer.parseInt(part.substring(star + 1).trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad weight in " + part);
+				}
+				part = part.substring(0, star).trim();
+				if (weight < 1)
+					throw new IllegalArgumentException("Bad weight in " + part);
+			}
+			try {
+				new URL(part);
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Bad endpoint " + part + ": " + e.getMessage());
+			}
+			list.add(new Endpoint(part, weight));
+		}
+		if (list.isEmpty())
+			throw new IllegalArgumentException("No endpoint in \"" + spec + "\"");
+		endpoints = Collections.unmodifiableList(list);
+
+		weighted = "weighted".equalsIgnoreCase(System.getProperty(BALANCE, "least").trim());
+		ejectFailures = Math.max(1, Integer.parseInt(System.getProperty(EJECT_FAILURES, "3").trim()));
+		ejectNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(EJECT_TIME, "30000").trim()));
+		slowNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(SLOW, "60000").trim()));
+		healthInterval = Long.parseLong(System.getProperty(HEALTH_INTERVAL, "10000").trim());
+		healthTimeout = Integer.parseInt(System.getProperty(HEALTH_TIMEOUT, "5000").trim());
+	}
+
+	/**
+	 * Get the endpoints
+	 *
+	 * @return The endpoints, in the order given
+	 */
+	public List<Endpoint> getEndpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * Get the number of endpoints
+	 *
+	 * @return Number of endpoints
+	 */
+	public int size() {
+		return endpoints.size();
+	}
+
+	/**
+	 * Choose the endpoint of a request, and count the request as outstanding there
+	 *
+	 * Every endpoint chosen must be given back to finished().
+	 *
+	 * @param exclude Endpoints already tried for the request (may be empty)
+	 * @return The endpoint, or null if every endpoint has been tried
+	 */
+	public synchronized Endpoint choose(Collection<Endpoint> exclude) {
+		Endpoint best = null;
+		int total = 0;
+		int n = endpoints.size();
+		for (int i = 0; i < n; i++) {
+			Endpoint e = endpoints.get((next + i) % n);
+			if (exclude.contains(e) || !e.isAvailable())
+				continue;
+			if (weighted) {
+				e.currentWeight += e.weight;
+				total += e.weight;
+				if (best == null || e.currentWeight > best.currentWeight)
+					best = e;
+			} else if (best == null || (e.outstanding.get() + 1L) * best.weight < (best.outstanding.get() + 1L) * e.weight) {
+				best = e;
+			}
+		}
+		if (best != null && weighted)
+			best.currentWeight -= total;
+
+		// With every endpoint ejected, use the one due back first
+		if (best == null) {
+			for (Endpoint e : endpoints) {
+				if (exclude.contains(e))
+					continue;
+				synchronized (e) {
+					if (best == null || e.ejectedUntil - best.ejectedUntil < 0)
+						best = e;
+				}
+			}
+		}
+		if (best == null)
+			return null;
+
+		next = (next + 1) % n;
+		best.outstanding.incrementAndGet();
+		return best;
+	}
+
+	/**
+	 * Record the end of a request
+	 *
+	 * @param e Endpoint it was sent to
+	 * @param elapsed Time it took, in ns
+	 * @param failed Whether the endpoint failed it (no connection, no complete answer, HTTP 429
+	 *        or a server error); a refusal of the request itself is not a failure of the endpoint
+	 */
+	public void finished(Endpoint e, long elapsed, boolean failed) {
+		e.outstanding.decrementAndGet();
+		e.requests.incrementAndGet();
+		e.nanos.addAndGet(elapsed);
+		if (failed)
+			e.failures.incrementAndGet();
+		boolean tooSlow = slowNanos > 0 && elapsed > slowNanos;
+		if (tooSlow)
+			e.slow.incrementAndGet();
+
+		if (failed || tooSlow)
+			failure(e, failed ? "request failed" : "request answered in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+		else
+			success(e, true);
+	}
+
+	/**
+	 * Count a failure in a row, and eject the endpoint if there are too many
+	 *
+	 * @param e Endpoint that failed
+	 * @param what What failed, for the log
+	 */
+	private void failure(Endpoint e, String what) {
+		if (endpoints.size() < 2)
+			return;
+		// Ejections are decided one at a time, so that two endpoints failing together can not
+		// both be ejected as each other's last alternative
+		synchronized (this) {
+			synchronized (e) {
+				e.failedInARow++;
+				if (e.failedInARow < ejectFailures || !e.isAvailable())
+					return;
+				if (!isAnotherAvailable(e)) {
+					if (e.failedInARow == ejectFailures)
+						logger.warning("Keeping " + e.url + ", the last endpoint available, after " + ejectFailures
+								+ " failures in a row, the last: " + what);
+					return;
+				}
+				eject(e, what);
+			}
+		}
+	}
+
+	/**
+	 * Is there an endpoint other than the given one taking requests
+	 *
+	 * @param e Endpoint
+	 * @return True if another endpoint is available
+	 */
+	private boolean isAnotherAvailable(Endpoint e) {
+		for (Endpoint other : endpoints)
+			if (other != e && other.isAvailable())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Eject an endpoint, for twice as long as the last time if it was just back
+	 *
+	 * @param e Endpoint, locked by the caller
+	 * @param what Last failure, for the log
+	 */
+	private void eject(Endpoint e, String what) {
+		e.ejectedInARow++;
+		long time = Math.min(ejectNanos << Math.min(e.ejectedInARow - 1, 10), MAX_EJECT_NANOS);
+		e.ejected = true;
+		e.ejectedUntil = System.nanoTime() + time;
+		e.ejections.incrementAndGet();
+		// Back from an ejection, one more failure ejects it again
+		e.failedInARow = ejectFailures - 1;
+		logger.warning(String.format("Ejected %s for %d s after %d failures in a row, the last: %s", e.url,
+				TimeUnit.NANOSECONDS.toSeconds(time), ejectFailures, what));
+	}
+
+	/**
+	 * Give back an endpoint chosen for a request that was never started
+	 *
+	 * @param e Endpoint returned by choose()
+	 */
+	public void cancel(Endpoint e) {
+		e.outstanding.decrementAndGet();
+	}
+
+	/**
+	 * Record that an endpoint answered
+	 *
+	 * An answered request clears its failures.  A passed health check only ends an ejection
+	 * whose time is up, and leaves the endpoint one failure away from a longer one: it shows
+	 * the endpoint is there, not that it is fast again.
+	 *
+	 * @param e Endpoint that answered
+	 * @param request Whether it answered a request, rather than a health check
+	 */
+	private void success(Endpoint e, boolean request) {
+		boolean back;
+		synchronized (e) {
+			// Answers to requests sent before it was ejected do not bring it back early
+			if (e.ejected && !e.isAvailable())
+				return;
+			back = e.ejected;
+			e.ejected = false;
+			if (request) {
+				e.failedInARow = 0;
+				e.ejectedInARow = 0;
+			}
+		}
+		if (back)
+			logger.info("Endpoint " + e.url + " is back");
+	}
+
+	/**
+	 * Start the health checks, if there is more than one endpoint to choose from
+	 */
+	public synchronized void startHealthChecks() {
+		if (checker != null || endpoints.size() < 2 || healthInterval <= 0)
+			return;
+		checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "snac-client-health");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		checker.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				for (Endpoint e : endpoints)
+					check(e);
+			}
+		}, healthInterval, healthInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Check whether an endpoint answers
+	 *
+	 * @param e Endpoint to check
+	 */
+	private void check(Endpoint e) {
+		String problem = null;
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(e.url).openConnection();
+			connection.setConnectTimeout(healthTimeout);
+			connection.setReadTimeout(healthTimeout);
+			int status = connection.getResponseCode();
+			if (status == 429 || status >= 500)
+				problem = "health check answered HTTP " + status;
+
+			// Read the answer to the end, so the connection can be reused
+			InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			if (in != null) {
+				byte[] buffer = new byte[4096];
+				while (in.read(buffer) != -1)
+					;
+				in.close();
+			}
+		} catch (IOException ex) {
+			if (problem == null)
+				problem = "health check failed (" + ex.getMessage() + ")";
+			if (connection != null)
+				connection.disconnect();
+		}
+
+		if (problem == null) {
+			success(e, false);
+		} else {
+			e.checkFailures.incrementAndGet();
+			failure(e, problem);
+		}
+	}
+
+	/**
+	 * Print the requests sent to each endpoint
+	 *
+	 * @param out Stream to print to
+	 */
+	public void printMetrics(PrintStream out) {
+		out.println("endpoints (" + (weighted ? "weighted" : "fewest outstanding") + ")");
+		for (Endpoint e : endpoints) {
+			int requests = e.getRequests();
+			out.println(String.format("  %-40s weight %2d, %6d requests, %4d failed, %4d slow, %6.0f ms average, %3d outstanding, %2d ejections, %3d failed checks, %s",
+					e.url, e.weight, requests, e.getFailures(), e.getSlowRequests(),
+					requests == 0 ? 0.0 : e.getNanos() / 1e6 / requests, e.getOutstanding(), e.getEjections(),
+					e.getCheckFailures(), e.isAvailable() ? "up" : "ejected"));
+		}
+	}
+}
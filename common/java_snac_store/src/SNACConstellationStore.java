@@ -0,0 +1,875 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Constellation Store
+ *
+ * An embedded on-disk store of constellation JSON, keyed by constellation ID and version, so
+ * tools can answer from what they fetched before instead of asking the SNAC API again.
+ *
+ * The store is log-structured: every write is appended to the current segment file, and an
+ * in-memory index maps each ID to where its versions are.  Full segments are memory-mapped,
+ * so a read is a hash lookup and a copy out of the mapping (microseconds, no system call).
+ * Writing a version again, keeping only the newest few versions of a constellation, and
+ * removing constellations leave dead records behind; a background thread rewrites segments
+ * that are mostly dead and deletes them.  On open, the segments are replayed to rebuild the
+ * index, and a record torn by a crash at the end of the log is cut off.
+ *
+ * Only one process can have a store open: each appends at its own idea of the end of the
+ * log, so two would overwrite each other's records.  The store holds a lock on store.lock
+ * in its directory while it is open, and a second process (or a second open in the same
+ * process) gets a LockedException; the default store is then simply not used.
+ *
+ * Record layout: length (int, -1 for a removal), ID (long), version (long), CRC-32 of the
+ * ID, version and contents (int), then the UTF-8 contents.
+ *
+ * get(id, version, loader) reads through to a Loader (normally the SNAC API) on a miss and
+ * keeps what it returns; put(id, version, json, saver) writes through to a Saver before
+ * storing.  The default store is in ~/.snac-store; set -Dsnac.store.dir to move it or
+ * -Dsnac.store=false to turn it off.
+ *
+ * Usage: SNACConstellationStore [-dir directory] stats | get id [version] | remove id | compact
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACConstellationStore implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(SNACConstellationStore.class.getName());
+
+	/**
+	 * System properties: where the default store is, whether there is one, and how many
+	 * versions of each constellation it keeps
+	 */
+	public static final String STORE = "snac.store";
+	public static final String STORE_DIRECTORY = "snac.store.dir";
+	public static final String STORE_VERSIONS = "snac.store.versions";
+
+	/**
+	 * Version number meaning "the newest version"
+	 */
+	public static final long LATEST = 0;
+
+	/**
+	 * The store is open in another process (or already open in this one)
+	 */
+	public static class LockedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public LockedException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Size a segment is sealed (and mapped) at
+	 */
+	private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Size of a record header
+	 */
+	private static final int HEADER_SIZE = 24;
+
+	/**
+	 * Segments whose share of live records is below this are compacted
+	 */
+	private static final double COMPACT_BELOW = 0.5;
+
+	/**
+	 * Source of constellations the store does not have
+	 */
+	public interface Loader {
+		/**
+		 * Load a constellation
+		 *
+		 * @param id Constellation ID
+		 * @param version Version, or LATEST
+		 * @return The constellation JSON, or null if there is none
+		 * @throws IOException
+		 */
+		String load(long id, long version) throws IOException;
+	}
+
+	/**
+	 * Destination of constellations written through the store
+	 */
+	public interface Saver {
+		/**
+		 * Save a constellation
+		 *
+		 * @param id Constellation ID
+		 * @param version Version
+		 * @param json Constellation JSON
+		 * @throws IOException If it could not be saved; the store then does not keep it either
+		 */
+		void save(long id, long version, String json) throws IOException;
+	}
+
+	/**
+	 * A segment file
+	 */
+	private static class Segment {
+		final int number;
+		final File file;
+		final FileChannel channel;
+		volatile MappedByteBuffer mapped;
+		final AtomicLong size = new AtomicLong();
+		final AtomicLong live = new AtomicLong();
+
+		Segment(int number, File file) throws IOException {
+			this.number = number;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		}
+
+		/**
+		 * Map the segment once it is no longer written to
+		 */
+		void seal() throws IOException {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size.get());
+		}
+
+		/**
+		 * Read bytes at an offset
+		 */
+		byte[] read(long offset, int length) throws IOException {
+			byte[] bytes = new byte[length];
+			MappedByteBuffer buffer = mapped;
+			if (buffer != null) {
+				ByteBuffer view = buffer.duplicate();
+				view.position((int) offset);
+				view.get(bytes);
+			} else {
+				ByteBuffer view = ByteBuffer.wrap(bytes);
+				while (view.hasRemaining())
+					if (channel.read(view, offset + view.position()) < 0)
+						throw new IOException("Unexpected end of " + file);
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Where a version of a constellation is, with a link to the next older version
+	 */
+	private static class Entry {
+		final long version;
+		final Segment segment;
+		final long offset;
+		final int length;
+		final Entry older;
+
+		Entry(long version, Segment segment, long offset, int length, Entry older) {
+			this.version = version;
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.older = older;
+		}
+
+		Entry withOlder(Entry older) {
+			return new Entry(version, segment, offset, length, older);
+		}
+
+		int recordSize() {
+			return HEADER_SIZE + length;
+		}
+	}
+
+	/**
+	 * The default store, opened on first use
+	 */
+	private static SNACConstellationStore defaultStore;
+	private static boolean defaultOpened;
+
+	private final File directory;
+	private final int keepVersions;
+
+	/**
+	 * Index of the newest version of every constellation
+	 */
+	private final ConcurrentHashMap<Long, Entry> index = new ConcurrentHashMap<Long, Entry>();
+
+	/**
+	 * Segments, oldest first; the last one is written to
+	 */
+	private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+	private Segment active;
+
+	/**
+	 * Counters for stats
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private final ScheduledExecutorService compactor;
+
+	/**
+	 * Directories of the stores open in this JVM; a second channel on the lock file must not
+	 * even be opened, since closing it would release the first one's lock
+	 */
+	private static final Set<String> openDirectories = new HashSet<String>();
+
+	/**
+	 * Lock on store.lock, held while the store is open
+	 */
+	private final String lockedDirectory;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+
+	/**
+	 * Open a store
+	 *
+	 * @param directory Directory of the store, created if needed
+	 * @param keepVersions Number of versions of each constellation to keep
+	 * @throws LockedException If another process has the store open
+	 * @throws IOException If the store can not be read or created
+	 */
+	public SNACConstellationStore(File directory, int keepVersions) throws IOException {
+		this.directory = directory;
+		this.keepVersions = Math.max(keepVersions, 1);
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException("Can not create store directory " + directory);
+
+		lockedDirectory = directory.getCanonicalPath();
+		synchronized (openDirectories) {
+			if (!openDirectories.add(lockedDirectory))
+				throw new LockedException("The store " + directory + " is already open");
+		}
+		FileChannel channel = null;
+		FileLock held = null;
+		try {
+			channel = FileChannel.open(new File(directory, "store.lock").toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+			held = channel.tryLock();
+			if (held == null)
+				throw new LockedException("The store " + directory + " is in use by another process");
+			lockChannel = channel;
+			lock = held;
+			open();
+		} catch (IOException | RuntimeException e) {
+			if (channel != null)
+				channel.close();
+			synchronized (openDirectories) {
+				openDirectories.remove(lockedDirectory);
+			}
+			throw e;
+		}
+
+		compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "snac-store-compactor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					compact();
+				} catch (IOException e) {
+					logger.warning("Compaction of " + SNACConstellationStore.this.directory + " failed: " + e.getMessage());
+				}
+			}
+		}, 30, 30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Replay the segments, with the lock held
+	 *
+	 * @throws IOException If a segment can not be read
+	 */
+	private void open() throws IOException {
+		File[] files = directory.listFiles();
+		List<Integer> numbers = new ArrayList<Integer>();
+		if (files != null)
+			for (File file : files)
+				if (file.getName().matches("segment-[0-9]+\\.log"))
+					numbers.add(Integer.parseInt(file.getName().replaceAll("[^0-9]", "")));
+		Integer[] sorted = numbers.toArray(new Integer[numbers.size()]);
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			Segment segment = new Segment(sorted[i], segmentFile(sorted[i]));
+			replay(segment, i == sorted.length - 1);
+			segments.add(segment);
+		}
+		if (segments.isEmpty())
+			segments.add(new Segment(1, segmentFile(1)));
+		active = segments.get(segments.size() - 1);
+		for (Segment segment : segments)
+			if (segment != active)
+				segment.seal();
+	}
+
+	/**
+	 * Get the default store
+	 *
+	 * @return The store, or null if it is turned off, in use by another process or can not
+	 *         be opened
+	 */
+	public static synchronized SNACConstellationStore getDefault() {
+		if (!defaultOpened) {
+			defaultOpened = true;
+			if (!"false".equalsIgnoreCase(System.getProperty(STORE, "true").trim())) {
+				File directory = new File(System.getProperty(STORE_DIRECTORY,
+						new File(System.getProperty("user.home"), ".snac-store").getPath()));
+				try {
+					defaultStore = new SNACConstellationStore(directory,
+							Integer.parseInt(System.getProperty(STORE_VERSIONS, "3").trim()));
+				} catch (LockedException e) {
+					logger.info("Not using the constellation store: " + e.getMessage());
+				} catch (IOException | NumberFormatException e) {
+					logger.warning("Not using the constellation store " + directory + ": " + e.getMessage());
+				}
+			}
+		}
+		return defaultStore;
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int i = 0;
+		if (args.length >= 2 && args[0].equals("-dir")) {
+			System.setProperty(STORE_DIRECTORY, args[1]);
+			i = 2;
+		}
+		if (args.length <= i)
+			usage();
+		SNACConstellationStore store = getDefault();
+		if (store == null)
+			System.exit(1);
+
+		String command = args[i];
+		if (command.equals("stats") && args.length == i + 1) {
+			System.out.println(store.getStats());
+		} else if (command.equals("get") && (args.length == i + 2 || args.length == i + 3)) {
+			String json = store.get(Long.parseLong(args[i + 1]), args.length == i + 3 ? Long.parseLong(args[i + 2]) : LATEST);
+			if (json == null) {
+				System.err.println("Not in the store");
+				System.exit(1);
+			}
+			System.out.println(json);
+		} else if (command.equals("remove") && args.length == i + 2) {
+			store.remove(Long.parseLong(args[i + 1]));
+		} else if (command.equals("compact") && args.length == i + 1) {
+			store.compact(0.999);
+			System.out.println(store.getStats());
+		} else {
+			usage();
+		}
+		store.close();
+	}
+
+	/**
+	 * Get a constellation
+	 *
+	 * @param id Constellation ID
+	 * @param version Version, or LATEST for the newest version in the store
+	 * @return The constellation JSON, or null if the store does not have it
+	 * @throws IOException If the store can not be read
+	 */
+	public String get(long id, long version) throws IOException {
+		Entry entry = index.get(id);
+		while (entry != null && version != LATEST && entry.version != version)
+			entry = entry.older;
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new String(entry.segment.read(entry.offset + HEADER_SIZE, entry.length), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get a constellation, loading and keeping it if the store does not have it
+	 *
+	 * @param id Constellation ID
+	 * @param version Version, or LATEST for the newest version in the store
+	 * @param loader Where to load it from on a miss
+	 * @return The constellation JSON, or null if neither the store nor the loader has it
+	 * @throws IOException If the store can not be read or the loader fails
+	 */
+	public String get(long id, long version, Loader loader) throws IOException {
+		String json = get(id, version);
+		if (json != null)
+			return json;
+		json = loader.load(id, version);
+		if (json != null) {
+			long loaded = version != LATEST ? version : getVersion(json);
+			put(id, loaded, json);
+		}
+		return json;
+	}
+
+	/**
+	 * Get the versions of a constellation in the store
+	 *
+	 * @param id Constellation ID
+	 * @return Versions, newest first
+	 */
+	public long[] getVersions(long id) {
+		int count = 0;
+		for (Entry entry = index.get(id); entry != null; entry = entry.older)
+			count++;
+		long[] versions = new long[count];
+		int i = 0;
+		for (Entry entry = index.get(id); entry != null && i < count; entry = entry.older)
+			versions[i++] = entry.version;
+		return i == count ? versions : Arrays.copyOf(versions, i);
+	}
+
+	/**
+	 * Store a constellation
+	 *
+	 * Storing a version the store already has replaces it.
+	 *
+	 * @param id Constellation ID
+	 * @param version Version
+	 * @param json Constellation JSON
+	 * @throws IOException If the store can not be written
+	 */
+	public void put(long id, long version, String json) throws IOException {
+		byte[] contents = json.getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			Segment segment = active;
+			long offset = append(id, version, contents);
+			link(id, new Entry(version, segment, offset, contents.length, null));
+		}
+	}
+
+	/**
+	 * Save a constellation through a saver, then store it
+	 *
+	 * @param id Constellation ID
+	 * @param version Version
+	 * @param json Constellation JSON
+	 * @param saver Where to save it first
+	 * @throws IOException If either the saver or the store fails
+	 */
+	public void put(long id, long version, String json, Saver saver) throws IOException {
+		saver.save(id, version, json);
+		put(id, version, json);
+	}
+
+	/**
+	 * Store a constellation, taking the ID and version from the JSON
+	 *
+	 * A constellation without a version is stored as version 1.
+	 *
+	 * @param constellation Constellation with numeric id and version fields
+	 * @return True if it was stored, false if it has no ID (a new constellation)
+	 * @throws IOException If the store can not be written
+	 */
+	public boolean put(JSONObject constellation) throws IOException {
+		long id = getNumber(constellation, "id");
+		if (id <= 0)
+			return false;
+		put(id, Math.max(getNumber(constellation, "version"), 1), constellation.toString());
+		return true;
+	}
+
+	/**
+	 * Remove every version of a constellation
+	 *
+	 * @param id Constellation ID
+	 * @throws IOException If the store can not be written
+	 */
+	public synchronized void remove(long id) throws IOException {
+		Entry removed = index.remove(id);
+		if (removed == null)
+			return;
+		append(id, LATEST, null);
+		for (Entry entry = removed; entry != null; entry = entry.older)
+			entry.segment.live.addAndGet(-entry.recordSize());
+	}
+
+	/**
+	 * Get the number of constellations in the store
+	 *
+	 * @return Constellations, not counting older versions
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Describe the store
+	 *
+	 * @return Constellations, segments, sizes and hit counts
+	 */
+	public String getStats() {
+		long size = 0;
+		long live = 0;
+		for (Segment segment : segments) {
+			size += segment.size.get();
+			live += segment.live.get();
+		}
+		return String.format("%s: %d constellations in %d segments, %.1f MB (%.1f MB live), %d hits, %d misses",
+				directory, index.size(), segments.size(), size / 1e6, live / 1e6, hits.get(), misses.get());
+	}
+
+	/**
+	 * Compact the segments that are mostly dead records
+	 *
+	 * Runs in the background every 30 seconds; can also be called directly.
+	 *
+	 * @throws IOException If a segment can not be read or the store written
+	 */
+	public void compact() throws IOException {
+		compact(COMPACT_BELOW);
+	}
+
+	/**
+	 * Compact the full segments whose share of live records is below a threshold
+	 *
+	 * The live records of each such segment are appended again and the index moved to the
+	 * copies, then the segment is deleted.
+	 *
+	 * @param threshold Share of live bytes below which a segment is compacted
+	 * @throws IOException If a segment can not be read or the store written
+	 */
+	public void compact(double threshold) throws IOException {
+		for (Segment segment : segments) {
+			if (segment == active || segment.mapped == null)
+				continue;
+			long size = segment.size.get();
+			if (size > 0 && segment.live.get() >= size * threshold)
+				continue;
+			compactSegment(segment);
+		}
+	}
+
+	/**
+	 * Stop compacting and close the segment files
+	 *
+	 * A compaction under way is finished first.  It is not interrupted, since an interrupt
+	 * in the middle of a write closes the channel written to.
+	 */
+	public void close() throws IOException {
+		compactor.shutdown();
+		try {
+			while (!compactor.awaitTermination(10, TimeUnit.SECONDS))
+				logger.info("Waiting for the compaction of " + directory + " to finish");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the compaction of " + directory);
+		}
+		synchronized (this) {
+			try {
+				for (Segment segment : segments)
+					segment.channel.close();
+			} finally {
+				// Closing the channel releases the lock
+				lockChannel.close();
+				synchronized (openDirectories) {
+					openDirectories.remove(lockedDirectory);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Append a record to the active segment, starting a new segment if it is full
+	 *
+	 * @return Offset of the record in the segment it went to
+	 */
+	private synchronized long append(long id, long version, byte[] contents) throws IOException {
+		if (active.size.get() >= SEGMENT_SIZE) {
+			active.seal();
+			Segment next = new Segment(active.number + 1, segmentFile(active.number + 1));
+			segments.add(next);
+			active = next;
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + (contents == null ? 0 : contents.length));
+		record.putInt(contents == null ? -1 : contents.length);
+		record.putLong(id);
+		record.putLong(version);
+		record.putInt(checksum(id, version, contents, 0, contents == null ? 0 : contents.length));
+		if (contents != null)
+			record.put(contents);
+		record.flip();
+
+		long offset = active.size.get();
+		while (record.hasRemaining())
+			active.channel.write(record, offset + record.position());
+		active.size.addAndGet(record.limit());
+		if (contents != null)
+			active.live.addAndGet(record.limit());
+		return offset;
+	}
+
+	/**
+	 * Put an entry in the index, in version order, dropping versions beyond those kept
+	 */
+	private void link(long id, final Entry added) {
+		index.compute(id, new java.util.function.BiFunction<Long, Entry, Entry>() {
+			public Entry apply(Long key, Entry head) {
+				List<Entry> versions = new ArrayList<Entry>();
+				boolean placed = false;
+				for (Entry entry = head; entry != null; entry = entry.older) {
+					if (!placed && added.version >= entry.version) {
+						versions.add(added);
+						placed = true;
+					}
+					if (entry.version == added.version)
+						entry.segment.live.addAndGet(-entry.recordSize());
+					else
+						versions.add(entry);
+				}
+				if (!placed)
+					versions.add(added);
+				while (versions.size() > keepVersions) {
+					Entry dropped = versions.remove(versions.size() - 1);
+					dropped.segment.live.addAndGet(-dropped.recordSize());
+				}
+				return chain(versions);
+			}
+		});
+	}
+
+	/**
+	 * Link a list of entries, newest first
+	 */
+	private static Entry chain(List<Entry> versions) {
+		Entry head = null;
+		for (int i = versions.size() - 1; i >= 0; i--)
+			head = versions.get(i).withOlder(head);
+		return head;
+	}
+
+	/**
+	 * Rebuild the index from a segment
+	 *
+	 * @param last Whether this is the newest segment, whose torn end (if any) is cut off
+	 */
+	private void replay(Segment segment, boolean last) throws IOException {
+		long fileSize = segment.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long offset = 0;
+		while (offset + HEADER_SIZE <= fileSize) {
+			header.clear();
+			while (header.hasRemaining())
+				if (segment.channel.read(header, offset + header.position()) < 0)
+					break;
+			header.flip();
+			int length = header.getInt();
+			long id = header.getLong();
+			long version = header.getLong();
+			int crc = header.getInt();
+			int contentLength = Math.max(length, 0);
+			if (length < -1 || offset + HEADER_SIZE + contentLength > fileSize)
+				break;
+			byte[] contents = segment.read(offset + HEADER_SIZE, contentLength);
+			if (crc != checksum(id, version, length < 0 ? null : contents, 0, contentLength))
+				break;
+
+			segment.size.set(offset + HEADER_SIZE + contentLength);
+			if (length < 0) {
+				Entry removed = index.remove(id);
+				for (Entry entry = removed; entry != null; entry = entry.older)
+					entry.segment.live.addAndGet(-entry.recordSize());
+			} else {
+				segment.live.addAndGet(HEADER_SIZE + contentLength);
+				link(id, new Entry(version, segment, offset, contentLength, null));
+			}
+			offset = segment.size.get();
+		}
+
+		if (offset < fileSize) {
+			if (last) {
+				logger.warning("Cutting off " + (fileSize - offset) + " damaged bytes at the end of " + segment.file);
+				segment.channel.truncate(offset);
+			} else {
+				logger.warning("Ignoring " + (fileSize - offset) + " damaged bytes at the end of " + segment.file);
+			}
+		}
+	}
+
+	/**
+	 * Copy the live records of a segment to the active segment and delete it
+	 */
+	private void compactSegment(Segment segment) throws IOException {
+		ByteBuffer buffer = segment.mapped.duplicate();
+		long end = segment.size.get();
+		boolean olderSegments = segments.indexOf(segment) > 0;
+		int moved = 0;
+
+		for (long offset = 0; offset + HEADER_SIZE <= end;) {
+			buffer.position((int) offset);
+			int length = buffer.getInt();
+			long id = buffer.getLong();
+			long version = buffer.getLong();
+			int contentLength = Math.max(length, 0);
+			final long recordOffset = offset;
+			offset += HEADER_SIZE + contentLength;
+
+			if (length < 0) {
+				// A removal still hides records in older segments, so it has to survive them,
+				// even if the constellation was put again since
+				if (olderSegments)
+					copyRemoval(id, version, segment);
+				continue;
+			}
+			if (!isCurrent(id, segment, recordOffset))
+				continue;
+
+			byte[] contents = segment.read(recordOffset + HEADER_SIZE, contentLength);
+			synchronized (this) {
+				// Only move the record if nothing replaced it while it was being read
+				if (!isCurrent(id, segment, recordOffset))
+					continue;
+				Segment target = active;
+				long copied = append(id, version, contents);
+				relocate(id, segment, recordOffset, new Entry(version, target, copied, contentLength, null));
+				segment.live.addAndGet(-(HEADER_SIZE + contentLength));
+				moved++;
+			}
+		}
+
+		synchronized (this) {
+			segments.remove(segment);
+			segment.channel.close();
+			if (!segment.file.delete())
+				segment.file.deleteOnExit();
+		}
+		logger.info("Compacted " + segment.file.getName() + ": " + moved + " records kept");
+	}
+
+	/**
+	 * Append a removal again, ahead of the records of the constellation that follow it
+	 *
+	 * Those in the segment being compacted are copied after it by the compaction itself; any
+	 * in other segments now come before the copy, so they are written again after it.
+	 */
+	private synchronized void copyRemoval(long id, long version, Segment compacted) throws IOException {
+		append(id, version, null);
+		List<Entry> later = new ArrayList<Entry>();
+		for (Entry entry = index.get(id); entry != null; entry = entry.older)
+			if (entry.segment != compacted)
+				later.add(entry);
+		for (Entry entry : later) {
+			byte[] contents = entry.segment.read(entry.offset + HEADER_SIZE, entry.length);
+			Segment target = active;
+			long copied = append(id, entry.version, contents);
+			relocate(id, entry.segment, entry.offset, new Entry(entry.version, target, copied, entry.length, null));
+			entry.segment.live.addAndGet(-entry.recordSize());
+		}
+	}
+
+	/**
+	 * Is the record at an offset of a segment still in the index
+	 */
+	private boolean isCurrent(long id, Segment segment, long offset) {
+		for (Entry entry = index.get(id); entry != null; entry = entry.older)
+			if (entry.segment == segment && entry.offset == offset)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Point the index at the copy of a record
+	 */
+	private void relocate(long id, final Segment from, final long offset, final Entry copy) {
+		index.computeIfPresent(id, new java.util.function.BiFunction<Long, Entry, Entry>() {
+			public Entry apply(Long key, Entry head) {
+				List<Entry> versions = new ArrayList<Entry>();
+				for (Entry entry = head; entry != null; entry = entry.older)
+					versions.add(entry.segment == from && entry.offset == offset ? copy : entry);
+				return chain(versions);
+			}
+		});
+	}
+
+	private File segmentFile(int number) {
+		return new File(directory, String.format("segment-%06d.log", number));
+	}
+
+	private static int checksum(long id, long version, byte[] contents, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer key = ByteBuffer.allocate(16);
+		key.putLong(id).putLong(version);
+		crc.update(key.array(), 0, 16);
+		if (contents != null)
+			crc.update(contents, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Get the version of a constellation from its JSON
+	 */
+	private static long getVersion(String json) {
+		try {
+			return Math.max(getNumber(new JSONObject(json), "version"), 1);
+		} catch (JSONException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Get a numeric field, which SNAC sends as a number or a string
+	 */
+	private static long getNumber(JSONObject object, String field) {
+		try {
+			return Long.parseLong(object.optString(field, "").trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Inspect the local constellation store\n" +
+				"Usage: SNACConstellationStore [-dir directory] stats | get id [version] | remove id | compact\n\n" +
+				"The store is in -D" + STORE_DIRECTORY + " (~/.snac-store by default).");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SNAC EAC-CPF Benchmark Corpus
+ *
+ * Supplies the EAC-CPF documents the benchmarks run against.  If -Dsnac.bench.corpus names
+ * a directory containing small.xml, medium.xml and large.xml, those real records are used.
+ * Otherwise a synthetic record is generated with the number of cpfRelation/resourceRelation
+ * entries for the size, shaped like SNAC exports: a control section, one identity,
+ * existDates, a biogHist and the relations.  Every 50th relation lacks its xlink:role, so
+ * the profile has failures to report.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACEacCorpus {
+
+	/**
+	 * Number of relations in each generated size
+	 */
+	public static int relationsFor(String size) {
+		if (size.equals("small"))
+			return 10;
+		if (size.equals("medium"))
+			return 1000;
+		if (size.equals("large"))
+			return 50000;
+		throw new IllegalArgumentException("Unknown corpus size: " + size);
+	}
+
+	/**
+	 * Get a document of the given size
+	 *
+	 * @param size small, medium or large
+	 * @return The EAC-CPF file
+	 * @throws IOException
+	 */
+	public static File get(String size) throws IOException {
+		String corpus = System.getProperty("snac.bench.corpus");
+		if (corpus != null) {
+			File file = new File(corpus, size + ".xml");
+			if (file.isFile())
+				return file;
+		}
+		File file = File.createTempFile("eac-" + size + "-", ".xml");
+		file.deleteOnExit();
+		generate(file, relationsFor(size));
+		return file;
+	}
+
+	/**
+	 * Generate a synthetic EAC-CPF record
+	 *
+	 * @param file File to write
+	 * @param relations Number of relations to include
+	 * @throws IOException
+	 */
+	public static void generate(File file, int relations) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		try {
+			w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			w.write("<eac-cpf xmlns=\"urn:isbn:1-931666-33-4\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+			w.write("  <control>\n" +
+					"    <recordId>bench-" + relations + "</recordId>\n" +
+					"    <maintenanceStatus>new</maintenanceStatus>\n" +
+					"    <maintenanceAgency><agencyName>SNAC: Social Networks and Archival Context</agencyName></maintenanceAgency>\n" +
+					"    <languageDeclaration><language languageCode=\"eng\">English</language><script scriptCode=\"Latn\">Latin</script></languageDeclaration>\n" +
+					"    <maintenanceHistory><maintenanceEvent><eventType>created</eventType>" +
+					"<eventDateTime>2017-01-01</eventDateTime><agentType>machine</agentType><agent>benchmark</agent></maintenanceEvent></maintenanceHistory>\n" +
+					"    <sources><source xlink:type=\"simple\" xlink:href=\"http://example.edu/findingAids/bench\"/></sources>\n" +
+					"  </control>\n");
+			w.write("  <cpfDescription>\n" +
+					"    <identity><entityType>person</entityType><nameEntry><part>Holmes, Sherlock</part></nameEntry></identity>\n" +
+					"    <description>\n" +
+					"      <existDates><dateRange><fromDate standardDate=\"1854\">1854</fromDate><toDate standardDate=\"1957\">1957</toDate></dateRange></existDates>\n" +
+					"      <place><placeEntry>London (England)</placeEntry></place>\n" +
+					"      <occupation><term>Detectives</term></occupation>\n" +
+					"      <biogHist><p>Consulting detective of <span style=\"font-style:italic\">221B Baker Street</span>.</p></biogHist>\n" +
+					"    </description>\n" +
+					"    <relations>\n");
+			for (int i = 0; i < relations; i++) {
+				String role = (i % 50 == 49) ? "" : " xlink:role=\"http://socialarchive.iath.virginia.edu/control/term#Person\"";
+				if (i % 2 == 0) {
+					w.write("      <cpfRelation xlink:type=\"simple\" xlink:arcrole=\"http://socialarchive.iath.virginia.edu/control/term#associatedWith\"" +
+							role + " xlink:href=\"http://n2t.net/ark:/99166/bench" + i + "\">" +
+							"<relationEntry>Correspondent " + i + "</relationEntry>" +
+							"<dateRange><fromDate standardDate=\"1880\">1880</fromDate><toDate standardDate=\"1914\">1914</toDate></dateRange>" +
+							"</cpfRelation>\n");
+				} else {
+					w.write("      <resourceRelation xlink:type=\"simple\" xlink:arcrole=\"http://socialarchive.iath.virginia.edu/control/term#referencedIn\"" +
+							role.replace("#Person", "#ArchivalResource") + " xlink:href=\"http://example.edu/findingAids/bench" + i + "\">" +
+							"<relationEntry>Papers " + i + "</relationEntry>" +
+							"<objectXMLWrap><container xmlns=\"\"><filename>bench" + i + ".xml</filename></container></objectXMLWrap>" +
+							"</resourceRelation>\n");
+				}
+			}
+			w.write("    </relations>\n  </cpfDescription>\n</eac-cpf>\n");
+		} finally {
+			w.close();
+		}
+	}
+}
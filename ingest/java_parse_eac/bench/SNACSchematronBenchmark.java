@@ -0,0 +1,117 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.schematron.ISchematronResource;
+import com.helger.schematron.pure.SchematronResourcePure;
+import com.helger.schematron.xslt.SchematronResourceSCH;
+
+/**
+ * SNAC Schematron Benchmark
+ *
+ * Compares the XSLT and pure Schematron engines on both SNAC validation profiles over
+ * small, medium and large EAC-CPF documents (see SNACEacCorpus):
+ *
+ *  - compile:  cold compilation of the .sch profile, with the engines' caches off
+ *  - validate: warm validation of a parsed document, as average latency and throughput
+ *
+ * Build and run with the benchmark profile; add "-prof gc" for allocation rates:
+ *
+ *   mvn -P benchmark package
+ *   java -jar target/benchmarks.jar SNACSchematronBenchmark -prof gc
+ *
+ * The engine that wins for a workload can then be chosen with -Dsnac.schematron.engine.
+ *
+ * @author Robbie Hott
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SNACSchematronBenchmark {
+
+	@Param({"XSLT", "PURE"})
+	public String engine;
+
+	@Param({SNACSchematronProfile.DEFAULT_PROFILE, SNACSchematronProfile.ALTERNATE_PROFILE})
+	public String profileName;
+
+	@Param({"small", "medium", "large"})
+	public String size;
+
+	/**
+	 * Compiled profile and parsed document for the warm benchmarks
+	 */
+	private SNACSchematronProfile profile;
+	private SNACSchematronProfile.Engine profileEngine;
+	private XdmNode document;
+	private String documentName;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		profileEngine = SNACSchematronProfile.Engine.valueOf(engine);
+		profile = SNACSchematronProfile.getProfile(profileName);
+		documentName = SNACEacCorpus.get(size).getPath();
+		document = SNACSchematronProfile.parse(new java.io.File(documentName));
+
+		// Compile the engine's profile before measuring
+		profile.validate(documentName, document, profileEngine);
+	}
+
+	/**
+	 * Cold compile of the profile (independent of document size)
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 10)
+	public boolean compile() {
+		ISchematronResource resource;
+		if (profileEngine == SNACSchematronProfile.Engine.PURE) {
+			SchematronResourcePure pure = SchematronResourcePure.fromClassPath(profileName);
+			pure.setUseCache(false);
+			resource = pure;
+		} else {
+			SchematronResourceSCH sch = SchematronResourceSCH.fromClassPath(profileName);
+			sch.setUseCache(false);
+			resource = sch;
+		}
+		return resource.isValidSchematron();
+	}
+
+	/**
+	 * Warm validation of one parsed document
+	 */
+	@Benchmark
+	@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public SNACValidationResult validate() throws Exception {
+		return profile.validate(documentName, document, profileEngine);
+	}
+}
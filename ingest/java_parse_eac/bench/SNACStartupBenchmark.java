@@ -0,0 +1,329 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.event.AWTEventListener;
+import java.awt.event.WindowEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.AbstractButton;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * SNAC Startup Benchmark
+ *
+ * Measures the cold start of the desktop tools: each run launches the tool in a new JVM and
+ * times, from the launch,
+ *
+ *  - frame:  the first window opening (time-to-first-frame)
+ *  - result: the progress bar reaching 100% after a button is pressed (time-to-first-result),
+ *            when a button is given
+ *
+ * With -cds, the runs alternate between the default JVM and one using the given class-data
+ * sharing archive (built by the cds profile), so that both are measured under the same
+ * conditions.  The tools need a display; use xvfb-run on a server.  For example:
+ *
+ *   mvn -P benchmark package
+ *   java -cp target/benchmarks.jar SNACStartupBenchmark -cds target/snac-eac-utility.jsa \
+ *       -classpath target/snac-eac-utility.jar -set fromXMLFile=eac.xml -button "Schematron Validate"
+ *   java -cp target/benchmarks.jar SNACStartupBenchmark -cds cbw-reconciler.jsa \
+ *       -classpath cbw-reconciler.jar -set fromCSVFile=in.csv -set toCSVFile=out.csv \
+ *       -button "Reconcile Against SNAC" CBWReconcileUI
+ *
+ * The archive only applies when every entry of the class path is a jar, as it was when the
+ * archive was built.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACStartupBenchmark {
+
+	/**
+	 * Bounds of a run, in seconds
+	 */
+	private static final int DEFAULT_TIMEOUT = 300;
+
+	/**
+	 * Print the usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Usage: SNACStartupBenchmark [-runs 10] [-cds archive.jsa] [-classpath cp] [-timeout "
+				+ DEFAULT_TIMEOUT + "] [-set field=value]... [-button text] [main-class]");
+		System.err.println("  main-class defaults to SNACJavaParser; -set fields of the frame and press -button");
+		System.err.println("  to time the first result as well as the first frame");
+		System.exit(2);
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("-probe")) {
+			probe(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		int runs = 10;
+		int timeout = DEFAULT_TIMEOUT;
+		String archive = null;
+		String classpath = System.getProperty("java.class.path");
+		List<String> probeArgs = new ArrayList<String>();
+		String mainClass = "SNACJavaParser";
+
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-runs"))
+					runs = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-cds"))
+					archive = args[++i];
+				else if (args[i].equals("-classpath"))
+					classpath = args[++i] + File.pathSeparator + System.getProperty("java.class.path");
+				else if (args[i].equals("-timeout"))
+					timeout = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-set") || args[i].equals("-button")) {
+					probeArgs.add(args[i]);
+					probeArgs.add(args[++i]);
+				} else
+					usage();
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+		if (i < args.length)
+			mainClass = args[i++];
+		if (i != args.length || runs < 1)
+			usage();
+
+		if (GraphicsEnvironment.isHeadless()) {
+			System.err.println("The desktop tools need a display (try xvfb-run)");
+			System.exit(1);
+		}
+		if (archive != null && !new File(archive).isFile()) {
+			System.err.println("No archive " + archive + " (build it with mvn -P cds package)");
+			System.exit(1);
+		}
+
+		// One untimed run first, so that every timed run finds the files in the OS cache
+		run(null, classpath, probeArgs, mainClass, timeout);
+
+		List<long[]> plain = new ArrayList<long[]>();
+		List<long[]> shared = new ArrayList<long[]>();
+		for (int r = 0; r < runs; r++) {
+			plain.add(run(null, classpath, probeArgs, mainClass, timeout));
+			if (archive != null)
+				shared.add(run(archive, classpath, probeArgs, mainClass, timeout));
+		}
+
+		System.out.println(String.format("%-10s %8s %8s %8s %8s %8s %8s", "",
+				"frame", "(min", "max)", "result", "(min", "max)"));
+		print("default", plain);
+		if (archive != null)
+			print("cds", shared);
+	}
+
+	/**
+	 * Launch the tool once
+	 *
+	 * @param archive Class-data sharing archive to use, or null
+	 * @param classpath Class path of the tool and of this benchmark
+	 * @param probeArgs Fields to set and button to press
+	 * @param mainClass Main class of the tool
+	 * @param timeout Seconds to wait for the run
+	 * @return Milliseconds from the launch to the first frame and to the first result
+	 *         (-1 when there was none)
+	 * @throws Exception If the run failed or did not finish in time
+	 */
+	private static long[] run(String archive, String classpath, List<String> probeArgs, String mainClass,
+			int timeout) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if (archive != null)
+			command.add("-XX:SharedArchiveFile=" + archive);
+		command.add("-cp");
+		command.add(classpath);
+		command.add(SNACStartupBenchmark.class.getName());
+		command.add("-probe");
+		command.addAll(probeArgs);
+		command.add(mainClass);
+
+		long[] times = { -1, -1 };
+		long start = System.currentTimeMillis();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("startup-frame "))
+					times[0] = Long.parseLong(line.substring(14)) - start;
+				else if (line.startsWith("startup-result "))
+					times[1] = Long.parseLong(line.substring(15)) - start;
+				else if (line.startsWith("startup-error "))
+					throw new IllegalStateException(line.substring(14));
+			}
+			if (!process.waitFor(timeout, TimeUnit.SECONDS))
+				throw new IllegalStateException("The run did not finish in " + timeout + "s");
+		} finally {
+			in.close();
+			process.destroy();
+		}
+		if (times[0] < 0)
+			throw new IllegalStateException("No frame was opened (exit code " + process.exitValue() + ")");
+		return times;
+	}
+
+	/**
+	 * Print the median, minimum and maximum of a set of runs
+	 *
+	 * @param name Name of the set
+	 * @param runs Times of the runs
+	 */
+	private static void print(String name, List<long[]> runs) {
+		StringBuilder line = new StringBuilder(String.format("%-10s", name));
+		for (int t = 0; t < 2; t++) {
+			List<Long> times = new ArrayList<Long>();
+			for (long[] run : runs)
+				if (run[t] >= 0)
+					times.add(run[t]);
+			if (times.isEmpty()) {
+				line.append(String.format(" %8s %8s %8s", "-", "", ""));
+				continue;
+			}
+			Collections.sort(times);
+			line.append(String.format(" %6dms %6dms %6dms", times.get(times.size() / 2), times.get(0),
+					times.get(times.size() - 1)));
+		}
+		System.out.println(line);
+	}
+
+	/**
+	 * Run the tool in this JVM, reporting when its first frame opens and its first result is in
+	 *
+	 * @param args [-set field=value]... [-button text] main-class
+	 * @throws Exception
+	 */
+	private static void probe(String[] args) throws Exception {
+		final List<String[]> fields = new ArrayList<String[]>();
+		String buttonText = null;
+		int i = 0;
+		for (; i < args.length - 1; i++) {
+			if (args[i].equals("-set"))
+				fields.add(args[++i].split("=", 2));
+			else if (args[i].equals("-button"))
+				buttonText = args[++i];
+		}
+		final String button = buttonText;
+
+		Toolkit.getDefaultToolkit().addAWTEventListener(new AWTEventListener() {
+			private boolean opened;
+
+			public void eventDispatched(AWTEvent event) {
+				if (opened || event.getID() != WindowEvent.WINDOW_OPENED)
+					return;
+				opened = true;
+				System.out.println("startup-frame " + System.currentTimeMillis());
+				System.out.flush();
+
+				Window window = ((WindowEvent) event).getWindow();
+				if (button == null) {
+					System.exit(0);
+					return;
+				}
+				try {
+					press(window, fields, button);
+				} catch (Exception e) {
+					System.out.println("startup-error " + e);
+					System.exit(1);
+				}
+			}
+		}, AWTEvent.WINDOW_EVENT_MASK);
+
+		Class.forName(args[args.length - 1]).getMethod("main", String[].class)
+				.invoke(null, (Object) new String[0]);
+	}
+
+	/**
+	 * Set the fields of the frame, press the button and exit once the progress bar is full
+	 *
+	 * @param window First frame of the tool
+	 * @param fields Names and values of the fields to set
+	 * @param text Text of the button to press
+	 * @throws Exception If a field or the button or the progress bar is missing
+	 */
+	private static void press(Window window, List<String[]> fields, String text) throws Exception {
+		for (String[] field : fields) {
+			Field f = window.getClass().getDeclaredField(field[0]);
+			f.setAccessible(true);
+			f.set(window, field.length > 1 ? new File(field[1]).getAbsolutePath() : null);
+		}
+
+		JProgressBar bar = find(window, JProgressBar.class, null);
+		AbstractButton pressed = find(window, AbstractButton.class, text);
+		if (bar == null || pressed == null)
+			throw new IllegalStateException("No progress bar or button \"" + text + "\"");
+		bar.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				if (((JProgressBar) e.getSource()).getValue() >= 100) {
+					System.out.println("startup-result " + System.currentTimeMillis());
+					System.exit(0);
+				}
+			}
+		});
+
+		final AbstractButton toPress = pressed;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				toPress.doClick();
+			}
+		});
+	}
+
+	/**
+	 * Find a component of a window
+	 *
+	 * @param parent Container to search
+	 * @param type Type of the component
+	 * @param text Text of the button, or null for any component of the type
+	 * @return The first matching component, or null
+	 */
+	private static <T extends Component> T find(Container parent, Class<T> type, String text) {
+		for (Component c : parent.getComponents()) {
+			if (type.isInstance(c) && (text == null || text.equals(((AbstractButton) c).getText())))
+				return type.cast(c);
+			if (c instanceof Container) {
+				T found = find((Container) c, type, text);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SNAC Batch Validator
+ *
+ * Validates whole collections of EAC-CPF files against a Schematron profile in parallel.
+ * Every thread parses and transforms its own documents with its own transformer, all over
+ * one shared compiled profile, and failures are streamed to a JSON Lines or CSV report as
+ * soon as each document is done.  Results for files that have not changed since they were
+ * last validated come from the validation cache (see SNACValidationCache).
+ *
+ * Usage: SNACBatchValidator [-threads n] [-profile file.sch] report.(jsonl|csv) input...
+ *
+ * Inputs may be files or directories; directories are searched recursively for .xml files.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACBatchValidator {
+
+	/**
+	 * Batch settings
+	 */
+	protected final SNACSchematronProfile profile;
+	protected final SNACValidationReportWriter report;
+	protected final SNACValidationCache cache;
+	private final int threads;
+
+	/**
+	 * Constructor
+	 *
+	 * @param profile Compiled profile to validate against
+	 * @param report Report to write failures to
+	 * @param threads Number of validation threads
+	 */
+	public SNACBatchValidator(SNACSchematronProfile profile, SNACValidationReportWriter report, int threads) {
+		this.profile = profile;
+		this.report = report;
+		this.cache = new SNACValidationCache(profile);
+		this.threads = threads;
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-profile"))
+				profileName = args[i + 1];
+			else
+				usage();
+		}
+		if (args.length - i < 2)
+			usage();
+
+		String reportFile = args[i++];
+		List<File> files = new ArrayList<File>();
+		for (; i < args.length; i++)
+			collect(new File(args[i]), files);
+
+		SNACValidationReportWriter report = SNACValidationReportWriter.open(reportFile);
+		SNACBatchValidator validator = new SNACBatchValidator(SNACSchematronProfile.getProfile(profileName), report,
+				threads);
+		long start = System.nanoTime();
+		try {
+			validator.run(files);
+		} finally {
+			report.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.err.println(String.format("Validated %d files (%d invalid, %d failures) in %.1fs, %.1f files/s on %d threads, %d unchanged (cached)",
+				report.getDocumentCount(), report.getInvalidDocumentCount(), report.getFailureCount(),
+				seconds, report.getDocumentCount() / seconds, threads, validator.cache.getHitCount()));
+		SNACPhaseTimer.printSummary(System.err);
+		System.exit(report.getInvalidDocumentCount() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Run the batch
+	 *
+	 * Processes the files in parallel and writes each result to the report as it completes.
+	 * At most a few files per thread are queued at a time, so memory use stays flat however
+	 * large the collection is.
+	 *
+	 * @param files Files to validate
+	 * @throws IOException If the report can not be written
+	 * @throws InterruptedException
+	 */
+	public void run(Iterable<File> files) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Semaphore queued = new Semaphore(threads * 4);
+		final AtomicReference<IOException> reportError = new AtomicReference<IOException>();
+
+		try {
+			for (final File file : files) {
+				if (reportError.get() != null)
+					break;
+				queued.acquire();
+				pool.execute(new Runnable() {
+					public void run() {
+						SNACPhaseTimer timer = SNACPhaseTimer.start(file.length());
+						try {
+							process(file);
+						} catch (IOException e) {
+							reportError.compareAndSet(null, e);
+						} finally {
+							timer.finish();
+							queued.release();
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		if (reportError.get() != null)
+			throw reportError.get();
+	}
+
+	/**
+	 * Validate one file and report the result
+	 *
+	 * @param file File to validate
+	 * @throws IOException If the report can not be written
+	 */
+	protected void process(File file) throws IOException {
+		report.write(cache.validate(file));
+	}
+
+	/**
+	 * Collect the XML files under a file or directory
+	 *
+	 * @param file File or directory
+	 * @param files List to add the files to
+	 */
+	static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null)
+				return;
+			List<File> sorted = new ArrayList<File>();
+			Collections.addAll(sorted, children);
+			Collections.sort(sorted);
+			for (File child : sorted) {
+				if (child.isDirectory() || child.getName().toLowerCase().endsWith(".xml"))
+					collect(child, files);
+			}
+		} else {
+			files.add(file);
+		}
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Validate EAC-CPF files against the SNAC Schematron profile\n" +
+				"Usage: SNACBatchValidator [-threads n] [-profile file.sch] report.(jsonl|csv) input...\n\n" +
+				"Inputs may be XML files or directories (searched recursively for .xml files).\n" +
+				"The report gets one line per failed assertion: file, rule, location, text.");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Constellation Parser
+ *
+ * Turns an EAC-CPF file into a parse_eac response: a JSON object with the "constellation",
+ * the "result" ("success" or an error) and the "unparsed" elements.  SNACParseClient asks
+ * SNAC to do this, SNACEacConverter does it locally.
+ *
+ * @author Robbie Hott
+ *
+ */
+public interface SNACConstellationParser {
+
+	/**
+	 * Parse an EAC-CPF file
+	 *
+	 * @param xmlPath File to parse
+	 * @param listener Listener for upload (or read) progress, or null
+	 * @return The parse_eac response (with constellation, result and unparsed fields)
+	 * @throws IOException If the file could not be read or sent
+	 * @throws JSONException If the response is not JSON
+	 */
+	JSONObject parse(Path xmlPath, SNACParseClient.UploadListener listener) throws IOException, JSONException;
+}
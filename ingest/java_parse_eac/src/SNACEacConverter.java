@@ -0,0 +1,822 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * SNAC EAC-CPF Converter
+ *
+ * Converts EAC-CPF to Constellation JSON locally, in the shape of SNAC's parse_eac response:
+ * the "constellation", a "result" of "success", and an "unparsed" array with one
+ * "Unknown Tag: path" line for each element the converter does not map.  With no network
+ * round trip and no Base64 upload, a bulk ingest runs as fast as the files can be read.
+ *
+ * Mapped: record and other record ids, maintenance status, agency and events, sources,
+ * language and convention declarations, entity type and ids, name entries (parts, use
+ * dates, authorized and alternative forms), exist dates, places, subjects, nationalities,
+ * genders, occupations, functions, legal statuses, languages used, mandates, general
+ * contexts, structure or genealogy, biographical histories, and CPF and resource relations.
+ *
+ * Vocabulary terms are given by their term (and URI when the EAC-CPF uses one), without
+ * SNAC's vocabulary ids, which SNAC looks up when the constellation is saved.  Use
+ * SNACParseVerifier to compare the conversion with SNAC's own parser.
+ *
+ * Instances are stateless and may be shared by any number of threads.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACEacConverter implements SNACConstellationParser {
+
+	/**
+	 * EAC-CPF and XLink namespaces
+	 */
+	public static final String EAC_NAMESPACE = "urn:isbn:1-931666-33-4";
+	private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+	private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+	/**
+	 * Base of SNAC's control vocabulary URIs
+	 */
+	private static final String CONTROL_TERMS = "http://socialarchive.iath.virginia.edu/control/term#";
+
+	/**
+	 * Wrapper elements of the description, and the elements they wrap
+	 */
+	private static final Map<String, String> WRAPPERS = new HashMap<String, String>();
+	static {
+		WRAPPERS.put("places", "place");
+		WRAPPERS.put("localDescriptions", "localDescription");
+		WRAPPERS.put("legalStatuses", "legalStatus");
+		WRAPPERS.put("functions", "function");
+		WRAPPERS.put("occupations", "occupation");
+		WRAPPERS.put("languagesUsed", "languageUsed");
+		WRAPPERS.put("mandates", "mandate");
+	}
+
+	/**
+	 * One namespace-aware document builder per thread
+	 */
+	private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+		@Override
+		protected DocumentBuilder initialValue() {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			// Never resolve entities or fetch DTDs: a file could otherwise read local files or
+			// reach the network (XXE), or expand entities without bound
+			factory.setXIncludeAware(false);
+			factory.setExpandEntityReferences(false);
+			try {
+				factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+				factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+				factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+				factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			} catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+			try {
+				// EAC-CPF has no DTD, so a DOCTYPE is refused outright where the parser can
+				factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			} catch (ParserConfigurationException e) {
+				// The features above still keep the entities out
+			}
+			try {
+				return factory.newDocumentBuilder();
+			} catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * Convert an EAC-CPF file
+	 *
+	 * @param xmlPath File to convert
+	 * @param listener Told once the file has been read, or null
+	 * @return The parse_eac response (with constellation, result and unparsed fields)
+	 * @throws IOException If the file can not be read or is not well-formed
+	 * @throws JSONException
+	 */
+	public JSONObject parse(Path xmlPath, SNACParseClient.UploadListener listener) throws IOException, JSONException {
+		long start = System.nanoTime();
+		Document document;
+		try {
+			document = builders.get().parse(xmlPath.toFile());
+		} catch (SAXException e) {
+			throw new IOException("Not well-formed: " + e.getMessage(), e);
+		} finally {
+			SNACPhaseTimer.end(SNACPhaseTimer.Phase.READ, start);
+		}
+		if (listener != null) {
+			long size = Files.size(xmlPath);
+			listener.uploaded(size, size);
+		}
+		start = System.nanoTime();
+		JSONObject response = convert(document.getDocumentElement());
+		SNACPhaseTimer.end(SNACPhaseTimer.Phase.TRANSFORM, start);
+		return response;
+	}
+
+	/**
+	 * Convert a parsed EAC-CPF document
+	 *
+	 * @param root The eac-cpf element
+	 * @return The parse_eac response (with constellation, result and unparsed fields)
+	 * @throws JSONException
+	 */
+	public JSONObject convert(Element root) throws JSONException {
+		JSONObject response = new JSONObject();
+		Conversion conversion = new Conversion();
+		if (!"eac-cpf".equals(root.getLocalName())) {
+			conversion.unparsed.put("Unknown Tag: " + root.getLocalName());
+			response.put("result", "failure");
+			response.put("error", "Not an EAC-CPF document");
+		} else {
+			conversion.root(root);
+			response.put("constellation", conversion.constellation);
+			response.put("result", "success");
+		}
+		response.put("unparsed", conversion.unparsed);
+		return response;
+	}
+
+	/**
+	 * The state of converting one document
+	 */
+	private static class Conversion {
+		final JSONObject constellation = new JSONObject();
+		final JSONArray unparsed = new JSONArray();
+
+		/**
+		 * Convert the eac-cpf element
+		 */
+		void root(Element root) throws JSONException {
+			constellation.put("dataType", "Constellation");
+			for (Element child : children(root)) {
+				String name = child.getLocalName();
+				if (name.equals("control"))
+					control(child, "eac-cpf/control");
+				else if (name.equals("cpfDescription"))
+					cpfDescription(child, "eac-cpf/cpfDescription");
+				else
+					unknown("eac-cpf", child);
+			}
+		}
+
+		/**
+		 * Convert the control section
+		 */
+		void control(Element control, String path) throws JSONException {
+			for (Element child : children(control)) {
+				String name = child.getLocalName();
+				if (name.equals("recordId")) {
+					constellation.put("ark", text(child));
+				} else if (name.equals("otherRecordId")) {
+					JSONObject sameAs = object("SameAs");
+					sameAs.putOpt("type", term(attribute(child, "localType"), "record_type"));
+					sameAs.put("uri", text(child));
+					constellation.append("otherRecordIDs", sameAs);
+				} else if (name.equals("maintenanceStatus")) {
+					constellation.putOpt("maintenanceStatus", term(text(child), "maintenance_status"));
+				} else if (name.equals("publicationStatus")) {
+					// SNAC sets the publication status itself
+				} else if (name.equals("maintenanceAgency")) {
+					for (Element agency : children(child)) {
+						if (agency.getLocalName().equals("agencyName"))
+							constellation.put("maintenanceAgency", text(agency));
+						else
+							unknown(path + "/maintenanceAgency", agency);
+					}
+				} else if (name.equals("languageDeclaration")) {
+					constellation.append("languagesUsed", language(child, path));
+				} else if (name.equals("conventionDeclaration")) {
+					JSONObject convention = object("ConventionDeclaration");
+					convention.put("text", xml(child));
+					constellation.append("conventionDeclarations", convention);
+				} else if (name.equals("maintenanceHistory")) {
+					for (Element event : children(child)) {
+						if (event.getLocalName().equals("maintenanceEvent"))
+							maintenanceEvent(event, path + "/maintenanceHistory/maintenanceEvent");
+						else
+							unknown(path + "/maintenanceHistory", event);
+					}
+				} else if (name.equals("sources")) {
+					for (Element source : children(child)) {
+						if (source.getLocalName().equals("source"))
+							source(source, path + "/sources/source");
+						else
+							unknown(path + "/sources", source);
+					}
+				} else {
+					unknown(path, child);
+				}
+			}
+		}
+
+		/**
+		 * Convert a maintenance event
+		 */
+		void maintenanceEvent(Element event, String path) throws JSONException {
+			JSONObject result = object("MaintenanceEvent");
+			for (Element child : children(event)) {
+				String name = child.getLocalName();
+				if (name.equals("eventType")) {
+					result.putOpt("eventType", term(text(child), "event_type"));
+				} else if (name.equals("eventDateTime")) {
+					result.put("eventDateTime", text(child));
+					result.putOpt("standardDateTime", attribute(child, "standardDateTime"));
+				} else if (name.equals("agentType")) {
+					result.putOpt("agentType", term(text(child), "agent_type"));
+				} else if (name.equals("agent")) {
+					result.put("agent", text(child));
+				} else if (name.equals("eventDescription")) {
+					result.put("eventDescription", text(child));
+				} else {
+					unknown(path, child);
+				}
+			}
+			constellation.append("maintenanceEvents", result);
+		}
+
+		/**
+		 * Convert a source
+		 */
+		void source(Element source, String path) throws JSONException {
+			JSONObject result = object("Source");
+			result.putOpt("type", term(xlink(source, "type"), "source_type"));
+			result.putOpt("uri", xlink(source, "href"));
+			for (Element child : children(source)) {
+				String name = child.getLocalName();
+				if (name.equals("sourceEntry"))
+					result.put("citation", text(child));
+				else if (name.equals("objectXMLWrap"))
+					result.put("text", xml(child));
+				else if (name.equals("descriptiveNote"))
+					result.put("note", xml(child));
+				else
+					unknown(path, child);
+			}
+			constellation.append("sources", result);
+		}
+
+		/**
+		 * Convert the CPF description
+		 */
+		void cpfDescription(Element description, String path) throws JSONException {
+			for (Element child : children(description)) {
+				String name = child.getLocalName();
+				if (name.equals("identity"))
+					identity(child, path + "/identity");
+				else if (name.equals("description"))
+					description(child, path + "/description");
+				else if (name.equals("relations"))
+					relations(child, path + "/relations");
+				else
+					unknown(path, child);
+			}
+		}
+
+		/**
+		 * Convert the identity
+		 */
+		void identity(Element identity, String path) throws JSONException {
+			for (Element child : children(identity)) {
+				String name = child.getLocalName();
+				if (name.equals("entityId")) {
+					JSONObject id = object("EntityId");
+					id.put("text", text(child));
+					id.putOpt("type", term(attribute(child, "localType"), "entity_id_type"));
+					constellation.append("entityIDs", id);
+				} else if (name.equals("entityType")) {
+					String type = text(child);
+					JSONObject term = term(type, "entity_type");
+					if (term != null && !type.isEmpty())
+						term.put("uri", CONTROL_TERMS + Character.toUpperCase(type.charAt(0)) + type.substring(1));
+					constellation.putOpt("entityType", term);
+				} else if (name.equals("nameEntry")) {
+					nameEntry(child, path + "/nameEntry");
+				} else if (name.equals("nameEntryParallel")) {
+					for (Element entry : children(child)) {
+						if (entry.getLocalName().equals("nameEntry"))
+							nameEntry(entry, path + "/nameEntryParallel/nameEntry");
+						else
+							unknown(path + "/nameEntryParallel", entry);
+					}
+				} else {
+					unknown(path, child);
+				}
+			}
+		}
+
+		/**
+		 * Convert a name entry
+		 */
+		void nameEntry(Element entry, String path) throws JSONException {
+			JSONObject result = object("NameEntry");
+			StringBuilder original = new StringBuilder();
+			int order = 0;
+			for (Element child : children(entry)) {
+				String name = child.getLocalName();
+				if (name.equals("part")) {
+					String text = text(child);
+					JSONObject component = object("NameComponent");
+					component.put("text", text);
+					component.put("order", String.valueOf(order++));
+					String localType = attribute(child, "localType");
+					component.put("type", term(localType == null ? "Name" : localType, "name_component"));
+					result.append("components", component);
+					if (original.length() > 0)
+						original.append(", ");
+					original.append(text);
+				} else if (name.equals("useDates")) {
+					dates(child, result, path + "/useDates");
+				} else if (name.equals("authorizedForm") || name.equals("alternativeForm")) {
+					JSONObject contributor = object("Contributor");
+					contributor.put("name", text(child));
+					contributor.put("type", term(name, "name_type"));
+					result.append("contributors", contributor);
+				} else {
+					unknown(path, child);
+				}
+			}
+			result.put("original", original.toString());
+
+			String lang = entry.getAttributeNS(XML_NAMESPACE, "lang");
+			String script = attribute(entry, "scriptCode");
+			if (!lang.isEmpty() || script != null) {
+				JSONObject language = object("Language");
+				language.putOpt("language", term(lang, "language_code"));
+				language.putOpt("script", term(script, "script_code"));
+				result.put("language", language);
+			}
+			// SNAC's own records carry the preference score in the SNAC namespace
+			NamedNodeMap attributes = entry.getAttributes();
+			for (int i = 0; i < attributes.getLength(); i++) {
+				Attr attr = (Attr) attributes.item(i);
+				if ("preferenceScore".equals(attr.getLocalName()))
+					result.put("preferenceScore", attr.getValue());
+			}
+			constellation.append("nameEntries", result);
+		}
+
+		/**
+		 * Convert the description
+		 */
+		void description(Element description, String path) throws JSONException {
+			for (Element child : children(description)) {
+				String name = child.getLocalName();
+				String wrapped = WRAPPERS.get(name);
+				if (wrapped != null) {
+					for (Element entry : children(child)) {
+						if (entry.getLocalName().equals(wrapped))
+							descriptionEntry(entry, path + "/" + name);
+						else
+							unknown(path + "/" + name, entry);
+					}
+				} else {
+					descriptionEntry(child, path);
+				}
+			}
+		}
+
+		/**
+		 * Convert one entry of the description
+		 */
+		void descriptionEntry(Element entry, String parent) throws JSONException {
+			String name = entry.getLocalName();
+			String path = parent + "/" + name;
+			if (name.equals("existDates"))
+				dates(entry, constellation, path);
+			else if (name.equals("place"))
+				place(entry, path);
+			else if (name.equals("localDescription"))
+				localDescription(entry, parent);
+			else if (name.equals("occupation"))
+				constellation.append("occupations", termEntry(entry, "Occupation", "occupation", path));
+			else if (name.equals("function"))
+				constellation.append("activities", termEntry(entry, "Activity", "activity", path));
+			else if (name.equals("legalStatus"))
+				constellation.append("legalStatuses", termEntry(entry, "LegalStatus", "legal_status", path));
+			else if (name.equals("languageUsed"))
+				constellation.append("languagesUsed", language(entry, path));
+			else if (name.equals("mandate"))
+				constellation.append("mandates", textEntry(entry, "Mandate"));
+			else if (name.equals("generalContext"))
+				constellation.append("generalContexts", textEntry(entry, "GeneralContext"));
+			else if (name.equals("structureOrGenealogy"))
+				constellation.append("structureOrGenealogies", textEntry(entry, "StructureOrGenealogy"));
+			else if (name.equals("biogHist"))
+				constellation.append("biogHists", textEntry(entry, "BiogHist"));
+			else
+				unknown(parent, entry);
+		}
+
+		/**
+		 * Convert a place
+		 */
+		void place(Element place, String path) throws JSONException {
+			JSONObject result = object("Place");
+			result.putOpt("type", term(attribute(place, "localType"), "place_type"));
+			for (Element child : children(place)) {
+				String name = child.getLocalName();
+				if (name.equals("placeEntry") && !result.has("original")) {
+					result.put("original", text(child));
+					result.putOpt("countryCode", attribute(child, "countryCode"));
+					result.putOpt("latitude", attribute(child, "latitude"));
+					result.putOpt("longitude", attribute(child, "longitude"));
+				} else if (name.equals("placeRole")) {
+					result.putOpt("role", term(text(child), "place_role"));
+				} else if (name.equals("descriptiveNote")) {
+					result.put("note", xml(child));
+				} else if (!date(child, result, path)) {
+					unknown(path, child);
+				}
+			}
+			constellation.append("places", result);
+		}
+
+		/**
+		 * Convert a local description: subjects, nationalities and genders
+		 */
+		void localDescription(Element description, String parent) throws JSONException {
+			String localType = attribute(description, "localType");
+			String kind = localType == null ? "" : localType.substring(localType.lastIndexOf('#') + 1);
+			String key;
+			String dataType;
+			String vocabulary;
+			if (kind.equals("AssociatedSubject")) {
+				key = "subjects";
+				dataType = "Subject";
+				vocabulary = "subject";
+			} else if (kind.equals("nationalityOfEntity")) {
+				key = "nationalities";
+				dataType = "Nationality";
+				vocabulary = "nationality";
+			} else if (kind.equals("gender")) {
+				key = "genders";
+				dataType = "Gender";
+				vocabulary = "gender";
+			} else {
+				unparsed.put("Unknown Tag: " + parent + "/localDescription[@localType=" + localType + "]");
+				return;
+			}
+
+			String path = parent + "/localDescription";
+			JSONObject result = object(dataType);
+			for (Element child : children(description)) {
+				String name = child.getLocalName();
+				if (name.equals("term")) {
+					result.putOpt("term", term(text(child), vocabulary));
+				} else if (name.equals("placeEntry")) {
+					String place = text(child);
+					if (place.isEmpty())
+						place = attribute(child, "countryCode");
+					result.putOpt("term", term(place, vocabulary));
+				} else if (name.equals("descriptiveNote")) {
+					result.put("note", xml(child));
+				} else if (!date(child, result, path)) {
+					unknown(path, child);
+				}
+			}
+			constellation.append(key, result);
+		}
+
+		/**
+		 * Convert an element holding a controlled term: occupations, functions, legal statuses
+		 */
+		JSONObject termEntry(Element entry, String dataType, String vocabulary, String path) throws JSONException {
+			JSONObject result = object(dataType);
+			result.putOpt("type", term(attribute(entry, "localType"), vocabulary + "_type"));
+			for (Element child : children(entry)) {
+				String name = child.getLocalName();
+				if (name.equals("term"))
+					result.putOpt("term", term(text(child), vocabulary));
+				else if (name.equals("descriptiveNote"))
+					result.put("note", xml(child));
+				else if (!date(child, result, path))
+					unknown(path, child);
+			}
+			return result;
+		}
+
+		/**
+		 * Convert an element SNAC keeps as XML: biographical histories, mandates and the like
+		 */
+		JSONObject textEntry(Element entry, String dataType) throws JSONException {
+			JSONObject result = object(dataType);
+			result.put("text", xml(entry));
+			String lang = entry.getAttributeNS(XML_NAMESPACE, "lang");
+			if (!lang.isEmpty()) {
+				JSONObject language = object("Language");
+				language.put("language", term(lang, "language_code"));
+				result.put("language", language);
+			}
+			return result;
+		}
+
+		/**
+		 * Convert a language declaration or language used
+		 */
+		JSONObject language(Element entry, String path) throws JSONException {
+			JSONObject result = object("Language");
+			for (Element child : children(entry)) {
+				String name = child.getLocalName();
+				if (name.equals("language") || name.equals("script")) {
+					String code = attribute(child, name.equals("language") ? "languageCode" : "scriptCode");
+					JSONObject term = term(code, name + "_code");
+					if (term != null) {
+						term.put("description", text(child));
+						result.put(name, term);
+					}
+				} else if (name.equals("descriptiveNote")) {
+					result.put("note", xml(child));
+				} else {
+					unknown(path, child);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Convert the relations
+		 */
+		void relations(Element relations, String path) throws JSONException {
+			for (Element child : children(relations)) {
+				String name = child.getLocalName();
+				if (name.equals("cpfRelation"))
+					cpfRelation(child, path + "/cpfRelation");
+				else if (name.equals("resourceRelation"))
+					resourceRelation(child, path + "/resourceRelation");
+				else
+					unknown(path, child);
+			}
+		}
+
+		/**
+		 * Convert a relation to another constellation
+		 */
+		void cpfRelation(Element relation, String path) throws JSONException {
+			JSONObject result = object("ConstellationRelation");
+			result.putOpt("sourceArkID", constellation.optString("ark", null));
+			result.putOpt("targetArkID", xlink(relation, "href"));
+			result.putOpt("targetEntityType", term(xlink(relation, "role"), "entity_type"));
+			result.putOpt("type", term(xlink(relation, "arcrole"), "relation_type"));
+			result.putOpt("altType", term(attribute(relation, "cpfRelationType"), "relation_type"));
+			for (Element child : children(relation)) {
+				String name = child.getLocalName();
+				if (name.equals("relationEntry"))
+					result.put("content", text(child));
+				else if (name.equals("descriptiveNote"))
+					result.put("note", xml(child));
+				else if (!date(child, result, path))
+					unknown(path, child);
+			}
+			constellation.append("relations", result);
+		}
+
+		/**
+		 * Convert a relation to a resource
+		 */
+		void resourceRelation(Element relation, String path) throws JSONException {
+			JSONObject result = object("ResourceRelation");
+			JSONObject resource = object("Resource");
+			resource.putOpt("link", xlink(relation, "href"));
+			resource.putOpt("documentType", term(xlink(relation, "role"), "document_type"));
+			result.putOpt("role", term(xlink(relation, "arcrole"), "document_role"));
+			for (Element child : children(relation)) {
+				String name = child.getLocalName();
+				if (name.equals("relationEntry")) {
+					String entry = text(child);
+					result.put("content", entry);
+					resource.put("title", entry);
+					resource.put("displayEntry", entry);
+				} else if (name.equals("objectXMLWrap")) {
+					resource.put("extra", xml(child));
+				} else if (name.equals("descriptiveNote")) {
+					result.put("note", xml(child));
+				} else {
+					unknown(path, child);
+				}
+			}
+			result.put("resource", resource);
+			constellation.append("resourceRelations", result);
+		}
+
+		/**
+		 * Convert the dates in an existDates or useDates element
+		 */
+		void dates(Element dates, JSONObject target, String path) throws JSONException {
+			for (Element child : children(dates))
+				if (!date(child, target, path))
+					unknown(path, child);
+		}
+
+		/**
+		 * Convert a date, date range or date set into the dates of an object
+		 *
+		 * @return False if the element is not a date
+		 */
+		boolean date(Element date, JSONObject target, String path) throws JSONException {
+			String name = date.getLocalName();
+			if (name.equals("date")) {
+				JSONObject result = object("SNACDate");
+				dateEnd(date, "from", attribute(date, "localType"), result);
+				result.put("isRange", false);
+				target.append("dates", result);
+			} else if (name.equals("dateRange")) {
+				JSONObject result = object("SNACDate");
+				String localType = attribute(date, "localType");
+				for (Element child : children(date)) {
+					if (child.getLocalName().equals("fromDate"))
+						dateEnd(child, "from", localType, result);
+					else if (child.getLocalName().equals("toDate"))
+						dateEnd(child, "to", localType, result);
+					else
+						unknown(path + "/dateRange", child);
+				}
+				result.put("isRange", true);
+				target.append("dates", result);
+			} else if (name.equals("dateSet")) {
+				for (Element child : children(date))
+					if (!child.getLocalName().equals("dateSet") && !date(child, target, path + "/dateSet"))
+						unknown(path + "/dateSet", child);
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Fill in one end of a date
+		 */
+		void dateEnd(Element date, String end, String rangeType, JSONObject result) throws JSONException {
+			String standard = attribute(date, "standardDate");
+			result.putOpt(end + "Date", standard != null ? standard : text(date));
+			result.put(end + "DateOriginal", text(date));
+			String localType = attribute(date, "localType");
+			result.putOpt(end + "Type", term(localType != null ? localType : rangeType, "date_type"));
+			result.putOpt(end + "NotBefore", attribute(date, "notBefore"));
+			result.putOpt(end + "NotAfter", attribute(date, "notAfter"));
+		}
+
+		/**
+		 * Record an element that is not converted
+		 */
+		void unknown(String path, Element element) {
+			unparsed.put("Unknown Tag: " + path + "/" + element.getLocalName());
+		}
+	}
+
+	/**
+	 * Create an object of a SNAC data type
+	 */
+	private static JSONObject object(String dataType) throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("dataType", dataType);
+		return result;
+	}
+
+	/**
+	 * Create a vocabulary term
+	 *
+	 * @param value Term, or a URI ending in #term
+	 * @param type SNAC vocabulary type
+	 * @return The term, or null if there is no value
+	 */
+	static JSONObject term(String value, String type) throws JSONException {
+		if (value == null || value.trim().isEmpty())
+			return null;
+		value = value.trim();
+		JSONObject term = new JSONObject();
+		int hash = value.lastIndexOf('#');
+		if (hash >= 0 && value.indexOf(':') >= 0) {
+			term.put("term", value.substring(hash + 1));
+			term.put("uri", value);
+		} else {
+			term.put("term", value);
+		}
+		term.put("type", type);
+		return term;
+	}
+
+	/**
+	 * Get the element children of an element
+	 */
+	private static List<Element> children(Element element) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+			if (node.getNodeType() == Node.ELEMENT_NODE)
+				children.add((Element) node);
+		return children;
+	}
+
+	/**
+	 * Get the trimmed text of an element
+	 */
+	private static String text(Element element) {
+		return element.getTextContent().trim();
+	}
+
+	/**
+	 * Get an attribute without a namespace
+	 *
+	 * @return The value, or null if there is none
+	 */
+	private static String attribute(Element element, String name) {
+		String value = element.getAttribute(name);
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Get an XLink attribute
+	 *
+	 * @return The value, or null if there is none
+	 */
+	private static String xlink(Element element, String name) {
+		String value = element.getAttributeNS(XLINK_NAMESPACE, name);
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Serialize an element the way SNAC stores mixed content: without namespace
+	 * declarations or prefixes
+	 *
+	 * @param element Element to serialize
+	 * @return The XML of the element
+	 */
+	static String xml(Element element) {
+		StringBuilder sb = new StringBuilder();
+		xml(element, sb);
+		return sb.toString();
+	}
+
+	private static void xml(Element element, StringBuilder sb) {
+		sb.append('<').append(element.getLocalName());
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attr = (Attr) attributes.item(i);
+			if ("http://www.w3.org/2000/xmlns/".equals(attr.getNamespaceURI()))
+				continue;
+			sb.append(' ').append(attr.getLocalName() != null ? attr.getLocalName() : attr.getName()).append("=\"");
+			escape(attr.getValue(), sb, true);
+			sb.append('"');
+		}
+		if (element.getFirstChild() == null) {
+			sb.append("/>");
+			return;
+		}
+		sb.append('>');
+		for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE)
+				xml((Element) node, sb);
+			else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE)
+				escape(node.getNodeValue(), sb, false);
+		}
+		sb.append("</").append(element.getLocalName()).append('>');
+	}
+
+	private static void escape(String text, StringBuilder sb, boolean attribute) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '<')
+				sb.append("&lt;");
+			else if (c == '&')
+				sb.append("&amp;");
+			else if (c == '>')
+				sb.append("&gt;");
+			else if (c == '"' && attribute)
+				sb.append("&quot;");
+			else
+				sb.append(c);
+		}
+	}
+}
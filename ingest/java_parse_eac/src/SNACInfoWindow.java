@@ -11,30 +11,46 @@
 
 import java.awt.BorderLayout;
 import java.awt.FlowLayout;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
+import javax.swing.AbstractListModel;
 import javax.swing.JButton;
-import javax.swing.JFileChooser;
-import javax.swing.JFrame;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
-import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
-import javax.swing.JSeparator;
-import javax.swing.JTextArea;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextField;
+import javax.swing.JTree;
+import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
-import javax.swing.filechooser.FileNameExtensionFilter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 /**
- * CBW Reconciler UI
- * 
- * This is the GUI interface class that prompts the user to choose CSV files to reconcile against SNAC.
- * 
+ * SNAC Info Window
+ *
+ * Shows text of any size: a constellation, validation failures or parse errors.  The text
+ * is kept in a file (a temporary one unless a file is shown) that is memory-mapped and
+ * indexed by line in the background (see SNACLineIndex).  The list only renders the rows
+ * that are visible, so the window opens at once and uses little heap however long the
+ * text is.  Search scans the file without loading it.  JSON can also be browsed as a
+ * collapsible tree whose branches are only built when they are expanded.
+ *
  * @author Robbie Hott
  *
  */
@@ -45,6 +61,13 @@ public class SNACInfoWindow extends javax.swing.JFrame {
 	 */
 	private static final long serialVersionUID = -8115653654144568030L;
 
+	/**
+	 * Text to show, written to a file in the background
+	 */
+	private interface Content {
+		void write(Writer out) throws IOException, JSONException;
+	}
+
 	/**
 	 * GUI Variables
 	 */
@@ -52,9 +75,20 @@ public class SNACInfoWindow extends javax.swing.JFrame {
 	private JLabel titleLabel;
 	private JPanel bodyPanel;
 	private JPanel parserPanel;
-	private JTextArea parsedDisplay;
+	private JList<String> parsedDisplay;
+	private JTextField searchField;
+	private JButton findButton;
+	private JCheckBox matchCase;
+	private JLabel statusLabel;
 	private String title;
-	private String text;
+	private JSONObject json;
+
+	/**
+	 * The file being shown, and the temporary file holding the text (if any)
+	 */
+	private volatile SNACLineIndex index;
+	private volatile File temporaryFile;
+	private final LineModel lines = new LineModel();
 
 
 	{
@@ -69,30 +103,118 @@ public class SNACInfoWindow extends javax.swing.JFrame {
 
 	/**
 	 * Constructor
-	 * 
-	 * Calls JFrame's constructor and then initializes and displays the GUI
+	 *
+	 * Calls JFrame's constructor and then initializes and displays the GUI.  The text is
+	 * only turned into a String (text.toString()) in the background, after the window is
+	 * built.
+	 */
+	public SNACInfoWindow(String title, final Object text) {
+		this(title, (JSONObject) null);
+		load(new Content() {
+			public void write(Writer out) throws IOException {
+				out.write(text.toString());
+			}
+		});
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * Builds the GUI without any text; load() or open() provide it.
+	 *
+	 * @param title Window title
+	 * @param json JSON to show as a tree as well, or null
 	 */
-	public SNACInfoWindow(String title, String text) {
+	private SNACInfoWindow(String title, JSONObject json) {
 		super();
 		this.title = title;
-		this.text = text;
+		this.json = json;
 		initGUI();
 	}
-	
-	public static void showWindow(String title, String text) {
+
+	/**
+	 * Show text in a new window
+	 *
+	 * @param title Window title
+	 * @param text Text to show (a File is shown straight from disk)
+	 */
+	public static void showWindow(final String title, final Object text) {
+		if (text instanceof File) {
+			showFile(title, (File) text);
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				display(new SNACInfoWindow(title, text));
+			}
+		});
+	}
+
+	/**
+	 * Show a file in a new window
+	 *
+	 * @param title Window title
+	 * @param file UTF-8 text file to show
+	 */
+	public static void showFile(final String title, final File file) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				SNACInfoWindow inst = new SNACInfoWindow(title, (JSONObject) null);
+				display(inst);
+				inst.open(file);
+			}
+		});
+	}
+
+	/**
+	 * Show JSON in a new window, as indented text and as a tree
+	 *
+	 * @param title Window title
+	 * @param json JSON to show
+	 */
+	public static void showJSON(final String title, final JSONObject json) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				SNACInfoWindow inst = new SNACInfoWindow(title, json);
+				display(inst);
+				inst.load(new Content() {
+					public void write(Writer out) throws IOException, JSONException {
+						new SNACJsonWriter(out, 4).write(json);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Show one line per item in a new window
+	 *
+	 * @param title Window title
+	 * @param items Items to show, by their toString()
+	 */
+	public static void showLines(final String title, final Iterable<?> items) {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				SNACInfoWindow inst = new SNACInfoWindow(title, text);
-				inst.setLocationRelativeTo(null);
-				inst.setVisible(true);
+				SNACInfoWindow inst = new SNACInfoWindow(title, (JSONObject) null);
+				display(inst);
+				inst.load(new Content() {
+					public void write(Writer out) throws IOException {
+						for (Object item : items)
+							out.write(item + "\n");
+					}
+				});
 			}
 		});
-		
+	}
+
+	private static void display(SNACInfoWindow inst) {
+		inst.setLocationRelativeTo(null);
+		inst.setVisible(true);
 	}
 
 	/**
 	 * Initialize GUI
-	 * 
+	 *
 	 * Builds the JFrame to display to the user.
 	 */
 	public void initGUI() {
@@ -116,28 +238,207 @@ public class SNACInfoWindow extends javax.swing.JFrame {
 			getContentPane().add(bodyPanel, BorderLayout.CENTER);
 			bodyPanel.setLayout(bodyPanelLayout);
 			{
-				parserPanel = new JPanel();
+				parserPanel = new JPanel(new BorderLayout());
 				bodyPanel.add(parserPanel);
 				parserPanel.setSize(900, 700);
 				parserPanel.setPreferredSize(new java.awt.Dimension(900, 700));
-				
-				parsedDisplay = new JTextArea();
-				parsedDisplay.setText(text.toString());
-				
-				
+
+				// Fixed cell sizes keep the list from measuring every row
+				parsedDisplay = new JList<String>(lines);
+				parsedDisplay.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+				parsedDisplay.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+				parsedDisplay.setFixedCellHeight(parsedDisplay.getFontMetrics(parsedDisplay.getFont()).getHeight() + 2);
+				parsedDisplay.setFixedCellWidth(880);
 				JScrollPane sp = new JScrollPane(parsedDisplay);
-				sp.setPreferredSize(new java.awt.Dimension(900, 700));
-				parserPanel.add(sp);
 
+				if (json != null) {
+					JTabbedPane tabs = new JTabbedPane();
+					tabs.addTab("Text", sp);
+					tabs.addTab("Tree", new JScrollPane(new JTree(new SNACJsonTreeModel(title, json))));
+					parserPanel.add(tabs, BorderLayout.CENTER);
+				} else {
+					parserPanel.add(sp, BorderLayout.CENTER);
+				}
+
+				JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+				searchField = new JTextField(30);
+				findButton = new JButton("Find Next");
+				matchCase = new JCheckBox("Match case");
+				statusLabel = new JLabel("Loading...");
+				searchPanel.add(searchField);
+				searchPanel.add(findButton);
+				searchPanel.add(matchCase);
+				searchPanel.add(statusLabel);
+				parserPanel.add(searchPanel, BorderLayout.SOUTH);
 
+				ActionListener find = new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						findNext();
+					}
+				};
+				findButton.addActionListener(find);
+				searchField.addActionListener(find);
 			}
 			this.setSize(900, 800);
+
+			setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+			addWindowListener(new WindowAdapter() {
+				@Override
+				public void windowClosed(WindowEvent e) {
+					closeIndex();
+				}
+			});
 		} catch (Exception e) {
 			// Silently ignoring errors
 		}
 	}
 
+	/**
+	 * Write the content to a temporary file in the background, then show it
+	 */
+	private void load(final Content content) {
+		new Thread(new Runnable() {
+			public void run() {
+				File file;
+				try {
+					file = File.createTempFile("snac-view", ".txt");
+					file.deleteOnExit();
+					temporaryFile = file;
+					Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+							64 * 1024);
+					try {
+						content.write(out);
+					} finally {
+						out.close();
+					}
+				} catch (IOException | JSONException e) {
+					setStatus("Could not show the text: " + e.getMessage());
+					return;
+				}
+				index(file);
+			}
+		}, "snac-view").start();
+	}
+
+	/**
+	 * Show a file, indexing it in the background
+	 */
+	private void open(final File file) {
+		new Thread(new Runnable() {
+			public void run() {
+				index(file);
+			}
+		}, "snac-view").start();
+	}
+
+	/**
+	 * Index a file and feed its lines to the list as they are found
+	 */
+	private void index(File file) {
+		SNACLineIndex index;
+		try {
+			index = new SNACLineIndex(file);
+		} catch (IOException e) {
+			setStatus("Could not open " + file + ": " + e.getMessage());
+			return;
+		}
+		this.index = index;
+		if (!isDisplayable()) {
+			// Closed while the text was being written
+			closeIndex();
+			return;
+		}
+		index.index(new SNACLineIndex.Listener() {
+			public void indexed(final int count, final boolean done) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						lines.setSize(count);
+						int width = SNACInfoWindow.this.index == null ? 0
+								: SNACInfoWindow.this.index.getLongestLine() * parsedDisplay.getFontMetrics(parsedDisplay.getFont()).charWidth('m');
+						parsedDisplay.setFixedCellWidth(Math.max(880, width + 20));
+						statusLabel.setText(count + " lines" + (done ? "" : " so far..."));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Select the next line containing the search text
+	 */
+	private void findNext() {
+		final SNACLineIndex index = this.index;
+		final String text = searchField.getText();
+		if (index == null || text.isEmpty())
+			return;
+		final int from = parsedDisplay.getSelectedIndex() + 1;
+		final boolean ignoreCase = !matchCase.isSelected();
+		findButton.setEnabled(false);
+		statusLabel.setText("Searching...");
+		new Thread(new Runnable() {
+			public void run() {
+				int found = index.find(text, from, ignoreCase);
+				if (found < 0 && from > 0)
+					found = index.find(text, 0, ignoreCase);
+				final int line = found;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						findButton.setEnabled(true);
+						if (line < 0) {
+							statusLabel.setText("Not found");
+							return;
+						}
+						parsedDisplay.setSelectedIndex(line);
+						parsedDisplay.ensureIndexIsVisible(line);
+						statusLabel.setText("Line " + (line + 1) + " of " + lines.getSize());
+					}
+				});
+			}
+		}, "snac-view-search").start();
+	}
+
+	private void setStatus(final String text) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				statusLabel.setText(text);
+			}
+		});
+	}
+
+	private void closeIndex() {
+		SNACLineIndex index = this.index;
+		if (index != null) {
+			try {
+				index.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+		}
+		// Some platforms keep mapped files until exit; deleteOnExit covers those
+		if (temporaryFile != null)
+			temporaryFile.delete();
+	}
+
+	/**
+	 * List model reading lines from the index as they are displayed
+	 */
+	private class LineModel extends AbstractListModel<String> {
+		private static final long serialVersionUID = 1L;
+		private int size;
 
+		void setSize(int count) {
+			int old = size;
+			size = count;
+			if (count > old)
+				fireIntervalAdded(this, old, count - 1);
+		}
 
+		public int getSize() {
+			return size;
+		}
 
+		public String getElementAt(int i) {
+			return index.getLine(i);
+		}
+	}
 }
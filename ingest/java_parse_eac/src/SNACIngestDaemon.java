@@ -0,0 +1,485 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SNAC Ingest Daemon
+ *
+ * A long-running local server that validates and parses EAC-CPF files with a warm JVM and
+ * a precompiled profile, so scripts that handle one file at a time do not pay for JVM
+ * start-up and Schematron compilation on every file.  It listens on the loopback interface
+ * only and works on files by path, so documents are never copied over the socket.
+ *
+ *   GET /validate?path=file.xml             validation result as JSON
+ *   POST /parse?path=file.xml[&validate=1]  SNAC's parse_eac response (422 and the
+ *                                           validation result if validation was asked
+ *                                           for and failed)
+ *   GET /status                             uptime and request counters
+ *   POST /shutdown                          stop the daemon
+ *
+ * Since /parse uploads whatever local file it is given, other local processes and web pages
+ * must not be able to use the daemon.  Each start generates a random token, written to a
+ * file only the user can read (see getTokenFile), and every request must carry it in the
+ * X-SNAC-Token header.  Requests whose Host or Origin is not the daemon's own loopback
+ * address are refused, which keeps out pages reaching it through DNS rebinding.
+ *
+ * Usage: SNACIngestDaemon [-port n] [-threads n] [-profile file.sch] [-url endpoint]
+ *
+ * SNACIngestDaemonClient is the matching command-line client.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACIngestDaemon {
+
+	private static final Logger logger = Logger.getLogger(SNACIngestDaemon.class.getName());
+
+	/**
+	 * Default loopback port
+	 */
+	public static final int DEFAULT_PORT = 8765;
+
+	/**
+	 * Header carrying the token
+	 */
+	public static final String TOKEN_HEADER = "X-SNAC-Token";
+
+	/**
+	 * Daemon state
+	 */
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final SNACSchematronProfile profile;
+	private final SNACValidationCache cache;
+	private final SNACConstellationParser client;
+	private final long started = System.currentTimeMillis();
+
+	/**
+	 * Token of this start, and the file it is written to once the daemon is started
+	 */
+	private final String token;
+	private File tokenFile;
+
+	/**
+	 * Counters for /status
+	 */
+	private final AtomicLong validations = new AtomicLong();
+	private final AtomicLong parses = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param port Loopback port to listen on (0 for any free port)
+	 * @param threads Number of request threads
+	 * @param profile Compiled profile to validate against
+	 * @param client Parser for /parse (SNAC's parse_eac command or the local converter)
+	 * @throws IOException If the port can not be bound
+	 */
+	public SNACIngestDaemon(int port, int threads, SNACSchematronProfile profile, SNACConstellationParser client)
+			throws IOException {
+		this.profile = profile;
+		this.cache = new SNACValidationCache(profile);
+		this.client = client;
+		this.executor = Executors.newFixedThreadPool(threads);
+
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : random)
+			hex.append(String.format("%02x", b));
+		this.token = hex.toString();
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/validate", new Handler("GET") {
+			void serve(HttpExchange exchange) throws IOException {
+				File file = getFile(exchange);
+				if (file == null)
+					return;
+				validations.incrementAndGet();
+				respond(exchange, 200, toJSON(cache.validate(file)));
+			}
+		});
+		server.createContext("/parse", new Handler("POST") {
+			void serve(HttpExchange exchange) throws IOException {
+				File file = getFile(exchange);
+				if (file == null)
+					return;
+				String validate = getParameters(exchange).get("validate");
+				if (validate != null && !validate.equals("0") && !validate.equals("false")) {
+					validations.incrementAndGet();
+					SNACValidationResult validation = cache.validate(file);
+					if (!validation.isValid()) {
+						respond(exchange, 422, toJSON(validation));
+						return;
+					}
+				}
+				parses.incrementAndGet();
+				try {
+					respond(exchange, 200, client.parse(file.toPath(), null).toString());
+				} catch (IOException | JSONException e) {
+					error(exchange, 502, "SNAC could not parse " + file + ": " + e.getMessage());
+				}
+			}
+		});
+		server.createContext("/status", new Handler("GET") {
+			void serve(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "{\"profile\":" + JSONObject.quote(SNACIngestDaemon.this.profile.getName()) +
+						",\"engine\":" + JSONObject.quote(SNACIngestSettings.getSchematronEngine().name().toLowerCase()) +
+						",\"uptime_ms\":" + (System.currentTimeMillis() - started) +
+						",\"validations\":" + validations.get() +
+						",\"parses\":" + parses.get() +
+						",\"cached\":" + cache.getHitCount() +
+						",\"errors\":" + errors.get() + "}");
+			}
+		});
+		server.createContext("/shutdown", new Handler("POST") {
+			void serve(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "{\"stopping\":true}");
+				new Thread(new Runnable() {
+					public void run() {
+						stop();
+					}
+				}).start();
+			}
+		});
+	}
+
+	/**
+	 * Request handler
+	 *
+	 * Checks the method, Host, Origin and token of each request before serving it, and
+	 * answers every request, also when serving it fails.
+	 */
+	private abstract class Handler implements HttpHandler {
+
+		private final String method;
+
+		/**
+		 * Constructor
+		 *
+		 * @param method HTTP method the endpoint accepts
+		 */
+		Handler(String method) {
+			this.method = method;
+		}
+
+		/**
+		 * Serve a request that passed the checks
+		 *
+		 * @param exchange Request
+		 * @throws IOException
+		 */
+		abstract void serve(HttpExchange exchange) throws IOException;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!isLocal(exchange.getRequestHeaders().getFirst("Host"), false)
+						|| !isLocal(exchange.getRequestHeaders().getFirst("Origin"), true)) {
+					error(exchange, 403, "Requests must come from 127.0.0.1:" + getPort());
+					return;
+				}
+				String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+				if (given == null || !MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+						token.getBytes(StandardCharsets.UTF_8))) {
+					error(exchange, 401, "Missing or wrong " + TOKEN_HEADER + " (see " + getTokenFile(getPort()) + ")");
+					return;
+				}
+				if (!exchange.getRequestMethod().equals(method)) {
+					exchange.getResponseHeaders().set("Allow", method);
+					error(exchange, 405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+					return;
+				}
+				serve(exchange);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Could not serve " + exchange.getRequestURI(), e);
+				try {
+					error(exchange, 500, "Internal error: " + e);
+				} catch (IOException | RuntimeException e2) {
+					// The response had already started
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Is a Host or Origin header the daemon's own loopback address
+		 *
+		 * @param value Header value, or null
+		 * @param origin Whether it is an Origin (scheme, host and port) rather than a Host
+		 * @return True for the loopback address and port, and for a missing Origin
+		 */
+		private boolean isLocal(String value, boolean origin) {
+			if (value == null)
+				return origin;
+			String port = ":" + getPort();
+			String prefix = origin ? "http://" : "";
+			for (String host : new String[] { "127.0.0.1", "localhost", "[::1]" })
+				if (value.equalsIgnoreCase(prefix + host + port))
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = getConfiguredPort();
+		int threads = Runtime.getRuntime().availableProcessors();
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+		String url = SNACClient.getURL(SNACParseClient.DEFAULT_URL);
+
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-port"))
+				port = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-profile"))
+				profileName = args[i + 1];
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else
+				usage();
+		}
+
+		// Do all the expensive work before accepting requests
+		long start = System.nanoTime();
+		SNACSchematronProfile profile = SNACSchematronProfile.getProfile(profileName);
+		if (SNACIngestSettings.getSchematronEngine() == SNACSchematronProfile.Engine.STREAMING)
+			profile.getStreamingValidator();
+
+		SNACIngestDaemon daemon = new SNACIngestDaemon(port, threads, profile, SNACIngestSettings.getParser(url));
+		daemon.start();
+		System.err.println(String.format("SNAC ingest daemon ready on http://127.0.0.1:%d/ in %.1fs (%s, %d threads), token in %s",
+				daemon.getPort(), (System.nanoTime() - start) / 1e9, profileName, threads, getTokenFile(daemon.getPort())));
+	}
+
+	/**
+	 * Start accepting requests
+	 *
+	 * Writes the token file first, for clients to read.
+	 *
+	 * @throws IOException If the token file can not be written
+	 */
+	public void start() throws IOException {
+		tokenFile = getTokenFile(getPort());
+		writeToken(tokenFile.toPath(), token);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				tokenFile.delete();
+			}
+		}));
+		server.start();
+	}
+
+	/**
+	 * Stop the daemon, letting requests in progress finish
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+		if (tokenFile != null)
+			tokenFile.delete();
+	}
+
+	/**
+	 * Get the token of this start
+	 *
+	 * @return The token requests must carry
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Get the token file of a daemon
+	 *
+	 * @param port Port the daemon listens on
+	 * @return ~/.snac-daemon/port.token
+	 */
+	static File getTokenFile(int port) {
+		return new File(new File(System.getProperty("user.home"), ".snac-daemon"), port + ".token");
+	}
+
+	/**
+	 * Write the token to a file only the user can read
+	 *
+	 * @param file Token file, replaced if it exists
+	 * @param token Token
+	 * @throws IOException
+	 */
+	private static void writeToken(Path file, String token) throws IOException {
+		Path dir = file.getParent();
+		boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+		if (!Files.isDirectory(dir)) {
+			if (posix)
+				Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			else
+				Files.createDirectories(dir);
+		}
+		Files.deleteIfExists(file);
+		if (posix) {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file);
+			File f = file.toFile();
+			f.setReadable(false, false);
+			f.setWritable(false, false);
+			f.setReadable(true, true);
+			f.setWritable(true, true);
+		}
+		Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get the port the daemon listens on
+	 *
+	 * @return The bound port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Get the daemon port from the settings
+	 *
+	 * @return The port from -Dsnac.daemon.port, or the default
+	 */
+	static int getConfiguredPort() {
+		return Integer.getInteger(SNACIngestSettings.DAEMON_PORT, DEFAULT_PORT);
+	}
+
+	/**
+	 * Get the file a request is about, or send an error if there is none
+	 *
+	 * @param exchange Request
+	 * @return The file, or null if an error was sent
+	 * @throws IOException
+	 */
+	private File getFile(HttpExchange exchange) throws IOException {
+		String path = getParameters(exchange).get("path");
+		if (path == null) {
+			error(exchange, 400, "Missing path parameter");
+			return null;
+		}
+		File file = new File(path);
+		if (!file.isFile()) {
+			error(exchange, 404, "No such file: " + path);
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * Get the query parameters of a request
+	 *
+	 * @param exchange Request
+	 * @return Decoded parameters by name
+	 */
+	private static Map<String, String> getParameters(HttpExchange exchange) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return parameters;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0)
+				parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else
+				parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Serialize a validation result
+	 */
+	private String toJSON(SNACValidationResult result) {
+		try {
+			return result.toJSON().toString();
+		} catch (JSONException e) {
+			// Only strings and booleans go in, so this can not happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Send an error response
+	 */
+	private void error(HttpExchange exchange, int status, String message) throws IOException {
+		errors.incrementAndGet();
+		logger.warning(message);
+		respond(exchange, status, "{\"error\":" + JSONObject.quote(message) + "}");
+	}
+
+	/**
+	 * Send a JSON response
+	 */
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Run a local validation and parse daemon\n" +
+				"Usage: SNACIngestDaemon [-port n] [-threads n] [-profile file.sch] [-url endpoint]\n\n" +
+				"Listens on 127.0.0.1 (port " + DEFAULT_PORT + " unless -port or -D" + SNACIngestSettings.DAEMON_PORT +
+				" is given).\nSee SNACIngestDaemonClient for the client.");
+		System.exit(2);
+	}
+}
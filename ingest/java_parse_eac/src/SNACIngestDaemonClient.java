@@ -0,0 +1,167 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * SNAC Ingest Daemon Client
+ *
+ * Thin client for SNACIngestDaemon: sends each file path to the daemon and prints the JSON
+ * response on its own line.  Connections are kept alive between requests, so a script can
+ * hand over thousands of files for the cost of the work itself.  Every request carries the
+ * token the daemon wrote to its token file when it started.
+ *
+ * Usage: SNACIngestDaemonClient [-port n] validate|parse|parse-valid|status|shutdown [file...]
+ *
+ * Exits with 0 if every request succeeded (and every document was valid).
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACIngestDaemonClient {
+
+	/**
+	 * Base URL of the daemon
+	 */
+	private final String baseURL;
+
+	/**
+	 * Token of the running daemon
+	 */
+	private final String token;
+
+	/**
+	 * Constructor
+	 *
+	 * @param port Port the daemon listens on
+	 * @throws IOException If the daemon's token file can not be read
+	 */
+	public SNACIngestDaemonClient(int port) throws IOException {
+		this.baseURL = "http://127.0.0.1:" + port + "/";
+		this.token = new String(Files.readAllBytes(SNACIngestDaemon.getTokenFile(port).toPath()),
+				StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = SNACIngestDaemon.getConfiguredPort();
+		int i = 0;
+		if (args.length > 1 && args[0].equals("-port")) {
+			port = Integer.parseInt(args[1]);
+			i = 2;
+		}
+		if (i >= args.length)
+			usage();
+
+		String command = args[i++];
+		int failed = 0;
+		try {
+			SNACIngestDaemonClient client;
+			try {
+				client = new SNACIngestDaemonClient(port);
+			} catch (IOException e) {
+				System.err.println("No daemon token for port " + port + " (" + SNACIngestDaemon.getTokenFile(port)
+						+ "); is the daemon running?");
+				System.exit(3);
+				return;
+			}
+			if (command.equals("status") || command.equals("shutdown")) {
+				Response response = client.request(command, null, command.equals("shutdown") ? "POST" : "GET");
+				System.out.println(response.body);
+				failed = response.status == 200 ? 0 : 1;
+			} else if (command.equals("validate") || command.equals("parse") || command.equals("parse-valid")) {
+				String endpoint = command.equals("validate") ? "validate" : "parse";
+				String method = command.equals("validate") ? "GET" : "POST";
+				String extra = command.equals("parse-valid") ? "&validate=1" : "";
+				for (; i < args.length; i++) {
+					Response response = client.request(endpoint,
+							"path=" + URLEncoder.encode(new File(args[i]).getAbsolutePath(), "UTF-8") + extra, method);
+					System.out.println(response.body);
+					if (response.status != 200 || response.body.contains("\"valid\":false"))
+						failed++;
+				}
+			} else {
+				usage();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not reach the daemon on port " + port + ": " + e.getMessage());
+			System.exit(3);
+		}
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * A daemon response
+	 */
+	public static class Response {
+		public final int status;
+		public final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Send one request to the daemon
+	 *
+	 * @param endpoint Endpoint name (validate, parse, status or shutdown)
+	 * @param query Encoded query string, or null
+	 * @param method HTTP method
+	 * @return The status and JSON body of the response
+	 * @throws IOException If the daemon can not be reached
+	 */
+	public Response request(String endpoint, String query, String method) throws IOException {
+		URL url = new URL(baseURL + endpoint + (query == null ? "" : "?" + query));
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(method);
+		conn.setRequestProperty(SNACIngestDaemon.TOKEN_HEADER, token);
+		int status = conn.getResponseCode();
+		InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+		// Read the whole body so the connection can be reused for the next request
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					body.write(buffer, 0, read);
+			} finally {
+				in.close();
+			}
+		}
+		return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Send EAC-CPF files to a running SNACIngestDaemon\n" +
+				"Usage: SNACIngestDaemonClient [-port n] validate|parse|parse-valid|status|shutdown [file...]\n\n" +
+				"parse-valid validates first and only parses valid files.");
+		System.exit(2);
+	}
+}
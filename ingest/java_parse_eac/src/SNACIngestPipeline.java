@@ -0,0 +1,284 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Ingest Pipeline
+ *
+ * Validates EAC-CPF files and sends only the valid ones to SNAC's parse_eac command.
+ * Each file is parsed (or streamed) once for validation, and failures are written to the
+ * local validation report without spending any network or server time on the file.  Files
+ * that pass are streamed to SNAC and the returned constellations are written to the output
+ * directory as name.json, with any unparsed elements in name.unparsed.txt.
+ *
+ * Constellations that come back with a SNAC ID (records exported from SNAC) are also kept
+ * in the local constellation store (see SNACConstellationStore), where the read tools find
+ * them without asking SNAC.
+ *
+ * With -Dsnac.parser=local the files are converted locally instead (see SNACEacConverter).
+ *
+ * Usage: SNACIngestPipeline [-threads n] [-profile file.sch] [-url endpoint] output-dir report.(jsonl|csv) input...
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACIngestPipeline extends SNACBatchValidator {
+
+	private static final Logger logger = Logger.getLogger(SNACIngestPipeline.class.getName());
+
+	/**
+	 * Pipeline settings
+	 */
+	private final SNACConstellationParser client;
+	private final File outputDir;
+	private final SNACConstellationStore store = SNACConstellationStore.getDefault();
+
+	/**
+	 * Counters for the summary
+	 */
+	private final AtomicInteger parsed = new AtomicInteger();
+	private final AtomicInteger parseFailures = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param profile Compiled profile to validate against
+	 * @param report Report to write validation failures to
+	 * @param threads Number of worker threads
+	 * @param client Parser for the valid files (SNAC's parse_eac command or the local converter)
+	 * @param outputDir Directory to write constellation JSON files to
+	 */
+	public SNACIngestPipeline(SNACSchematronProfile profile, SNACValidationReportWriter report, int threads,
+			SNACConstellationParser client, File outputDir) {
+		super(profile, report, threads);
+		this.client = client;
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+		String url = SNACClient.getURL(SNACParseClient.DEFAULT_URL);
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-profile"))
+				profileName = args[i + 1];
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else
+				usage();
+		}
+		if (args.length - i < 3)
+			usage();
+
+		File outputDir = new File(args[i++]);
+		outputDir.mkdirs();
+		String reportFile = args[i++];
+		List<File> files = new ArrayList<File>();
+		for (; i < args.length; i++)
+			collect(new File(args[i]), files);
+
+		SNACValidationReportWriter report = SNACValidationReportWriter.open(reportFile);
+		SNACIngestPipeline pipeline = new SNACIngestPipeline(SNACSchematronProfile.getProfile(profileName), report,
+				threads, SNACIngestSettings.getParser(url), outputDir);
+		long start = System.nanoTime();
+		try {
+			pipeline.run(files);
+		} finally {
+			report.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.err.println(String.format("Processed %d files in %.1fs: %d invalid (not sent), %d parsed, %d parse failures",
+				report.getDocumentCount(), seconds, report.getInvalidDocumentCount(),
+				pipeline.parsed.get(), pipeline.parseFailures.get()));
+		SNACConstellationParser parser = pipeline.client;
+		if (parser instanceof SNACParseCache) {
+			System.err.println(String.format("%d parse results from the cache", ((SNACParseCache) parser).getHitCount()));
+			parser = ((SNACParseCache) parser).getParser();
+		}
+		if (parser instanceof SNACParseClient) {
+			SNACParseClient remote = (SNACParseClient) parser;
+			System.err.println(String.format("Sent %d bytes of XML as %d bytes", remote.getOriginalBytes(),
+					remote.getTransmittedBytes()));
+			SNACClient.get(remote.getURL()).printMetrics(System.err);
+		}
+		SNACPhaseTimer.printSummary(System.err);
+		System.exit(report.getInvalidDocumentCount() == 0 && pipeline.parseFailures.get() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Validate one file and, if it is valid, parse it with SNAC
+	 *
+	 * @param file File to process
+	 * @throws IOException If the report can not be written
+	 */
+	@Override
+	protected void process(File file) throws IOException {
+		SNACValidationResult validation = cache.validate(file);
+		report.write(validation);
+		if (!validation.isValid()) {
+			invalid(file, validation);
+			return;
+		}
+
+		try {
+			JSONObject resultObj = client.parse(file.toPath(), null);
+			writeResult(file, resultObj);
+			parsed.incrementAndGet();
+		} catch (IOException | JSONException e) {
+			logger.warning("SNAC could not parse " + file + ": " + e.getMessage());
+			parseFailures.incrementAndGet();
+			parseFailed(file, e);
+		}
+	}
+
+	/**
+	 * Called for a file that failed validation, after it has been reported
+	 *
+	 * @param file File that failed
+	 * @param validation Its validation result
+	 * @throws IOException
+	 */
+	protected void invalid(File file, SNACValidationResult validation) throws IOException {
+		// The report has everything
+	}
+
+	/**
+	 * Called for a valid file that could not be parsed, after it has been logged
+	 *
+	 * @param file File that could not be parsed
+	 * @param e Why
+	 * @throws IOException
+	 */
+	protected void parseFailed(File file, Exception e) throws IOException {
+		// The log has everything
+	}
+
+	/**
+	 * Get the directory constellations are written to
+	 *
+	 * @return The output directory
+	 */
+	public File getOutputDirectory() {
+		return outputDir;
+	}
+
+	/**
+	 * Get the number of files parsed
+	 *
+	 * @return Files whose constellation was written
+	 */
+	public int getParsedCount() {
+		return parsed.get();
+	}
+
+	/**
+	 * Get the number of valid files that could not be parsed
+	 *
+	 * @return Parse failures
+	 */
+	public int getParseFailureCount() {
+		return parseFailures.get();
+	}
+
+	/**
+	 * Get the base name of the outputs for a file
+	 *
+	 * @param file Input file
+	 * @return The file name without its .xml extension
+	 */
+	static String getBaseName(File file) {
+		return file.getName().replaceAll("\\.[xX][mM][lL]$", "");
+	}
+
+	/**
+	 * Write the constellation and unparsed elements returned by SNAC
+	 *
+	 * @param file File that was parsed
+	 * @param resultObj Response from SNAC
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	private void writeResult(File file, JSONObject resultObj) throws IOException, JSONException {
+		String baseName = getBaseName(file);
+
+		if (resultObj.has("constellation")) {
+			JSONObject constellation = resultObj.getJSONObject("constellation");
+			SNACJsonWriter.write(constellation, new File(outputDir, baseName + ".json").toPath(),
+					SNACIngestSettings.getJsonIndent());
+			if (store != null) {
+				try {
+					store.put(constellation);
+				} catch (IOException e) {
+					logger.warning("Could not keep the constellation of " + file + ": " + e.getMessage());
+				}
+			}
+		}
+
+		JSONArray unparsed = resultObj.optJSONArray("unparsed");
+		if (unparsed != null && unparsed.length() > 0) {
+			long start = System.nanoTime();
+			Writer writer = new OutputStreamWriter(new FileOutputStream(new File(outputDir, baseName + ".unparsed.txt")),
+					StandardCharsets.UTF_8);
+			try {
+				for (int j = 0; j < unparsed.length(); j++) {
+					String line = unparsed.getString(j).trim();
+					if (!line.isEmpty())
+						writer.write(line + "\n");
+				}
+			} finally {
+				writer.close();
+				SNACPhaseTimer.add(SNACPhaseTimer.Phase.WRITE, start);
+			}
+		}
+
+		if (!resultObj.has("result") || !resultObj.getString("result").equals("success"))
+			logger.warning("SNAC parsed " + file + " with errors");
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Validate EAC-CPF files and parse the valid ones with SNAC\n" +
+				"Usage: SNACIngestPipeline [-threads n] [-profile file.sch] [-url endpoint] output-dir report.(jsonl|csv) input...\n\n" +
+				"Inputs may be XML files or directories (searched recursively for .xml files).\n" +
+				"Invalid files are written to the report and never sent to SNAC.\n" +
+				"Set -D" + SNACIngestSettings.PARSER + "=local to convert valid files without SNAC.");
+		System.exit(2);
+	}
+}
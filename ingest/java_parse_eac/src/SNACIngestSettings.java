@@ -0,0 +1,235 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+
+/**
+ * SNAC Ingest Settings
+ *
+ * Central place for the settings of the EAC-CPF utility.  Each setting can be overridden
+ * with a Java system property (-Dname=value) when starting the utility.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACIngestSettings {
+
+	/**
+	 * System property naming the directory used for on-disk caches
+	 */
+	public static final String CACHE_DIRECTORY = "snac.cache.dir";
+
+	/**
+	 * System property choosing the Schematron engine ("xslt", "pure" or "streaming")
+	 */
+	public static final String SCHEMATRON_ENGINE = "snac.schematron.engine";
+
+	/**
+	 * System property setting how many pattern groups a document is validated with in parallel
+	 */
+	public static final String SCHEMATRON_GROUPS = "snac.schematron.groups";
+
+	/**
+	 * System property setting the loopback port of the ingest daemon
+	 */
+	public static final String DAEMON_PORT = "snac.daemon.port";
+
+	/**
+	 * System property turning the validation result cache on or off ("true" by default)
+	 */
+	public static final String VALIDATION_CACHE = "snac.validation.cache";
+
+	/**
+	 * System property choosing where EAC-CPF is converted to constellations ("remote" or "local")
+	 */
+	public static final String PARSER = "snac.parser";
+
+	/**
+	 * System properties turning on minification and gzip compression of uploads to SNAC
+	 */
+	public static final String UPLOAD_MINIFY = "snac.upload.minify";
+	public static final String UPLOAD_GZIP = "snac.upload.gzip";
+
+	/**
+	 * System property choosing compact rather than indented constellation JSON files
+	 */
+	public static final String JSON_COMPACT = "snac.json.compact";
+
+	/**
+	 * System properties for the parse_eac response cache: "true", "false" or "refresh", and
+	 * its size limit in MB
+	 */
+	public static final String PARSE_CACHE = "snac.parse.cache";
+	public static final String PARSE_CACHE_SIZE = "snac.parse.cache.size";
+
+	/**
+	 * System property for how long (in ms) a dropped file must go unchanged before the watch
+	 * folder processes it
+	 */
+	public static final String WATCH_QUIET = "snac.watch.quiet";
+
+	/**
+	 * Get cache directory
+	 *
+	 * Returns (and creates if needed) the directory for the given kind of cache.  By default
+	 * caches live in ".snac-eac-cpf" in the user's home directory.
+	 *
+	 * @param name Name of the cache (subdirectory)
+	 * @return The cache directory, or null if it could not be created
+	 */
+	public static File getCacheDirectory(String name) {
+		String base = System.getProperty(CACHE_DIRECTORY);
+		if (base == null)
+			base = System.getProperty("user.home") + File.separator + ".snac-eac-cpf";
+
+		File dir = new File(base, name);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return null;
+		return dir;
+	}
+
+	/**
+	 * Get the Schematron engine
+	 *
+	 * The XSLT engine (the default) runs the profile compiled to XSLT 2.0 with Saxon.  The
+	 * pure engine interprets the profile directly with XPath.  SNACSchematronBenchmark
+	 * compares them for a given workload.  The streaming engine checks files in one StAX
+	 * pass with bounded memory, for very large records.
+	 *
+	 * @return The engine to validate with
+	 */
+	public static SNACSchematronProfile.Engine getSchematronEngine() {
+		String engine = System.getProperty(SCHEMATRON_ENGINE, "xslt");
+		try {
+			return SNACSchematronProfile.Engine.valueOf(engine.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown " + SCHEMATRON_ENGINE + ": " + engine);
+		}
+	}
+
+	/**
+	 * Get the number of pattern groups
+	 *
+	 * With more than one group, each document is validated by that many threads, each running
+	 * a share of the profile's patterns (see SNACParallelValidator).  The default of 1 runs the
+	 * whole profile on the calling thread, which suits batches of ordinary records.
+	 *
+	 * @return The number of groups to split the patterns of a profile into
+	 */
+	public static int getSchematronGroups() {
+		try {
+			return Math.max(1, Integer.parseInt(System.getProperty(SCHEMATRON_GROUPS, "1").trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + SCHEMATRON_GROUPS + ": " + System.getProperty(SCHEMATRON_GROUPS));
+		}
+	}
+
+	/**
+	 * Is the validation result cache enabled
+	 *
+	 * @return True unless the cache has been turned off
+	 */
+	public static boolean isValidationCacheEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(VALIDATION_CACHE, "true").trim());
+	}
+
+	/**
+	 * Are uploads minified
+	 *
+	 * @return True if XML is minified before it is sent to SNAC ("false" by default)
+	 */
+	public static boolean isUploadMinified() {
+		return "true".equalsIgnoreCase(System.getProperty(UPLOAD_MINIFY, "false").trim());
+	}
+
+	/**
+	 * Are uploads compressed
+	 *
+	 * Only turn this on for endpoints that accept gzip-compressed request bodies.
+	 *
+	 * @return True if requests to SNAC are sent with Content-Encoding: gzip ("false" by default)
+	 */
+	public static boolean isUploadCompressed() {
+		return "true".equalsIgnoreCase(System.getProperty(UPLOAD_GZIP, "false").trim());
+	}
+
+	/**
+	 * Get the indentation of constellation JSON files
+	 *
+	 * @return Spaces per level of nesting (4), or 0 if compact JSON was asked for
+	 */
+	public static int getJsonIndent() {
+		return "true".equalsIgnoreCase(System.getProperty(JSON_COMPACT, "false").trim()) ? 0 : 4;
+	}
+
+	/**
+	 * Get the parse cache mode
+	 *
+	 * @return ON by default, OFF to bypass the cache, or REFRESH to parse again and store
+	 */
+	public static SNACParseCache.Mode getParseCacheMode() {
+		String mode = System.getProperty(PARSE_CACHE, "true").trim();
+		if (mode.equalsIgnoreCase("true"))
+			return SNACParseCache.Mode.ON;
+		if (mode.equalsIgnoreCase("false"))
+			return SNACParseCache.Mode.OFF;
+		if (mode.equalsIgnoreCase("refresh"))
+			return SNACParseCache.Mode.REFRESH;
+		throw new IllegalArgumentException("Unknown " + PARSE_CACHE + ": " + mode);
+	}
+
+	/**
+	 * Get the size limit of the parse cache
+	 *
+	 * @return Bytes the cache is kept under (512 MB by default)
+	 */
+	public static long getParseCacheSize() {
+		try {
+			return Long.parseLong(System.getProperty(PARSE_CACHE_SIZE, "512").trim()) * 1024 * 1024;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + PARSE_CACHE_SIZE + ": " + System.getProperty(PARSE_CACHE_SIZE));
+		}
+	}
+
+	/**
+	 * Get the quiet period of the watch folder
+	 *
+	 * @return Milliseconds without changes before a file is processed (1000 by default)
+	 */
+	public static long getWatchQuietMillis() {
+		try {
+			return Long.parseLong(System.getProperty(WATCH_QUIET, "1000").trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + WATCH_QUIET + ": " + System.getProperty(WATCH_QUIET));
+		}
+	}
+
+	/**
+	 * Get the constellation parser
+	 *
+	 * The remote parser (the default) sends each file to SNAC's parse_eac command.  The
+	 * local parser converts files on this machine with SNACEacConverter, without any network
+	 * traffic; SNACParseVerifier checks that both give the same constellations.  Responses
+	 * from SNAC are cached (see SNACParseCache) unless the cache is bypassed.
+	 *
+	 * @param url SNAC REST endpoint for the remote parser
+	 * @return The parser to use
+	 */
+	public static SNACConstellationParser getParser(String url) {
+		String parser = System.getProperty(PARSER, "remote").trim();
+		if (parser.equalsIgnoreCase("remote"))
+			return getParseCacheMode() == SNACParseCache.Mode.OFF ? new SNACParseClient(url)
+					: new SNACParseCache(new SNACParseClient(url), url);
+		if (parser.equalsIgnoreCase("local"))
+			return new SNACEacConverter();
+		throw new IllegalArgumentException("Unknown " + PARSER + ": " + parser);
+	}
+}
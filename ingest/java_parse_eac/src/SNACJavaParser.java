@@ -16,9 +16,13 @@ import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.logging.ErrorManager;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import javax.swing.JButton;
@@ -56,6 +60,7 @@ public class SNACJavaParser extends javax.swing.JFrame {
 	private JPanel parserPanel;
 	private JSeparator jSeparator2;
 	private JButton parseWithSNAC;
+	private JButton validateAndParse;
 	private JSeparator jSeparator3;
 	private JProgressBar parseProgressBar;
 	private JSeparator jSeparator4;
@@ -67,49 +72,192 @@ public class SNACJavaParser extends javax.swing.JFrame {
 	private JLabel toJSONFileLabel;
 	private JLabel toJSONFileLocationLabel;
 	private JButton toJSONFileButton;
+	private JLabel reportFileLabel;
+	private JLabel reportFileLocationLabel;
+	private JButton reportFileButton;
 
 	/**
 	 * Reconciliation File Variables
 	 */
 	private String fromXMLFile;
 	private String toJSONFile;
+	private String reportFile;
 
 
-	{
-		//Set Look & Feel
-		try {
-			javax.swing.UIManager.setLookAndFeel(javax.swing.UIManager.getSystemLookAndFeelClassName());
-		} catch(Exception e) {
-			// Silently ignoring errors
-		}
-	}
+	/**
+	 * Subcommands run instead of the frame: name, main class and arguments
+	 */
+	private static final String[][] SUBCOMMANDS = {
+		{ "validate", "SNACBatchValidator", "[options] report input..." },
+		{ "ingest", "SNACIngestPipeline", "[options] output-dir report input..." },
+		{ "conformance", "SNACValidatorConformance", "[-profile file.sch] [input...]" },
+		{ "profile", "SNACSchematronProfiler", "[-profile file.sch] report input..." },
+		{ "daemon", "SNACIngestDaemon", "[options]" },
+		{ "client", "SNACIngestDaemonClient", "[options] command [file...]" },
+		{ "verify", "SNACParseVerifier", "[-url endpoint] input..." },
+		{ "watch", "SNACWatchFolder", "[options] directory" },
+	};
 
 	/**
 	 * Main Method
 	 * 
-	 * Creates an instance of this GUI and starts the example
+	 * Creates an instance of this GUI and starts the example.  With "validate" as the first
+	 * argument, runs a batch validation instead (see SNACBatchValidator), and with "ingest"
+	 * runs the validate-then-parse pipeline (see SNACIngestPipeline).  "conformance" and
+	 * "profile" run the streaming validator check (SNACValidatorConformance) and the per-rule
+	 * profiler (SNACSchematronProfiler).  "daemon" starts a warm local server for scripts and
+	 * "client" talks to it (SNACIngestDaemon, SNACIngestDaemonClient).  "verify" compares the
+	 * local EAC-CPF conversion with SNAC's parser (SNACParseVerifier), and "watch" runs the
+	 * pipeline on files dropped into a directory (SNACWatchFolder).  The subcommands are in
+	 * SUBCOMMANDS; any other first argument prints the usage.
+	 * 
+	 * Start-up only does what the first frame needs: the log file is opened when the first
+	 * record is written, and the Schematron engine, JSON and SNAC client classes are loaded
+	 * by the first button pressed.  With -Dsnac.ui.preload=true the default Schematron
+	 * profile is compiled in the background once the frame is up, to shorten the first
+	 * validation.  With -Dsnac.cds.training=true the frame closes as soon as it is shown,
+	 * which is the training run of the class-data sharing archive (see the cds profile).
 	 * 
 	 * @param args Command-line arguments
-	 * @throws IOException 
-	 * @throws SecurityException 
+	 * @throws Exception 
 	 */
-	public static void main(String[] args) throws SecurityException, IOException {
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			for (String[] subcommand : SUBCOMMANDS) {
+				if (!subcommand[0].equals(args[0]))
+					continue;
+				// Loaded only when asked for, so the frame does not wait on them
+				try {
+					Class.forName(subcommand[1]).getMethod("main", String[].class)
+							.invoke(null, (Object) Arrays.copyOfRange(args, 1, args.length));
+				} catch (InvocationTargetException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+				return;
+			}
+			// Options such as -psn_... are passed by the desktop when it starts the frame
+			if (!args[0].startsWith("-"))
+				usage();
+		}
+
 		//Mac Niceness
 		System.setProperty("com.apple.mrj.application.apple.menu.about.name", "SNAC EAC-CPF Utility");
 
-		Handler fh = new FileHandler("log2.txt");
-	    Logger.getLogger("").addHandler(fh);
+	    Logger.getLogger("").addHandler(new LazyFileHandler("log2.txt"));
 	    Logger.getLogger("").setLevel(Level.INFO);
 
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				SNACJavaParser inst = new SNACJavaParser();
+				//Set Look & Feel
+				try {
+					javax.swing.UIManager.setLookAndFeel(javax.swing.UIManager.getSystemLookAndFeelClassName());
+				} catch(Exception e) {
+					// Silently ignoring errors
+				}
+
+				final SNACJavaParser inst = new SNACJavaParser();
 				inst.setLocationRelativeTo(null);
 				inst.setVisible(true);
+
+				if (Boolean.getBoolean("snac.cds.training")) {
+					// Everything the first frame needs is loaded once it has been painted
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							inst.dispose();
+							System.exit(0);
+						}
+					});
+				} else if (Boolean.getBoolean("snac.ui.preload")) {
+					preloadProfile();
+				}
 			}
 		});
 	}
 
+	/**
+	 * Compile the default Schematron profile in the background
+	 * 
+	 * The first validation then finds it compiled (or waits for the compilation already
+	 * under way, see SNACSchematronProfile.getProfile).
+	 */
+	private static void preloadProfile() {
+		Thread preload = new Thread(new Runnable() {
+			public void run() {
+				try {
+					SNACSchematronProfile.getProfile(SNACSchematronProfile.DEFAULT_PROFILE);
+				} catch (IOException e) {
+					// The first validation reports it
+				}
+			}
+		}, "snac-profile-preload");
+		preload.setDaemon(true);
+		preload.setPriority(Thread.MIN_PRIORITY);
+		preload.start();
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		StringBuilder usage = new StringBuilder("SNAC EAC-CPF Utility\n"
+				+ "Usage: SNACJavaParser               open the window\n");
+		for (String[] subcommand : SUBCOMMANDS)
+			usage.append(String.format("       SNACJavaParser %-12s %s (see %s)%n", subcommand[0], subcommand[2],
+					subcommand[1]));
+		System.err.print(usage);
+		System.exit(2);
+	}
+
+	/**
+	 * Lazy File Handler
+	 * 
+	 * Log handler that opens its FileHandler (and the file's lock) when the first record is
+	 * published, rather than at start-up.
+	 */
+	private static class LazyFileHandler extends Handler {
+
+		private final String pattern;
+		private Handler handler;
+		private boolean failed;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param pattern FileHandler pattern of the log file
+		 */
+		LazyFileHandler(String pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		public synchronized void publish(LogRecord record) {
+			if (handler == null && !failed) {
+				try {
+					handler = new FileHandler(pattern);
+				} catch (IOException e) {
+					failed = true;
+					reportError("Could not open " + pattern, e, ErrorManager.OPEN_FAILURE);
+				}
+			}
+			if (handler != null)
+				handler.publish(record);
+		}
+
+		@Override
+		public synchronized void flush() {
+			if (handler != null)
+				handler.flush();
+		}
+
+		@Override
+		public synchronized void close() {
+			if (handler != null)
+				handler.close();
+		}
+	}
+
 	/**
 	 * Constructor
 	 * 
@@ -148,8 +296,8 @@ public class SNACJavaParser extends javax.swing.JFrame {
 			{
 				parserPanel = new JPanel();
 				bodyPanel.add(parserPanel);
-				parserPanel.setSize(700, 200);
-				parserPanel.setPreferredSize(new java.awt.Dimension(700, 200));
+				parserPanel.setSize(700, 230);
+				parserPanel.setPreferredSize(new java.awt.Dimension(700, 230));
 
 				// lookup buttons
 				{
@@ -211,13 +359,53 @@ public class SNACJavaParser extends javax.swing.JFrame {
 							chooser2.setFileFilter(new FileNameExtensionFilter("JSON Constellation Files","json"));
 							int returnVal = chooser2.showSaveDialog(null);
 							if(returnVal == JFileChooser.APPROVE_OPTION) {
-								toJSONFile = chooser2.getSelectedFile().getAbsolutePath();
+								String chosen = chooser2.getSelectedFile().getAbsolutePath();
+								if (chosen.equals(reportFile)) {
+									parseProgressLabel.setText("The validation report is written to that file");
+									return;
+								}
+								toJSONFile = chosen;
 								toJSONFileLocationLabel.setText(toJSONFile);
 							}
 
 						}
 					});
 				}
+				{
+					reportFileLabel = new JLabel();
+					parserPanel.add(reportFileLabel);
+					reportFileLabel.setText("Validation Report File: ");
+				}
+				{
+					reportFileLocationLabel = new JLabel();
+					parserPanel.add(reportFileLocationLabel);
+					reportFileLocationLabel.setText("<optional>");
+				}
+				{
+					reportFileButton = new JButton();
+					parserPanel.add(reportFileButton);
+					reportFileButton.setText("Browse");
+					reportFileButton.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent evt) {
+							// The Schematron failures get their own file, never the constellation's
+							JFileChooser chooser2 = new JFileChooser();
+							chooser2.setDialogTitle("Choose a Validation Report File (optional).");
+							chooser2.setDialogType(JFileChooser.SAVE_DIALOG);
+							chooser2.setFileFilter(new FileNameExtensionFilter("Validation Reports (JSON Lines or CSV)", "jsonl", "csv"));
+							int returnVal = chooser2.showSaveDialog(null);
+							if(returnVal == JFileChooser.APPROVE_OPTION) {
+								String chosen = chooser2.getSelectedFile().getAbsolutePath();
+								if (chosen.equals(toJSONFile)) {
+									parseProgressLabel.setText("The constellation is written to that file");
+									return;
+								}
+								reportFile = chosen;
+								reportFileLocationLabel.setText(reportFile);
+							}
+
+						}
+					});
+				}
 
 				{
 					jSeparator2 = new JSeparator();
@@ -238,7 +426,7 @@ public class SNACJavaParser extends javax.swing.JFrame {
 								parseProgressLabel.setText("Starting...");
 								try {
 									// do the reconcile loop in the background
-									final SNACJavaSchematronValidator rw = new SNACJavaSchematronValidator(fromXMLFile, toJSONFile, true);        
+									final SNACJavaSchematronValidator rw = new SNACJavaSchematronValidator(fromXMLFile, reportFile, true);        
 									rw.addPropertyChangeListener(new PropertyChangeListener() {
 
 										@Override
@@ -295,6 +483,40 @@ public class SNACJavaParser extends javax.swing.JFrame {
 						}
 					});
 				}
+				// Validate, then parse with SNAC only if valid
+				{
+					validateAndParse = new JButton();
+					parserPanel.add(validateAndParse);
+					validateAndParse.setText("Validate and Parse");
+					validateAndParse.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent evt) {
+							// Same as parsing with SNAC, but files that fail the Schematron profile
+							// are reported here and never sent to SNAC.
+							if (fromXMLFile != null) {
+								try {
+									parseProgressBar.setValue(0);
+									parseProgressLabel.setText("Starting...");
+									final SNACJavaParserWorker rw = new SNACJavaParserWorker(fromXMLFile, toJSONFile, true, true);
+									rw.addPropertyChangeListener(new PropertyChangeListener() {
+
+										@Override
+										public void propertyChange(
+												PropertyChangeEvent evt) {
+											if ("progress" == evt.getPropertyName()) {
+												int progress = (Integer) evt.getNewValue();
+												parseProgressBar.setValue(progress);
+												parseProgressLabel.setText(rw.getProgressText());
+											} 
+										}
+									});
+									rw.execute();
+								} catch (Exception e) {
+									// Silently ignoring errors
+								}
+							}
+						}
+					});
+				}
 				{
 					jSeparator3 = new JSeparator();
 					parserPanel.add(jSeparator3);
@@ -319,7 +541,7 @@ public class SNACJavaParser extends javax.swing.JFrame {
 
 
 			}
-			this.setSize(700, 400);
+			this.setSize(700, 430);
 			this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 			this.setTitle("SNAC EAC-CPF Utility");
 		} catch (Exception e) {
@@ -9,17 +9,9 @@
  *            the Regents of the University of California
  */
 
-import java.io.BufferedInputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,6 +41,11 @@ public class SNACJavaParserWorker extends SwingWorker<Void, Void> {
 	
 	private Boolean displayResult;
 
+	/**
+	 * Whether to validate against the Schematron profile before sending to SNAC
+	 */
+	private boolean validateFirst;
+
 	/**
 	 * Progress of the reconciliation
 	 */
@@ -59,6 +56,12 @@ public class SNACJavaParserWorker extends SwingWorker<Void, Void> {
 	 */
 	String progressText;
 
+	/**
+	 * Timer of the file being worked on, and the phases it goes through
+	 */
+	private SNACPhaseTimer timer;
+	private SNACPhaseTimer.Phase[] plan;
+
 	/**
 	 * Constructor
 	 * 
@@ -68,11 +71,27 @@ public class SNACJavaParserWorker extends SwingWorker<Void, Void> {
 	 * @param to CSV file to write to
 	 */
 	public SNACJavaParserWorker (String from, String to, Boolean displayResult) {
+		this(from, to, displayResult, false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * Create a new worker that can validate the file before parsing.  Files that fail
+	 * validation are reported locally and never sent to SNAC.
+	 * 
+	 * @param from XML file to read from
+	 * @param to JSON file to write to (or null)
+	 * @param displayResult Whether to show the results in a window
+	 * @param validateFirst Whether to validate against the Schematron profile first
+	 */
+	public SNACJavaParserWorker (String from, String to, Boolean displayResult, boolean validateFirst) {
 		fromFile = from;
 		toFile = to;
 		progress = 0.0;
 		progressText = "";
 		this.displayResult = displayResult;
+		this.validateFirst = validateFirst;
 	}
 
 	/**
@@ -112,10 +131,22 @@ public class SNACJavaParserWorker extends SwingWorker<Void, Void> {
 		return progressText;
 	}
 
+	/**
+	 * Update the progress from the phases measured so far
+	 *
+	 * Progress only moves forward, even if the estimates change while the file is worked on.
+	 */
+	private void updateProgress() {
+		int measured = Math.min(timer.getProgress(plan, 0, 100), 99);
+		if (measured > getProgress())
+			setProgress(measured);
+	}
+
 	/**
 	 * Main Reconcile Method
 	 * 
-	 * This method performs the heart of the client-side reconciliation process.
+	 * This method performs the heart of the client-side reconciliation process.  Each phase
+	 * of the work is timed (see SNACPhaseTimer), and progress is derived from those times.
 	 * 
 	 * @throws Exception
 	 */
@@ -123,102 +154,89 @@ public class SNACJavaParserWorker extends SwingWorker<Void, Void> {
 		setProgress(0);
 		setProgressText("Reading XML file");
 		
-		String xmlContents = new String(Files.readAllBytes(Paths.get(fromFile)), StandardCharsets.UTF_8);
-		
-
-		setProgress(10);
-		setProgressText("Encoding XML file");
-		
-		String base64Encoded = new String(Base64.getEncoder().encode(xmlContents.getBytes()));
-		
-		setProgress(20);
-		setProgressText("Querying SNAC-Alpha");
-
-
-
-		// Create the JSON query string for the SNAC RestAPI
-		String query = "{"+ 
-				"\"command\" : \"parse_eac\"," +
-				"\"file\" : { " +
-					"\"content\" : \"" + base64Encoded + "\"," +
-					"\"mime-type\" : \"text/xml\"" +
-				"}" +
-			"}";
-
-		//System.err.println(query);
-		// Perform connection to SNAC
-		HttpURLConnection httpcon = (HttpURLConnection) ((new URL("http://snac-dev.iath.virginia.edu/alpha/rest/").openConnection()));
-		httpcon.setDoOutput(true);
-		httpcon.setRequestProperty("Content-Type", "application/json");
-		httpcon.setRequestMethod("PUT");
-		httpcon.connect();
-		
-		
-		setProgress(50);
-		setProgressText("Reading response from SNAC-Alpha");
-
-		// Write the query to the RestAPI
-		byte[] outputBytes = query.getBytes("UTF-8");
-		OutputStream os = httpcon.getOutputStream();
-		os.write(outputBytes);
-		os.close();
-		
-		setProgress(60);
-
+		Path xmlPath = Paths.get(fromFile);
 
-		// Read the response from the RestAPI
-		String resultStr = null;
+		// Stream the file to SNAC (or convert it locally) and read back the parsed constellation
+		SNACConstellationParser parser = SNACIngestSettings.getParser(SNACClient.getURL(SNACParseClient.DEFAULT_URL));
+		SNACPhaseTimer.Phase[] parsePlan = parser instanceof SNACEacConverter ? SNACPhaseTimer.CONVERT
+				: SNACPhaseTimer.PARSE;
+		plan = validateFirst ? SNACPhaseTimer.plan(SNACPhaseTimer.VALIDATE, parsePlan) : parsePlan;
+		timer = SNACPhaseTimer.start(xmlPath.toFile().length());
 		try {
-			InputStream in = new BufferedInputStream(httpcon.getInputStream());
-			resultStr = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-			in.close();
-		} catch (Exception e) {
-			e.printStackTrace(System.err);
-			setProgress(99);
-			setProgressText("SNAC-Alpha could not parse input: Invalid XML File");
-			return;
+			reconcile(xmlPath, parser, parsePlan);
+		} finally {
+			timer.finish();
 		}
-		
-		setProgress(65);
+	}
+
+	/**
+	 * Validate, parse and write the file, with the phase timer running
+	 *
+	 * @param xmlPath File to parse
+	 * @param parser Parser to use
+	 * @param parsePlan Phases the parser goes through
+	 * @throws Exception
+	 */
+	private void reconcile(Path xmlPath, SNACConstellationParser parser, SNACPhaseTimer.Phase[] parsePlan)
+			throws Exception {
+		if (validateFirst) {
+			setProgressText("Validating XML file");
+			SNACSchematronProfile profile = SNACSchematronProfile.getProfile(SNACSchematronProfile.DEFAULT_PROFILE);
+			SNACPhaseTimer.ended(SNACPhaseTimer.Phase.COMPILE);
+			updateProgress();
+			SNACValidationResult validation = profile.validate(xmlPath.toFile());
+			SNACPhaseTimer.ended(SNACPhaseTimer.Phase.READ, SNACPhaseTimer.Phase.TRANSFORM);
+			if (!validation.isValid()) {
+				if (displayResult)
+					SNACInfoWindow.showLines("Validation Errors", validation.getFailures());
+				progressText = "Invalid XML File -- not sent to SNAC-Alpha";
+				setProgress(100);
+				return;
+			}
+			updateProgress();
+		}
+
+		setProgressText(parser instanceof SNACEacConverter ? "Converting XML file" : "Uploading XML file to SNAC-Alpha");
+
 		JSONObject resultObj = null;
 		try {
-			resultObj = new JSONObject(resultStr);
+			resultObj = parser.parse(xmlPath, new SNACParseClient.UploadListener() {
+				public void uploaded(long sent, long total) {
+					updateProgress();
+					if (sent == total)
+						setProgressText("Reading response from SNAC-Alpha");
+				}
+			});
 		} catch (JSONException je) {
 			setProgress(99);
 			setProgressText("SNAC-Alpha returned with an error");
-			System.err.println(resultStr);
+			return;
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			setProgress(99);
+			setProgressText("SNAC-Alpha could not parse input: Invalid XML File");
 			return;
 		}
 
-		setProgress(70);
-		// Close the connection
-		httpcon.disconnect();
-		
-		
-		setProgress(75);
-		setProgressText("Parsing response from SNAC");
+		// Phases a cached parse did not go through are over too
+		for (SNACPhaseTimer.Phase phase : parsePlan)
+			if (phase != SNACPhaseTimer.Phase.WRITE)
+				timer.finish(phase);
+		updateProgress();
 
 		// If reconciliation succeeded, then process the results
 
-		// Use a pre-packaged writer to write out the CSV file
-		FileWriter writer = null;
-		if (toFile != null)
-			writer = new FileWriter(toFile);
-		
 		if (resultObj.has("constellation") && resultObj.has("result")) {		
-			setProgress(85);
 			setProgressText("Writing JSON file from SNAC");
 			
-			if (writer != null)
-				writer.write(resultObj.getJSONObject("constellation").toString(4));
+			// Stream the constellation to the file; the window writes its own copy in the background
+			JSONObject constellation = resultObj.getJSONObject("constellation");
+			if (toFile != null)
+				SNACJsonWriter.write(constellation, Paths.get(toFile), SNACIngestSettings.getJsonIndent());
 
 			if (displayResult)
-				SNACInfoWindow.showWindow("Parsed Constellation" ,resultObj.getJSONObject("constellation").toString(4));
+				SNACInfoWindow.showJSON("Parsed Constellation", constellation);
 		}
-		
-		// Close the CSV Writer
-		if (writer != null)
-			writer.close();
 
 
 		// Update the progress to 100%
@@ -13,6 +13,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -27,15 +28,11 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.swing.SwingWorker;
-import javax.xml.transform.stream.StreamSource;
 
-import org.json.JSONObject;
-import org.oclc.purl.dsdl.svrl.FailedAssert;
-import org.oclc.purl.dsdl.svrl.SchematronOutputType;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
 
-import com.helger.schematron.ISchematronResource;
-import com.helger.schematron.pure.SchematronResourcePure;
-import com.helger.schematron.xslt.SchematronResourceSCH;
+import org.json.JSONObject;
 
 
 /**
@@ -53,7 +50,7 @@ public class SNACJavaSchematronValidator extends SwingWorker<Void, Void> {
 	 * Filenames to use
 	 */
 	private String fromFile;
-	private String toFile;
+	private String reportFile;
 	
 	private Boolean displayResult;
 
@@ -67,17 +64,24 @@ public class SNACJavaSchematronValidator extends SwingWorker<Void, Void> {
 	 */
 	String progressText;
 
+	/**
+	 * Timer of the file being validated
+	 */
+	private SNACPhaseTimer timer;
+
 	/**
 	 * Constructor
 	 * 
-	 * Create a new worker using the given from and to filenames.
+	 * Create a new worker using the given from and report filenames.
 	 * 
-	 * @param from CSV file to read from
-	 * @param to CSV file to write to
+	 * @param from XML file to validate
+	 * @param report Report file to write the failures to (JSON Lines, or CSV for a .csv name),
+	 *        or null for no report; never the constellation output file, which it would replace
+	 * @param displayResult Whether to show the failures in a window
 	 */
-	public SNACJavaSchematronValidator (String from, String to, Boolean displayResult) {
+	public SNACJavaSchematronValidator (String from, String report, Boolean displayResult) {
 		fromFile = from;
-		toFile = to;
+		reportFile = report;
 		progress = 0.0;
 		progressText = "";
 		this.displayResult = displayResult;
@@ -122,16 +126,40 @@ public class SNACJavaSchematronValidator extends SwingWorker<Void, Void> {
 	
 
 
+	/**
+	 * Update the progress from the phases measured so far
+	 */
+	private void updateProgress() {
+		int measured = Math.min(timer.getProgress(SNACPhaseTimer.VALIDATE, 0, 100), 99);
+		if (measured > getProgress())
+			setProgress(measured);
+	}
+
 	/**
 	 * Main Reconcile Method
 	 * 
-	 * This method performs the heart of the client-side reconciliation process.
+	 * This method performs the heart of the client-side reconciliation process.  Each phase
+	 * of the work is timed (see SNACPhaseTimer), and progress is derived from those times.
 	 * 
 	 * @throws Exception
 	 */
 	private void validate() throws Exception {
 		setProgress(0);
 		setProgressText("Reading XML file");
+		timer = SNACPhaseTimer.start(new File(fromFile).length());
+		try {
+			validateFile();
+		} finally {
+			timer.finish();
+		}
+	}
+
+	/**
+	 * Validate the file, with the phase timer running
+	 *
+	 * @throws Exception
+	 */
+	private void validateFile() throws Exception {
 		
 		//InputStream schematronStream = getClass().getResourceAsStream("SNAC_EAC-CPF_ValidationProfile.sch");
 		//File schematron = new File(SNACJavaSchematronValidator.class.getResource("SNAC_EAC-CPF_ValidationProfile.sch"));
@@ -148,47 +176,72 @@ public class SNACJavaSchematronValidator extends SwingWorker<Void, Void> {
 //		    return;
 //		  }
 		  
-		final ISchematronResource aResSCH = SchematronResourceSCH.fromClassPath("SNAC_EAC-CPF_ValidationProfile.sch");
-		//final ISchematronResource aResSCH = SchematronResourceSCH.     .fromFile(schematron);		  
-		if (!aResSCH.isValidSchematron ()) {
-			  //FileReader r = new FileReader(schematron);
-			  //String text = new String(Files.readAllBytes(schematron.toPath()), StandardCharsets.UTF_8);
-			  //System.err.println(text);
-		    progressText =  "Invalid Schematron!";
-		    setProgress(100);
-		    return;
-		  }
-		boolean result = aResSCH.getSchematronValidity(new StreamSource(xmlFile)).isValid ();
-		
-		String validationErrors = "";
-		SchematronOutputType sot = aResSCH.applySchematronValidationToSVRL(new StreamSource(xmlFile));
-		List<Object> failedAsserts = sot.getActivePatternAndFiredRuleAndFailedAssert();
-		for (Object object : failedAsserts) {
-		    if (object instanceof FailedAssert) {
-		        FailedAssert failedAssert = (FailedAssert) object;
-		        validationErrors += failedAssert.getText() + "\r\n";
-		        //System.out.println(failedAssert.getTest());
-		    }
+		// The compiled profile is shared by every validation in this JVM
+		final SNACSchematronProfile profile;
+		try {
+			profile = SNACSchematronProfile.getProfile(SNACSchematronProfile.DEFAULT_PROFILE);
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+			progressText =  "Invalid Schematron!";
+			setProgress(100);
+			return;
 		}
-		
+		SNACPhaseTimer.ended(SNACPhaseTimer.Phase.COMPILE);
+		updateProgress();
 
-//		FileWriter writer = null;
-//		if (toFile != null)
-//			writer = new FileWriter(toFile);
-//		
-//		if (displayResult)
-//			SNACJavaParserConstellationWindow.showConstellation("");
-//
-//		// Close the CSV Writer
-//		if (writer != null)
-//			writer.close();
+		// An unchanged document gets its earlier result back without being parsed
+		SNACValidationCache cache = new SNACValidationCache(profile);
+		String contentHash = null;
+		SNACValidationResult validation = null;
+		try {
+			contentHash = SNACValidationCache.hashFile(xmlFile);
+			validation = cache.get(fromFile, contentHash);
+		} catch (IOException e) {
+			// Unreadable; the parser reports it below
+		}
+
+		if (validation == null) {
+			// Parse the document once and run a single transformation; validity comes from the SVRL
+			XdmNode document;
+			try {
+				document = SNACSchematronProfile.parse(xmlFile);
+			} catch (SaxonApiException e) {
+				SNACInfoWindow.showWindow("Validation Errors", e.getMessage());
+				progressText = "Invalid XML File";
+				setProgress(100);
+				return;
+			}
+
+			SNACPhaseTimer.ended(SNACPhaseTimer.Phase.READ);
+			updateProgress();
+			setProgressText("Validating XML file");
+
+			validation = profile.validate(fromFile, document);
+			if (contentHash != null)
+				cache.put(contentHash, validation);
+		}
+
+		SNACPhaseTimer.ended(SNACPhaseTimer.Phase.READ, SNACPhaseTimer.Phase.TRANSFORM);
+		updateProgress();
+
+		// Write the failures to the report file, if one was chosen
+		if (reportFile != null) {
+			setProgressText("Writing validation report");
+			SNACValidationReportWriter report = SNACValidationReportWriter.open(reportFile);
+			try {
+				report.write(validation);
+			} finally {
+				report.close();
+			}
+		}
 
 
 		// Update the progress to 100%
-		if (result)
+		if (validation.isValid())
 			progressText = "Validated Successfully";
 		else {
-			SNACInfoWindow.showWindow("Validation Errors", validationErrors);
+			if (displayResult)
+				SNACInfoWindow.showLines("Validation Errors", validation.getFailures());
 			progressText = "Invalid XML File";
 		}
 		setProgress(100);
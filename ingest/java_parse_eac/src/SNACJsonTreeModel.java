@@ -0,0 +1,155 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SNAC JSON Tree Model
+ *
+ * A collapsible tree over a JSON value for a JTree.  Tree nodes are only created for the
+ * children of the objects and arrays that are expanded, so a huge constellation opens with
+ * just its top-level fields and costs nothing more until the user drills in.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACJsonTreeModel implements TreeModel {
+
+	/**
+	 * Longest scalar value shown in a node label
+	 */
+	private static final int MAX_VALUE_LENGTH = 200;
+
+	/**
+	 * A node: a value and the key or index it is found under
+	 */
+	public static class Node {
+		final String key;
+		final Object value;
+		private List<Node> children;
+
+		Node(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 * Get the value of the node
+		 *
+		 * @return A JSONObject, JSONArray or scalar value
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * Get the children, creating them the first time
+		 */
+		synchronized List<Node> getChildren() {
+			if (children != null)
+				return children;
+			children = new ArrayList<Node>();
+			if (value instanceof JSONObject) {
+				JSONObject object = (JSONObject) value;
+				Iterator<?> keys = object.keys();
+				while (keys.hasNext()) {
+					String name = (String) keys.next();
+					children.add(new Node(name, object.opt(name)));
+				}
+			} else if (value instanceof JSONArray) {
+				JSONArray array = (JSONArray) value;
+				for (int i = 0; i < array.length(); i++)
+					children.add(new Node("[" + i + "]", array.opt(i)));
+			}
+			return children;
+		}
+
+		@Override
+		public String toString() {
+			if (value instanceof JSONObject) {
+				JSONObject object = (JSONObject) value;
+				// Constellation parts say what they are, which is handier than a bare index
+				String dataType = object.optString("dataType", null);
+				return key + " {" + object.length() + "}" + (dataType != null ? " " + dataType : "");
+			}
+			if (value instanceof JSONArray)
+				return key + " [" + ((JSONArray) value).length() + "]";
+			String text = value == null || value == JSONObject.NULL ? "null"
+					: value instanceof String ? JSONObject.quote((String) value) : String.valueOf(value);
+			if (text.length() > MAX_VALUE_LENGTH)
+				text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+			return key + ": " + text;
+		}
+	}
+
+	/**
+	 * Root of the tree
+	 */
+	private final Node root;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Label of the root node
+	 * @param value JSON value to show
+	 */
+	public SNACJsonTreeModel(String name, Object value) {
+		this.root = new Node(name, value);
+	}
+
+	public Object getRoot() {
+		return root;
+	}
+
+	public Object getChild(Object parent, int index) {
+		return ((Node) parent).getChildren().get(index);
+	}
+
+	public int getChildCount(Object parent) {
+		Object value = ((Node) parent).value;
+		if (value instanceof JSONObject)
+			return ((JSONObject) value).length();
+		if (value instanceof JSONArray)
+			return ((JSONArray) value).length();
+		return 0;
+	}
+
+	public boolean isLeaf(Object node) {
+		Object value = ((Node) node).value;
+		return !(value instanceof JSONObject) && !(value instanceof JSONArray);
+	}
+
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == null || child == null)
+			return -1;
+		return ((Node) parent).getChildren().indexOf(child);
+	}
+
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		// The tree is read-only
+	}
+
+	public void addTreeModelListener(TreeModelListener l) {
+		// The tree never changes, so there is nothing to tell listeners
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) {
+	}
+}
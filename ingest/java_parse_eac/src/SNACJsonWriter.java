@@ -0,0 +1,192 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * SNAC JSON Writer
+ *
+ * Writes JSON values (constellations, typically) straight to a stream, either compact or
+ * indented, instead of building the whole text as one String first.  A large constellation
+ * then costs a small buffer rather than a String the size of the output.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACJsonWriter {
+
+	/**
+	 * Size of the character buffer in front of the file channel
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Stream to write to
+	 */
+	private final Writer out;
+
+	/**
+	 * Spaces per level, or 0 for compact output
+	 */
+	private final int indent;
+
+	/**
+	 * Constructor
+	 *
+	 * @param out Stream to write to
+	 * @param indent Spaces per level of nesting, or 0 for compact output
+	 */
+	public SNACJsonWriter(Writer out, int indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	/**
+	 * Write a value to a file as UTF-8
+	 *
+	 * @param value JSON value to write
+	 * @param path File to write (replaced if it exists)
+	 * @param indent Spaces per level of nesting, or 0 for compact output
+	 * @throws IOException
+	 * @throws JSONException If the value holds something that is not JSON
+	 */
+	public static void write(Object value, Path path, int indent) throws IOException, JSONException {
+		long start = System.nanoTime();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE),
+				BUFFER_SIZE);
+		try {
+			new SNACJsonWriter(writer, indent).write(value);
+		} finally {
+			writer.close();
+			SNACPhaseTimer.add(SNACPhaseTimer.Phase.WRITE, start);
+		}
+	}
+
+	/**
+	 * Write a value
+	 *
+	 * @param value JSON value to write
+	 * @throws IOException
+	 * @throws JSONException If the value holds something that is not JSON
+	 */
+	public void write(Object value) throws IOException, JSONException {
+		write(value, 0);
+	}
+
+	private void write(Object value, int depth) throws IOException, JSONException {
+		if (value == null || value == JSONObject.NULL) {
+			out.write("null");
+		} else if (value instanceof JSONObject) {
+			JSONObject object = (JSONObject) value;
+			out.write('{');
+			Iterator<?> keys = object.keys();
+			boolean first = true;
+			while (keys.hasNext()) {
+				String key = (String) keys.next();
+				if (!first)
+					out.write(',');
+				first = false;
+				newline(depth + 1);
+				string(key);
+				out.write(indent > 0 ? ": " : ":");
+				write(object.opt(key), depth + 1);
+			}
+			if (!first)
+				newline(depth);
+			out.write('}');
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			out.write('[');
+			for (int i = 0; i < array.length(); i++) {
+				if (i > 0)
+					out.write(',');
+				newline(depth + 1);
+				write(array.opt(i), depth + 1);
+			}
+			if (array.length() > 0)
+				newline(depth);
+			out.write(']');
+		} else if (value instanceof String) {
+			string((String) value);
+		} else if (value instanceof Number) {
+			out.write(JSONObject.numberToString((Number) value));
+		} else if (value instanceof Boolean) {
+			out.write(value.toString());
+		} else if (value instanceof JSONString) {
+			out.write(((JSONString) value).toJSONString());
+		} else {
+			out.write(JSONObject.valueToString(value));
+		}
+	}
+
+	/**
+	 * Start a new line at the given depth (nothing in compact mode)
+	 */
+	private void newline(int depth) throws IOException {
+		if (indent <= 0)
+			return;
+		out.write('\n');
+		for (int i = depth * indent; i > 0; i--)
+			out.write(' ');
+	}
+
+	/**
+	 * Write a quoted string, escaped as org.json does
+	 */
+	private void string(String s) throws IOException {
+		out.write('"');
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String escape;
+			if (c == '"')
+				escape = "\\\"";
+			else if (c == '\\')
+				escape = "\\\\";
+			else if (c == '/' && i > 0 && s.charAt(i - 1) == '<')
+				escape = "\\/";
+			else if (c == '\n')
+				escape = "\\n";
+			else if (c == '\r')
+				escape = "\\r";
+			else if (c == '\t')
+				escape = "\\t";
+			else if (c == '\b')
+				escape = "\\b";
+			else if (c == '\f')
+				escape = "\\f";
+			else if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100'))
+				escape = String.format("\\u%04x", (int) c);
+			else
+				continue;
+			out.write(s, start, i - start);
+			out.write(escape);
+			start = i + 1;
+		}
+		out.write(s, start, s.length() - start);
+		out.write('"');
+	}
+}
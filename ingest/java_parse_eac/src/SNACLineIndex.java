@@ -0,0 +1,255 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * SNAC Line Index
+ *
+ * Gives random access to the lines of a UTF-8 text file without reading it into memory.
+ * The file is memory-mapped, and indexing only records where each line starts, so a
+ * viewer can show any line at once and decodes only the lines it actually displays.
+ * Searching scans the mapped bytes without decoding them.
+ *
+ * Indexing runs once (usually on a background thread); lines can be read and searched
+ * while it runs, up to the lines indexed so far.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACLineIndex implements Closeable {
+
+	/**
+	 * Longest line returned, in characters; longer lines are cut short for display
+	 */
+	public static final int MAX_LINE_LENGTH = 4096;
+
+	/**
+	 * Listener for indexing progress
+	 */
+	public interface Listener {
+		/**
+		 * Called every so often while indexing, and once at the end
+		 *
+		 * @param lines Lines indexed so far
+		 * @param done Whether the whole file has been indexed
+		 */
+		void indexed(int lines, boolean done);
+	}
+
+	/**
+	 * The mapped file
+	 */
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int size;
+
+	/**
+	 * Start offset of each line.  The count is published after the offsets are stored, so
+	 * readers only ever see filled-in entries.
+	 */
+	private volatile int[] starts = new int[1024];
+	private volatile int count;
+	private volatile boolean done;
+	private volatile int longestLine;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file UTF-8 text file to map
+	 * @throws IOException If the file can not be mapped or is 2 GB or more
+	 */
+	public SNACLineIndex(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long length = channel.size();
+		if (length >= Integer.MAX_VALUE) {
+			channel.close();
+			throw new IOException(file + " is too large to view");
+		}
+		size = (int) length;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+
+	/**
+	 * Index the lines of the file
+	 *
+	 * @param listener Listener for progress, or null
+	 */
+	public void index(Listener listener) {
+		ByteBuffer bytes = buffer.duplicate();
+		int[] offsets = starts;
+		int lines = 0;
+		int longest = 0;
+		if (size > 0)
+			offsets[lines++] = 0;
+		count = lines;
+
+		for (int pos = 0; pos < size; pos++) {
+			if (bytes.get(pos) != '\n')
+				continue;
+			longest = Math.max(longest, pos - offsets[lines - 1]);
+			if (pos + 1 >= size)
+				break;
+			if (lines == offsets.length) {
+				offsets = Arrays.copyOf(offsets, lines * 2);
+				starts = offsets;
+			}
+			offsets[lines++] = pos + 1;
+			if ((lines & 0xFFFF) == 0) {
+				longestLine = longest;
+				count = lines;
+				if (listener != null)
+					listener.indexed(lines, false);
+			}
+		}
+		if (lines > 0)
+			longest = Math.max(longest, size - offsets[lines - 1]);
+		longestLine = longest;
+		count = lines;
+		done = true;
+		if (listener != null)
+			listener.indexed(lines, true);
+	}
+
+	/**
+	 * Get the number of lines indexed so far
+	 *
+	 * @return Number of lines
+	 */
+	public int getLineCount() {
+		return count;
+	}
+
+	/**
+	 * Has the whole file been indexed
+	 *
+	 * @return True once indexing is finished
+	 */
+	public boolean isIndexed() {
+		return done;
+	}
+
+	/**
+	 * Get the length of the longest line indexed so far
+	 *
+	 * @return Length in bytes, at most MAX_LINE_LENGTH
+	 */
+	public int getLongestLine() {
+		return Math.min(longestLine, MAX_LINE_LENGTH);
+	}
+
+	/**
+	 * Get a line
+	 *
+	 * @param line Line number, from 0
+	 * @return The line without its line break, cut short after MAX_LINE_LENGTH characters
+	 */
+	public String getLine(int line) {
+		int start = starts[line];
+		int end = end(line);
+		if (end > start && buffer.get(end - 1) == '\r')
+			end--;
+		int length = Math.min(end - start, MAX_LINE_LENGTH * 4);
+		// Cut at a character boundary: never before a UTF-8 continuation byte (10xxxxxx)
+		while (length > 0 && length < end - start && (buffer.get(start + length) & 0xC0) == 0x80)
+			length--;
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(start);
+		view.get(bytes);
+		String text = new String(bytes, StandardCharsets.UTF_8);
+		return text.length() > MAX_LINE_LENGTH ? text.substring(0, MAX_LINE_LENGTH) + "..." : text;
+	}
+
+	/**
+	 * Find the next line containing some text
+	 *
+	 * Ignoring case only applies to ASCII letters.
+	 *
+	 * @param text Text to look for
+	 * @param fromLine First line to look at
+	 * @param ignoreCase Whether to ignore the case of ASCII letters
+	 * @return The line number, or -1 if no indexed line from fromLine on contains the text
+	 */
+	public int find(String text, int fromLine, boolean ignoreCase) {
+		byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+		int lines = count;
+		if (needle.length == 0 || fromLine >= lines)
+			return -1;
+		if (ignoreCase)
+			for (int i = 0; i < needle.length; i++)
+				needle[i] = lower(needle[i]);
+
+		ByteBuffer bytes = buffer.duplicate();
+		int limit = end(lines - 1) - needle.length;
+		byte first = needle[0];
+		for (int pos = starts[fromLine]; pos <= limit; pos++) {
+			byte b = bytes.get(pos);
+			if ((ignoreCase ? lower(b) : b) != first)
+				continue;
+			int i = 1;
+			while (i < needle.length) {
+				byte c = bytes.get(pos + i);
+				if ((ignoreCase ? lower(c) : c) != needle[i])
+					break;
+				i++;
+			}
+			if (i == needle.length)
+				return lineOf(pos, lines);
+		}
+		return -1;
+	}
+
+	/**
+	 * Release the file
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Get the end offset of a line (its line break, or the end of the file)
+	 */
+	private int end(int line) {
+		if (line + 1 < count)
+			return starts[line + 1] - 1;
+		int end = size;
+		if (!done) {
+			// Only the lines known so far: stop at the next line break
+			end = starts[line];
+			while (end < size && buffer.get(end) != '\n')
+				end++;
+		} else if (end > starts[line] && buffer.get(end - 1) == '\n') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Get the line holding an offset
+	 */
+	private int lineOf(int offset, int lines) {
+		int line = Arrays.binarySearch(starts, 0, lines, offset);
+		return line >= 0 ? line : -line - 2;
+	}
+
+	private static byte lower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+}
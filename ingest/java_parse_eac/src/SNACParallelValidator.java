@@ -0,0 +1,204 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+/**
+ * SNAC Parallel Validator
+ *
+ * Validates one document on several cores at once.  Schematron patterns are independent of
+ * each other, so the patterns of a profile are split into groups, each compiled into its
+ * own profile, and the groups are run at the same time over the same parsed document (Saxon
+ * trees are read-only and safe to share between threads).  The failures of each group are
+ * put back in profile order, so the result is the same as validating with the whole
+ * profile.
+ *
+ * Groups are balanced by an estimate of their cost: one unit per rule and assertion, with
+ * rules that match every element ("*") counting as much as all the named rules together.
+ * Use SNACSchematronProfiler to see the real costs of a profile.
+ *
+ * This pays off for large single records; a batch of documents already keeps every core
+ * busy with one document per thread.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACParallelValidator {
+
+	/**
+	 * Threads for running groups, shared by all validators.  Daemon threads, so an idle
+	 * pool does not keep the utility running.
+	 */
+	private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "schematron-group");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The group profiles, and the profile patterns each one holds
+	 */
+	private final List<SNACSchematronProfile> groups = new ArrayList<SNACSchematronProfile>();
+	private final List<List<Integer>> groupPatterns = new ArrayList<List<Integer>>();
+	private final int patternCount;
+	private final int requestedGroups;
+
+	/**
+	 * Constructor
+	 *
+	 * @param profile Profile to split up
+	 * @param groupCount Number of groups to split the patterns into
+	 * @throws IOException If a group can not be compiled
+	 */
+	public SNACParallelValidator(SNACSchematronProfile profile, int groupCount) throws IOException {
+		this.requestedGroups = groupCount;
+		SNACSchematronModel model = profile.getModel();
+		List<SNACSchematronModel.Pattern> patterns = model.getPatterns();
+		patternCount = patterns.size();
+		groupCount = Math.max(1, Math.min(groupCount, patternCount));
+
+		int namedRules = 0;
+		for (SNACSchematronModel.Pattern pattern : patterns)
+			for (SNACSchematronModel.Rule rule : pattern.rules)
+				if (!rule.context.trim().equals("*"))
+					namedRules++;
+		long[] weights = new long[patternCount];
+		for (int p = 0; p < patternCount; p++) {
+			for (SNACSchematronModel.Rule rule : patterns.get(p).rules) {
+				long weight = 1 + rule.assertions.size();
+				weights[p] += rule.context.trim().equals("*") ? weight * Math.max(1, namedRules) : weight;
+			}
+		}
+
+		// Heaviest pattern first, each into the lightest group so far
+		List<Integer> order = new ArrayList<Integer>();
+		for (int p = 0; p < patternCount; p++)
+			order.add(p);
+		final long[] w = weights;
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(w[b], w[a]);
+			}
+		});
+		long[] load = new long[groupCount];
+		List<List<Integer>> assigned = new ArrayList<List<Integer>>();
+		for (int g = 0; g < groupCount; g++)
+			assigned.add(new ArrayList<Integer>());
+		for (int p : order) {
+			int lightest = 0;
+			for (int g = 1; g < groupCount; g++)
+				if (load[g] < load[lightest])
+					lightest = g;
+			load[lightest] += weights[p];
+			assigned.get(lightest).add(p);
+		}
+
+		String baseName = new File(profile.getName()).getName().replaceAll("\\.sch$", "");
+		for (int g = 0; g < groupCount; g++) {
+			List<Integer> members = assigned.get(g);
+			if (members.isEmpty())
+				continue;
+			Collections.sort(members);
+			groupPatterns.add(members);
+			groups.add(SNACSchematronProfile.compile(baseName + "-group" + (g + 1) + "of" + groupCount + ".sch",
+					model.getProfile(members)));
+		}
+	}
+
+	/**
+	 * Get the number of groups
+	 *
+	 * @return Number of groups the patterns were split into
+	 */
+	public int getGroupCount() {
+		return groups.size();
+	}
+
+	/**
+	 * Get the number of groups asked for
+	 *
+	 * @return The group count this validator was created with
+	 */
+	public int getRequestedGroups() {
+		return requestedGroups;
+	}
+
+	/**
+	 * Validate a document
+	 *
+	 * Runs the first group on the calling thread and the rest on the shared pool.
+	 *
+	 * @param file Name of the document, used in the result
+	 * @param document Parsed document
+	 * @return The validation result
+	 * @throws SaxonApiException
+	 */
+	public SNACValidationResult validate(String file, final XdmNode document) throws SaxonApiException {
+		List<Future<List<List<SNACValidationFailure>>>> futures = new ArrayList<Future<List<List<SNACValidationFailure>>>>();
+		for (int g = 1; g < groups.size(); g++) {
+			final SNACSchematronProfile group = groups.get(g);
+			futures.add(pool.submit(new Callable<List<List<SNACValidationFailure>>>() {
+				public List<List<SNACValidationFailure>> call() throws Exception {
+					return SNACValidationResult.readSVRL(group.applyToSVRL(document));
+				}
+			}));
+		}
+
+		List<List<List<SNACValidationFailure>>> results = new ArrayList<List<List<SNACValidationFailure>>>();
+		try {
+			results.add(SNACValidationResult.readSVRL(groups.get(0).applyToSVRL(document)));
+			for (Future<List<List<SNACValidationFailure>>> future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SaxonApiException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SaxonApiException)
+				throw (SaxonApiException) e.getCause();
+			throw new SaxonApiException(e.getCause());
+		} finally {
+			for (Future<List<List<SNACValidationFailure>>> future : futures)
+				future.cancel(true);
+		}
+
+		// Put each group's failures back under their pattern, then read them out in profile order
+		List<List<SNACValidationFailure>> byPattern = new ArrayList<List<SNACValidationFailure>>();
+		for (int p = 0; p < patternCount; p++)
+			byPattern.add(null);
+		for (int g = 0; g < results.size(); g++) {
+			List<List<SNACValidationFailure>> groupResult = results.get(g);
+			List<Integer> members = groupPatterns.get(g);
+			for (int i = 0; i < groupResult.size() && i < members.size(); i++)
+				byPattern.set(members.get(i), groupResult.get(i));
+		}
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>();
+		for (List<SNACValidationFailure> pattern : byPattern)
+			if (pattern != null)
+				failures.addAll(pattern);
+		return new SNACValidationResult(file, failures);
+	}
+}
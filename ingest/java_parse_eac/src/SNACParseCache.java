@@ -0,0 +1,293 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Parse Cache
+ *
+ * Remembers SNAC's parse_eac responses on disk, keyed by the SHA-256 hash of the file
+ * contents and the endpoint, so parsing a file again (after a restart, to regenerate the
+ * JSON, or after a second click) is a local lookup instead of an upload and a server-side
+ * parse.  Only successful responses are kept: the constellation, result and unparsed
+ * fields.
+ *
+ * Entries live under the "parse" cache directory, one directory per endpoint, sharded by
+ * the first two characters of the hash.  A hit touches the entry, and when the cache grows
+ * past its size limit (-Dsnac.parse.cache.size, in MB) the least recently used entries are
+ * removed.  The limit is on the whole cache, whatever endpoints its entries are for, so
+ * parsing against several endpoints (or changing snac.url) does not multiply it.  -Dsnac.parse.cache=false bypasses the cache; "refresh" parses every file again
+ * and replaces the stored responses.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACParseCache implements SNACConstellationParser {
+
+	private static final Logger logger = Logger.getLogger(SNACParseCache.class.getName());
+
+	/**
+	 * How the cache is used
+	 */
+	public enum Mode {
+		ON, OFF, REFRESH
+	}
+
+	/**
+	 * Fields of the response that are stored
+	 */
+	private static final String[] FIELDS = { "constellation", "result", "unparsed" };
+
+	/**
+	 * Parser for cache misses
+	 */
+	private final SNACConstellationParser parser;
+
+	/**
+	 * Cache directory, and the directory for the endpoint in it, or null if the cache is
+	 * bypassed
+	 */
+	private final File root;
+	private final File directory;
+	private final Mode mode;
+	private final long maxBytes;
+
+	/**
+	 * Bytes stored in the cache by all endpoints, or -1 until it has been measured.  Shared
+	 * by the caches of this process, and guarded by the class.
+	 */
+	private static long storedBytes = -1;
+
+	/**
+	 * Counters for summaries
+	 */
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * Uses the mode and size limit from SNACIngestSettings.
+	 *
+	 * @param parser Parser for files that are not in the cache
+	 * @param endpoint Endpoint the parser sends files to, part of the key
+	 */
+	public SNACParseCache(SNACConstellationParser parser, String endpoint) {
+		this(parser, endpoint, SNACIngestSettings.getParseCacheMode(), SNACIngestSettings.getParseCacheSize());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param parser Parser for files that are not in the cache
+	 * @param endpoint Endpoint the parser sends files to, part of the key
+	 * @param mode How to use the cache
+	 * @param maxBytes Size the cache is kept under
+	 */
+	public SNACParseCache(SNACConstellationParser parser, String endpoint, Mode mode, long maxBytes) {
+		this.parser = parser;
+		this.mode = mode;
+		this.maxBytes = maxBytes;
+		this.root = mode == Mode.OFF ? null : SNACIngestSettings.getCacheDirectory("parse");
+		this.directory = root == null ? null
+				: new File(root, SNACSchematronProfile.hash(endpoint.getBytes(StandardCharsets.UTF_8)).substring(0, 16));
+	}
+
+	/**
+	 * Parse a file, using the stored response if the file has been parsed before
+	 *
+	 * @param xmlPath File to parse
+	 * @param listener Listener for upload progress, or null
+	 * @return The parse_eac response (with constellation, result and unparsed fields)
+	 * @throws IOException If SNAC could not be reached or refused the file
+	 * @throws JSONException If SNAC did not answer with JSON
+	 */
+	public JSONObject parse(Path xmlPath, SNACParseClient.UploadListener listener) throws IOException, JSONException {
+		if (directory == null)
+			return parser.parse(xmlPath, listener);
+
+		String contentHash = SNACValidationCache.hashFile(xmlPath.toFile());
+		File entry = new File(new File(directory, contentHash.substring(0, 2)), contentHash + ".json");
+		if (mode == Mode.ON) {
+			JSONObject cached = read(entry);
+			if (cached != null) {
+				hits.incrementAndGet();
+				if (listener != null) {
+					long size = Files.size(xmlPath);
+					listener.uploaded(size, size);
+				}
+				return cached;
+			}
+		}
+
+		misses.incrementAndGet();
+		JSONObject response = parser.parse(xmlPath, listener);
+		if ("success".equals(response.optString("result")) && response.has("constellation"))
+			write(entry, response);
+		return response;
+	}
+
+	/**
+	 * Get the parser used for misses
+	 *
+	 * @return The parser this cache is in front of
+	 */
+	public SNACConstellationParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * Get the number of responses served from the cache
+	 *
+	 * @return Cache hits
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of files that had to be parsed
+	 *
+	 * @return Cache misses
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Read an entry
+	 *
+	 * @return The stored response, or null if there is none
+	 */
+	private JSONObject read(File entry) {
+		if (!entry.isFile())
+			return null;
+		try {
+			JSONObject response = new JSONObject(new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8));
+			// Mark the entry as recently used for eviction
+			entry.setLastModified(System.currentTimeMillis());
+			return response;
+		} catch (IOException | JSONException e) {
+			logger.warning("Ignoring damaged parse cache entry " + entry + ": " + e.getMessage());
+			entry.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store a response
+	 *
+	 * Failing to store only costs a future parse, so errors are logged and ignored.
+	 */
+	private void write(File entry, JSONObject response) {
+		try {
+			JSONObject stored = new JSONObject();
+			for (String field : FIELDS)
+				stored.putOpt(field, response.opt(field));
+			byte[] contents = stored.toString().getBytes(StandardCharsets.UTF_8);
+
+			entry.getParentFile().mkdirs();
+			long replaced = entry.length();
+			SNACSchematronProfile.writeAtomically(entry, contents);
+			grown(contents.length - replaced);
+		} catch (IOException | JSONException e) {
+			logger.warning("Could not store parse result in " + entry + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Account for a stored entry, evicting the least recently used entries of any endpoint if
+	 * the cache is over its limit
+	 */
+	private void grown(long bytes) {
+		synchronized (SNACParseCache.class) {
+			evict(bytes);
+		}
+	}
+
+	private void evict(long bytes) {
+		if (storedBytes < 0) {
+			storedBytes = 0;
+			for (File entry : entries())
+				storedBytes += entry.length();
+		} else {
+			storedBytes += bytes;
+		}
+		if (storedBytes <= maxBytes)
+			return;
+
+		// Other processes may share the cache, so look at what is actually there
+		List<File> entries = entries();
+		final Map<File, Long> lastUsed = new HashMap<File, Long>();
+		storedBytes = 0;
+		for (File entry : entries) {
+			storedBytes += entry.length();
+			lastUsed.put(entry, entry.lastModified());
+		}
+		Collections.sort(entries, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(lastUsed.get(a), lastUsed.get(b));
+			}
+		});
+		// Evict down to 90% so that eviction does not run on every store
+		long target = maxBytes - maxBytes / 10;
+		int evicted = 0;
+		for (File entry : entries) {
+			if (storedBytes <= target)
+				break;
+			long length = entry.length();
+			if (entry.delete()) {
+				storedBytes -= length;
+				evicted++;
+			}
+		}
+		logger.info("Evicted " + evicted + " parse cache entries, " + storedBytes + " bytes left");
+	}
+
+	/**
+	 * List the entries of every endpoint
+	 */
+	private List<File> entries() {
+		List<File> entries = new ArrayList<File>();
+		File[] endpoints = root.listFiles();
+		if (endpoints == null)
+			return entries;
+		for (File endpoint : endpoints) {
+			File[] shards = endpoint.listFiles();
+			if (shards == null)
+				continue;
+			for (File shard : shards) {
+				File[] files = shard.listFiles();
+				if (files == null)
+					continue;
+				for (File file : files)
+					if (file.getName().endsWith(".json"))
+						entries.add(file);
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Parse Client
+ *
+ * Sends EAC-CPF files to SNAC's parse_eac command and returns the JSON response.  The
+ * request body is streamed: the JSON envelope, then the file bytes piped through a Base64
+ * encoder straight into the connection, then the end of the envelope.
+ *
+ * Two optional stages shrink the upload: with -Dsnac.upload.minify=true the XML is minified
+ * on the way in (see SNACXmlMinifier), and with -Dsnac.upload.gzip=true the request body is
+ * sent gzip-compressed (only for endpoints that accept Content-Encoding: gzip).  The original
+ * and transmitted size of each file is logged, and totals are kept for summaries.
+ *
+ * Connections, timeouts, response compression and request metrics are handled by the
+ * shared SNACClient.
+ *
+ * SNACEacConverter produces the same response locally; this client is then only needed to
+ * check the local conversion against SNAC (see SNACParseVerifier).
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACParseClient implements SNACConstellationParser {
+
+	private static final Logger logger = Logger.getLogger(SNACParseClient.class.getName());
+
+	/**
+	 * Default parse endpoint
+	 */
+	public static final String DEFAULT_URL = "http://snac-dev.iath.virginia.edu/alpha/rest/";
+
+	/**
+	 * Size of the chunks (and write buffer) used when streaming the request to SNAC
+	 */
+	private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * JSON envelope written around the Base64-encoded file contents
+	 */
+	private static final String QUERY_PREFIX = "{" +
+			"\"command\" : \"parse_eac\"," +
+			"\"file\" : { " +
+				"\"mime-type\" : \"text/xml\"," +
+				"\"content\" : \"";
+	private static final String QUERY_SUFFIX = "\"" +
+				"}" +
+			"}";
+
+	/**
+	 * Listener for upload progress
+	 */
+	public interface UploadListener {
+		/**
+		 * Called after each chunk of the file is sent
+		 *
+		 * @param sent Bytes of the file sent so far
+		 * @param total Size of the file
+		 */
+		void uploaded(long sent, long total);
+	}
+
+	/**
+	 * Client of the endpoint, which sets up and counts the requests
+	 */
+	private final SNACClient client;
+
+	/**
+	 * Upload stages
+	 */
+	private final boolean minify;
+	private final boolean gzip;
+
+	/**
+	 * Totals of file sizes on disk and of request bodies sent
+	 */
+	private final AtomicLong originalBytes = new AtomicLong();
+	private final AtomicLong transmittedBytes = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * Minifies and compresses uploads as set in SNACIngestSettings.
+	 *
+	 * @param url SNAC REST endpoint
+	 */
+	public SNACParseClient(String url) {
+		this(url, SNACIngestSettings.isUploadMinified(), SNACIngestSettings.isUploadCompressed());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param url SNAC REST endpoint
+	 * @param minify Whether to minify the XML before sending it
+	 * @param gzip Whether to gzip the request body
+	 */
+	public SNACParseClient(String url, boolean minify, boolean gzip) {
+		this.client = SNACClient.get(url);
+		this.minify = minify;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Get the endpoint
+	 *
+	 * @return The SNAC REST endpoint
+	 */
+	public String getURL() {
+		return client.getEndpoint();
+	}
+
+	/**
+	 * Get the total size of the files sent
+	 *
+	 * @return Bytes of the files as they are on disk
+	 */
+	public long getOriginalBytes() {
+		return originalBytes.get();
+	}
+
+	/**
+	 * Get the total size of the requests sent
+	 *
+	 * @return Bytes of the request bodies as transmitted
+	 */
+	public long getTransmittedBytes() {
+		return transmittedBytes.get();
+	}
+
+	/**
+	 * Parse an EAC-CPF file with SNAC
+	 *
+	 * @param xmlPath File to parse
+	 * @param listener Listener for upload progress, or null
+	 * @return The response from SNAC (with constellation, result and unparsed fields)
+	 * @throws IOException If SNAC could not be reached or refused the file
+	 * @throws JSONException If SNAC did not answer with JSON
+	 */
+	public JSONObject parse(Path xmlPath, UploadListener listener) throws IOException, JSONException {
+		long phaseStart = System.nanoTime();
+		SNACClient.Request request = client.open("parse_eac");
+		try {
+			HttpURLConnection httpcon = request.getConnection();
+			httpcon.setChunkedStreamingMode(UPLOAD_CHUNK_SIZE);
+			if (gzip)
+				httpcon.setRequestProperty("Content-Encoding", "gzip");
+			OutputStream connection = request.getOutputStream();
+			SNACPhaseTimer.end(SNACPhaseTimer.Phase.CONNECT, phaseStart);
+
+			// Write the query to the RestAPI, counting (and timing) what actually goes over the wire
+			final long[] transmitted = new long[1];
+			OutputStream os = new FilterOutputStream(connection) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					long start = System.nanoTime();
+					out.write(b, off, len);
+					SNACPhaseTimer.add(SNACPhaseTimer.Phase.UPLOAD, start);
+					transmitted[0] += len;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					long start = System.nanoTime();
+					out.flush();
+					SNACPhaseTimer.add(SNACPhaseTimer.Phase.UPLOAD, start);
+				}
+			};
+			if (gzip)
+				os = new GZIPOutputStream(os, UPLOAD_CHUNK_SIZE);
+			os = new BufferedOutputStream(os, UPLOAD_CHUNK_SIZE);
+			writeParseRequest(xmlPath, minify, listener, os);
+			os.close();
+			SNACPhaseTimer.ended(SNACPhaseTimer.Phase.READ, SNACPhaseTimer.Phase.ENCODE, SNACPhaseTimer.Phase.UPLOAD);
+
+			long original = Files.size(xmlPath);
+			originalBytes.addAndGet(original);
+			transmittedBytes.addAndGet(transmitted[0]);
+			logger.info(String.format("Sent %s: %d bytes as %d (%.0f%%)", xmlPath.getFileName(), original,
+					transmitted[0], original == 0 ? 100.0 : (transmitted[0] * 100.0) / original));
+
+			// Server processing lasts until the response starts to arrive
+			phaseStart = System.nanoTime();
+			InputStream in = new BufferedInputStream(request.getInputStream());
+			String resultStr;
+			try {
+				in.mark(1);
+				in.read();
+				in.reset();
+				SNACPhaseTimer.end(SNACPhaseTimer.Phase.SERVER, phaseStart);
+
+				// Read the response from the RestAPI
+				phaseStart = System.nanoTime();
+				resultStr = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
+				SNACPhaseTimer.end(SNACPhaseTimer.Phase.DOWNLOAD, phaseStart);
+			} finally {
+				in.close();
+			}
+			phaseStart = System.nanoTime();
+			JSONObject result = new JSONObject(resultStr);
+			SNACPhaseTimer.end(SNACPhaseTimer.Phase.JSON_PARSE, phaseStart);
+			return result;
+		} finally {
+			request.close();
+		}
+	}
+
+	/**
+	 * Write Parse Request
+	 *
+	 * Writes the parse_eac JSON query for the given file to the output stream.  The file
+	 * bytes are piped through a Base64 encoder straight into the stream, so memory use does
+	 * not depend on the size of the file.  Unless minified, the bytes are sent exactly as they
+	 * are on disk; SNAC decodes them using the encoding declared by the XML itself.
+	 *
+	 * @param xmlPath XML file to send
+	 * @param minify Whether to minify the XML on the way (see SNACXmlMinifier)
+	 * @param listener Listener for upload progress, or null
+	 * @param os Stream to write the query to (left open)
+	 * @throws IOException
+	 */
+	static void writeParseRequest(Path xmlPath, boolean minify, final UploadListener listener, OutputStream os)
+			throws IOException {
+		final long xmlSize = Files.size(xmlPath);
+		final SNACPhaseTimer timer = SNACPhaseTimer.current();
+		long uploadBefore = timer == null ? 0 : timer.getNanos(SNACPhaseTimer.Phase.UPLOAD);
+		long encodeStart = System.nanoTime();
+		os.write(QUERY_PREFIX.getBytes(StandardCharsets.UTF_8));
+
+		// Closing the encoder writes out the final Base64 padding, but must not close the connection
+		OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(os) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+
+		// Progress is reported as the file is read, whether or not it is minified on the way
+		final long[] readNanos = new long[1];
+		InputStream in = new FilterInputStream(Files.newInputStream(xmlPath)) {
+			private long sent;
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				long start = System.nanoTime();
+				int read = in.read(b, off, len);
+				long elapsed = System.nanoTime() - start;
+				readNanos[0] += elapsed;
+				if (timer != null)
+					timer.addNanos(SNACPhaseTimer.Phase.READ, elapsed);
+				if (read > 0) {
+					sent += read;
+					if (listener != null)
+						listener.uploaded(sent, xmlSize);
+				}
+				return read;
+			}
+		};
+		try {
+			if (minify) {
+				SNACXmlMinifier.minify(new BufferedInputStream(in, UPLOAD_CHUNK_SIZE), encoder);
+			} else {
+				byte[] buffer = new byte[UPLOAD_CHUNK_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					encoder.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		encoder.close();
+
+		os.write(QUERY_SUFFIX.getBytes(StandardCharsets.UTF_8));
+
+		// Encoding (and minifying and compressing) is whatever was not spent reading or sending
+		if (timer != null) {
+			long sending = timer.getNanos(SNACPhaseTimer.Phase.UPLOAD) - uploadBefore;
+			timer.addNanos(SNACPhaseTimer.Phase.ENCODE,
+					Math.max(0, System.nanoTime() - encodeStart - readNanos[0] - sending));
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Parse Verifier
+ *
+ * Converts EAC-CPF files both locally (SNACEacConverter) and with SNAC's parse_eac command
+ * (SNACParseClient) and prints every difference between the two constellations.  Fields
+ * only SNAC can fill in are ignored: database ids and versions, vocabulary ids, and SNAC's
+ * control metadata.  Vocabulary terms are compared by term alone.
+ *
+ * Usage: SNACParseVerifier [-url endpoint] input...
+ *
+ * Exits with 0 if every file converts the same both ways.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACParseVerifier {
+
+	/**
+	 * Keys that only SNAC can fill in
+	 */
+	private static final String[] IGNORED = {
+		"id", "version", "snacControlMetadata", "sourceConstellation", "targetConstellation", "displayName"
+	};
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String url = SNACClient.getURL(SNACParseClient.DEFAULT_URL);
+		int i = 0;
+		if (args.length > 1 && args[0].equals("-url")) {
+			url = args[1];
+			i = 2;
+		}
+		if (i >= args.length) {
+			System.err.println("Compare local EAC-CPF conversion with SNAC's parse_eac\n" +
+					"Usage: SNACParseVerifier [-url endpoint] input...\n\n" +
+					"Inputs may be XML files or directories (searched recursively for .xml files).");
+			System.exit(2);
+		}
+
+		List<File> files = new ArrayList<File>();
+		for (; i < args.length; i++)
+			SNACBatchValidator.collect(new File(args[i]), files);
+
+		SNACEacConverter local = new SNACEacConverter();
+		SNACParseClient remote = new SNACParseClient(url);
+		int differing = 0;
+		for (File file : files) {
+			List<String> differences;
+			try {
+				differences = compare(local.parse(file.toPath(), null), remote.parse(file.toPath(), null));
+			} catch (IOException | JSONException e) {
+				System.out.println(file + ": could not be converted: " + e.getMessage());
+				differing++;
+				continue;
+			}
+			for (String difference : differences)
+				System.out.println(file + ": " + difference);
+			if (!differences.isEmpty())
+				differing++;
+		}
+		System.err.println(String.format("%d of %d files convert differently", differing, files.size()));
+		System.exit(differing == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Compare a local and a remote parse_eac response
+	 *
+	 * @param local Response from SNACEacConverter
+	 * @param remote Response from SNAC
+	 * @return One line per difference, empty if they match
+	 * @throws JSONException
+	 */
+	public static List<String> compare(JSONObject local, JSONObject remote) throws JSONException {
+		List<String> differences = new ArrayList<String>();
+		compare("constellation", local.opt("constellation"), remote.opt("constellation"), differences);
+		JSONArray localUnparsed = local.optJSONArray("unparsed");
+		JSONArray remoteUnparsed = remote.optJSONArray("unparsed");
+		int localCount = localUnparsed == null ? 0 : localUnparsed.length();
+		int remoteCount = remoteUnparsed == null ? 0 : remoteUnparsed.length();
+		if (localCount != remoteCount)
+			differences.add("unparsed: " + localCount + " locally, " + remoteCount + " by SNAC");
+		return differences;
+	}
+
+	/**
+	 * Compare two JSON values
+	 */
+	private static void compare(String path, Object local, Object remote, List<String> differences)
+			throws JSONException {
+		if (local == JSONObject.NULL)
+			local = null;
+		if (remote == JSONObject.NULL)
+			remote = null;
+
+		if (local instanceof JSONObject && remote instanceof JSONObject) {
+			JSONObject l = (JSONObject) local;
+			JSONObject r = (JSONObject) remote;
+			// Vocabulary terms: SNAC adds ids and descriptions, only the term itself must match
+			if (l.has("term") && l.opt("term") instanceof String && l.has("type")) {
+				compare(path + "/term", l.opt("term"), r.opt("term"), differences);
+				return;
+			}
+			TreeSet<String> keys = new TreeSet<String>();
+			addKeys(l, keys);
+			addKeys(r, keys);
+			for (String key : keys)
+				compare(path + "/" + key, l.opt(key), r.opt(key), differences);
+		} else if (local instanceof JSONArray && remote instanceof JSONArray) {
+			JSONArray l = (JSONArray) local;
+			JSONArray r = (JSONArray) remote;
+			if (l.length() != r.length())
+				differences.add(path + ": " + l.length() + " entries locally, " + r.length() + " by SNAC");
+			for (int i = 0; i < Math.min(l.length(), r.length()); i++)
+				compare(path + "[" + i + "]", l.opt(i), r.opt(i), differences);
+		} else if (local == null || remote == null) {
+			if (local != null || remote != null)
+				differences.add(path + ": " + (local == null ? "only from SNAC" : "only local"));
+		} else if (!String.valueOf(local).equals(String.valueOf(remote))) {
+			// Numbers and strings are interchangeable in SNAC's JSON
+			differences.add(path + ": local " + JSONObject.quote(String.valueOf(local)) +
+					", SNAC " + JSONObject.quote(String.valueOf(remote)));
+		}
+	}
+
+	/**
+	 * Add the keys of an object that are compared
+	 */
+	private static void addKeys(JSONObject object, TreeSet<String> keys) {
+		Iterator<?> it = object.keys();
+		while (it.hasNext())
+			keys.add((String) it.next());
+		for (String ignored : IGNORED)
+			keys.remove(ignored);
+	}
+}
@@ -0,0 +1,448 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SNAC Phase Timer
+ *
+ * Measures where the time goes while a file is validated, sent to SNAC and written out.
+ * A timer is started for each file on the thread that handles it; the code doing the work
+ * (SNACParseClient, SNACSchematronProfile, SNACJsonWriter, ...) adds the time it spends to
+ * the current thread's timer, so nothing has to be passed through the parser interfaces.
+ * Without a timer on the thread the measurements are simply dropped.
+ *
+ * When a file is finished its phase times go into one histogram per phase for the whole
+ * JVM.  The summary (printSummary) gives count, total and percentiles per phase and the
+ * share of time spent on disk, CPU and network, which shows what a batch is bound by.  The
+ * same measurements drive progress bars: each phase is expected to take as long as it did
+ * for earlier files (scaled by file size), and progress is the expected time covered so far.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACPhaseTimer {
+
+	/**
+	 * What a phase mostly waits on
+	 */
+	public enum Resource { DISK, CPU, NETWORK }
+
+	/**
+	 * Phases of ingest
+	 *
+	 * Phases whose time grows with the file have a default rate (nanoseconds per byte);
+	 * the others have a default duration.  The defaults are only used until the phase has
+	 * been measured.
+	 */
+	public enum Phase {
+		READ("file read", Resource.DISK, 0, 5),
+		ENCODE("encode", Resource.CPU, 0, 10),
+		CONNECT("connect", Resource.NETWORK, 50, 0),
+		UPLOAD("upload", Resource.NETWORK, 0, 100),
+		SERVER("server processing", Resource.NETWORK, 500, 0),
+		DOWNLOAD("download", Resource.NETWORK, 0, 100),
+		JSON_PARSE("JSON parse", Resource.CPU, 0, 20),
+		WRITE("write", Resource.DISK, 0, 10),
+		COMPILE("Schematron compile", Resource.CPU, 2000, 0),
+		TRANSFORM("transform", Resource.CPU, 0, 200);
+
+		private final String label;
+		private final Resource resource;
+		private final long defaultMillis;
+		private final long defaultNanosPerByte;
+
+		Phase(String label, Resource resource, long defaultMillis, long defaultNanosPerByte) {
+			this.label = label;
+			this.resource = resource;
+			this.defaultMillis = defaultMillis;
+			this.defaultNanosPerByte = defaultNanosPerByte;
+		}
+
+		/**
+		 * Get the name of the phase for summaries
+		 *
+		 * @return The label
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * Get what the phase mostly waits on
+		 *
+		 * @return The resource
+		 */
+		public Resource getResource() {
+			return resource;
+		}
+
+		private boolean perByte() {
+			return defaultNanosPerByte > 0;
+		}
+	}
+
+	/**
+	 * Phases of validating a file
+	 */
+	public static final Phase[] VALIDATE = { Phase.COMPILE, Phase.READ, Phase.TRANSFORM, Phase.WRITE };
+
+	/**
+	 * Phases of sending a file to SNAC and writing the constellation
+	 */
+	public static final Phase[] PARSE = { Phase.READ, Phase.ENCODE, Phase.CONNECT, Phase.UPLOAD, Phase.SERVER,
+			Phase.DOWNLOAD, Phase.JSON_PARSE, Phase.WRITE };
+
+	/**
+	 * Phases of converting a file locally and writing the constellation
+	 */
+	public static final Phase[] CONVERT = { Phase.READ, Phase.TRANSFORM, Phase.WRITE };
+
+	/**
+	 * Combine plans
+	 *
+	 * @param plans Phases of each step of the work
+	 * @return Every phase of the steps, once each
+	 */
+	public static Phase[] plan(Phase[]... plans) {
+		EnumSet<Phase> phases = EnumSet.noneOf(Phase.class);
+		for (Phase[] plan : plans)
+			for (Phase phase : plan)
+				phases.add(phase);
+		return phases.toArray(new Phase[phases.size()]);
+	}
+
+	/**
+	 * Histogram of phase durations
+	 *
+	 * Durations are counted in logarithmic buckets, four per power of two microseconds, so
+	 * percentiles are within about 20% and recording never locks.
+	 */
+	public static class Histogram {
+		private static final int SUB_BUCKETS = 4;
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		/**
+		 * Bytes of the files measured, for the per-byte rate
+		 */
+		private final AtomicLong totalBytes = new AtomicLong();
+
+		void record(long nanos, long bytes) {
+			buckets.incrementAndGet(bucket(nanos / 1000));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			totalBytes.addAndGet(bytes);
+			long max;
+			while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos))
+				;
+		}
+
+		/**
+		 * Get the number of measurements
+		 *
+		 * @return Times the phase was measured
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Get the total time measured
+		 *
+		 * @return Nanoseconds
+		 */
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		/**
+		 * Get the longest time measured
+		 *
+		 * @return Nanoseconds
+		 */
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		/**
+		 * Get a percentile
+		 *
+		 * @param percent Percentile, from 0 to 100
+		 * @return Upper bound of the bucket holding the percentile, in nanoseconds
+		 */
+		public long getPercentile(double percent) {
+			long n = count.get();
+			if (n == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(n * percent / 100));
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank)
+					return Math.min(upperBound(i) * 1000, maxNanos.get());
+			}
+			return maxNanos.get();
+		}
+
+		/**
+		 * Get the expected time of the phase for a file
+		 *
+		 * @param phase The phase this histogram is for
+		 * @param bytes Size of the file
+		 * @return Nanoseconds
+		 */
+		long expected(Phase phase, long bytes) {
+			long n = count.get();
+			if (phase.perByte()) {
+				long measuredBytes = totalBytes.get();
+				if (n > 0 && measuredBytes > 0)
+					return (long) (totalNanos.get() * ((double) bytes / measuredBytes));
+				return phase.defaultNanosPerByte * bytes;
+			}
+			return n > 0 ? totalNanos.get() / n : phase.defaultMillis * 1000000;
+		}
+
+		private static int bucket(long micros) {
+			if (micros < SUB_BUCKETS)
+				return (int) Math.max(micros, 0);
+			int exponent = 63 - Long.numberOfLeadingZeros(micros);
+			int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+			return (exponent - 1) * SUB_BUCKETS + sub;
+		}
+
+		private static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket + 1;
+			int exponent = bucket / SUB_BUCKETS + 1;
+			int sub = bucket % SUB_BUCKETS;
+			return (long) (SUB_BUCKETS + sub + 1) << (exponent - 2);
+		}
+	}
+
+	/**
+	 * Histograms of the whole JVM
+	 */
+	private static final Map<Phase, Histogram> histograms = new EnumMap<Phase, Histogram>(Phase.class);
+	static {
+		for (Phase phase : Phase.values())
+			histograms.put(phase, new Histogram());
+	}
+
+	/**
+	 * Timer of the file each thread is working on
+	 */
+	private static final ThreadLocal<SNACPhaseTimer> current = new ThreadLocal<SNACPhaseTimer>();
+
+	/**
+	 * Size of the file, for the per-byte phases
+	 */
+	private final long bytes;
+
+	/**
+	 * Time spent in each phase, and the phases that are over
+	 */
+	private final long[] nanos = new long[Phase.values().length];
+	private final EnumSet<Phase> finished = EnumSet.noneOf(Phase.class);
+
+	/**
+	 * Constructor
+	 *
+	 * @param bytes Size of the file being worked on
+	 */
+	private SNACPhaseTimer(long bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Start timing a file on this thread
+	 *
+	 * @param bytes Size of the file
+	 * @return The timer, to be finished when the file is done
+	 */
+	public static SNACPhaseTimer start(long bytes) {
+		SNACPhaseTimer timer = new SNACPhaseTimer(bytes);
+		current.set(timer);
+		return timer;
+	}
+
+	/**
+	 * Get the timer of the current thread's file
+	 *
+	 * @return The timer, or null if no file is being timed on this thread
+	 */
+	public static SNACPhaseTimer current() {
+		return current.get();
+	}
+
+	/**
+	 * Add time to a phase of the current thread's file
+	 *
+	 * @param phase Phase
+	 * @param startNanos System.nanoTime() when the work started
+	 */
+	public static void add(Phase phase, long startNanos) {
+		SNACPhaseTimer timer = current.get();
+		if (timer != null)
+			timer.addNanos(phase, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Add time to a phase of the current thread's file, and mark the phase as over
+	 *
+	 * @param phase Phase
+	 * @param startNanos System.nanoTime() when the work started
+	 */
+	public static void end(Phase phase, long startNanos) {
+		SNACPhaseTimer timer = current.get();
+		if (timer != null) {
+			timer.addNanos(phase, System.nanoTime() - startNanos);
+			timer.finish(phase);
+		}
+	}
+
+	/**
+	 * Mark phases of the current thread's file as over, for phases timed a bit at a time
+	 *
+	 * @param phases Phases that are over
+	 */
+	public static void ended(Phase... phases) {
+		SNACPhaseTimer timer = current.get();
+		if (timer != null)
+			for (Phase phase : phases)
+				timer.finish(phase);
+	}
+
+	/**
+	 * Add time to a phase
+	 *
+	 * @param phase Phase
+	 * @param time Nanoseconds spent
+	 */
+	public synchronized void addNanos(Phase phase, long time) {
+		nanos[phase.ordinal()] += time;
+	}
+
+	/**
+	 * Mark a phase as over, so that progress counts it in full
+	 *
+	 * @param phase Phase that is over
+	 */
+	public synchronized void finish(Phase phase) {
+		finished.add(phase);
+	}
+
+	/**
+	 * Get the time spent in a phase
+	 *
+	 * @param phase Phase
+	 * @return Nanoseconds
+	 */
+	public synchronized long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * Get the progress through some phases
+	 *
+	 * Each phase is expected to take as long as it did for earlier files.  A phase that is
+	 * over counts in full; one that is not counts for the time spent on it, up to just under
+	 * its expected time, so progress never runs ahead of the work.
+	 *
+	 * @param plan Phases the work goes through
+	 * @param from Progress (percent) at the start of the plan
+	 * @param to Progress (percent) at the end of the plan
+	 * @return Progress, in percent
+	 */
+	public synchronized int getProgress(Phase[] plan, int from, int to) {
+		double expected = 0;
+		double done = 0;
+		for (Phase phase : plan) {
+			long phaseExpected = Math.max(histograms.get(phase).expected(phase, bytes), 1);
+			expected += phaseExpected;
+			done += finished.contains(phase) ? phaseExpected : Math.min(nanos[phase.ordinal()], phaseExpected * 0.95);
+		}
+		return from + (int) ((to - from) * done / expected);
+	}
+
+	/**
+	 * Stop timing the file, adding its phases to the histograms
+	 *
+	 * Only phases the file actually went through are recorded.
+	 */
+	public void finish() {
+		if (current.get() == this)
+			current.remove();
+		synchronized (this) {
+			for (Phase phase : Phase.values())
+				if (nanos[phase.ordinal()] > 0)
+					histograms.get(phase).record(nanos[phase.ordinal()], bytes);
+		}
+	}
+
+	/**
+	 * Get the histogram of a phase
+	 *
+	 * @param phase Phase
+	 * @return Durations of the phase for every file finished in this JVM
+	 */
+	public static Histogram getHistogram(Phase phase) {
+		return histograms.get(phase);
+	}
+
+	/**
+	 * Print the phase histograms
+	 *
+	 * Prints nothing if no phase has been measured.
+	 *
+	 * @param out Stream to print to
+	 */
+	public static void printSummary(PrintStream out) {
+		long total = 0;
+		Map<Resource, Long> byResource = new EnumMap<Resource, Long>(Resource.class);
+		for (Resource resource : Resource.values())
+			byResource.put(resource, 0L);
+		for (Phase phase : Phase.values()) {
+			long nanos = histograms.get(phase).getTotalNanos();
+			total += nanos;
+			byResource.put(phase.resource, byResource.get(phase.resource) + nanos);
+		}
+		if (total == 0)
+			return;
+
+		out.println(String.format("%-20s %7s %9s %9s %9s %9s %9s %6s", "Phase", "Count", "Total s", "p50 ms",
+				"p90 ms", "p99 ms", "Max ms", "Share"));
+		for (Phase phase : Phase.values()) {
+			Histogram histogram = histograms.get(phase);
+			if (histogram.getCount() == 0)
+				continue;
+			out.println(String.format("%-20s %7d %9.2f %9.1f %9.1f %9.1f %9.1f %5.1f%%", phase.label,
+					histogram.getCount(), histogram.getTotalNanos() / 1e9, histogram.getPercentile(50) / 1e6,
+					histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6,
+					histogram.getMaxNanos() / 1e6, histogram.getTotalNanos() * 100.0 / total));
+		}
+
+		Resource bound = Resource.DISK;
+		for (Resource resource : Resource.values())
+			if (byResource.get(resource) > byResource.get(bound))
+				bound = resource;
+		out.println(String.format("Time by resource: disk %.0f%%, CPU %.0f%%, network %.0f%% (mostly %s bound)",
+				byResource.get(Resource.DISK) * 100.0 / total, byResource.get(Resource.CPU) * 100.0 / total,
+				byResource.get(Resource.NETWORK) * 100.0 / total, bound.name().toLowerCase()));
+	}
+}
@@ -0,0 +1,433 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * SNAC Schematron Model
+ *
+ * An in-memory model of a Schematron profile: its patterns, rules and assertions, with the
+ * rule contexts and assertion tests compiled to simple checks where that is possible.  A
+ * pattern is streamable when every rule context is an element name path ("*", "cpf:control"
+ * or "cpf:languageDeclaration/cpf:language") and every test is a disjunction of attribute,
+ * child element and text() existence checks, optionally negated, with a plain-text message.
+ * The SNAC profiles are made up entirely of such patterns.
+ *
+ * Patterns that are not streamable can be split off into a reduced profile with
+ * getFallbackProfile, to be run through the Schematron engine.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACSchematronModel {
+
+	/**
+	 * ISO Schematron namespace
+	 */
+	public static final String SCH_NS = "http://purl.oclc.org/dsdl/schematron";
+
+	/**
+	 * Kinds of check an assertion test can be made of
+	 */
+	public enum CheckType { ATTRIBUTE, CHILD, TEXT }
+
+	/**
+	 * One existence check, optionally negated
+	 */
+	public static class Check {
+		public final CheckType type;
+		public final String namespace;
+		public final String localName;
+		public final boolean negated;
+
+		Check(CheckType type, String namespace, String localName, boolean negated) {
+			this.type = type;
+			this.namespace = namespace;
+			this.localName = localName;
+			this.negated = negated;
+		}
+	}
+
+	/**
+	 * One assert or report
+	 */
+	public static class Assertion {
+		public final boolean report;
+		public final String test;
+		public final String text;
+		/** Checks joined with "or", or null if the test is not streamable */
+		public final List<Check> checks;
+
+		Assertion(boolean report, String test, String text, List<Check> checks) {
+			this.report = report;
+			this.test = test;
+			this.text = text;
+			this.checks = checks;
+		}
+
+		/**
+		 * Does this assertion need the element's children to be evaluated
+		 *
+		 * @return True if any check looks at child elements or text
+		 */
+		public boolean needsChildren() {
+			for (Check check : checks)
+				if (check.type != CheckType.ATTRIBUTE)
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * One rule
+	 */
+	public static class Rule {
+		public final String id;
+		public final String context;
+		/** Element names from outermost to the context element; a null name matches any element */
+		public final List<String[]> steps;
+		public final List<Assertion> assertions;
+
+		Rule(String id, String context, List<String[]> steps, List<Assertion> assertions) {
+			this.id = id;
+			this.context = context;
+			this.steps = steps;
+			this.assertions = assertions;
+		}
+
+		/**
+		 * Get the rule name used in reports
+		 *
+		 * @return The rule id, or its context if it has none
+		 */
+		public String getName() {
+			return id != null ? id : context;
+		}
+	}
+
+	/**
+	 * One pattern
+	 */
+	public static class Pattern {
+		public final List<Rule> rules;
+		public final boolean streamable;
+
+		Pattern(List<Rule> rules, boolean streamable) {
+			this.rules = rules;
+			this.streamable = streamable;
+		}
+	}
+
+	/**
+	 * Model information
+	 */
+	private final Document document;
+	private final List<Pattern> patterns;
+	private final Map<String, String> namespaces;
+
+	/**
+	 * Constructor
+	 *
+	 * @param document Parsed profile
+	 * @param patterns Patterns in the profile, in order
+	 * @param namespaces Prefixes declared in the profile
+	 */
+	private SNACSchematronModel(Document document, List<Pattern> patterns, Map<String, String> namespaces) {
+		this.document = document;
+		this.patterns = Collections.unmodifiableList(patterns);
+		this.namespaces = Collections.unmodifiableMap(namespaces);
+	}
+
+	/**
+	 * Read a profile
+	 *
+	 * @param contents Contents of the .sch file
+	 * @return The model of the profile
+	 * @throws IOException If the profile is not well-formed XML
+	 */
+	public static SNACSchematronModel read(byte[] contents) throws IOException {
+		Document document;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(contents));
+		} catch (Exception e) {
+			throw new IOException("Could not read Schematron profile", e);
+		}
+
+		Element schema = document.getDocumentElement();
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("xml", XMLConstants.XML_NS_URI);
+		// Anything beyond patterns, ns declarations and documentation changes how every pattern is read
+		boolean simpleSchema = true;
+		for (Element child : children(schema)) {
+			String name = child.getLocalName();
+			if (name.equals("ns"))
+				namespaces.put(child.getAttribute("prefix"), child.getAttribute("uri"));
+			else if (!name.equals("pattern") && !name.equals("title") && !name.equals("p"))
+				simpleSchema = false;
+		}
+
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (Element child : children(schema)) {
+			if (!child.getLocalName().equals("pattern"))
+				continue;
+			boolean streamable = simpleSchema && !child.hasAttribute("abstract") && !child.hasAttribute("is-a");
+			List<Rule> rules = new ArrayList<Rule>();
+			for (Element ruleElement : children(child)) {
+				String name = ruleElement.getLocalName();
+				if (!name.equals("rule")) {
+					if (!name.equals("title") && !name.equals("p"))
+						streamable = false;
+					continue;
+				}
+				Rule rule = readRule(ruleElement, namespaces);
+				if (rule.steps == null || ruleElement.hasAttribute("abstract"))
+					streamable = false;
+				for (Assertion assertion : rule.assertions)
+					if (assertion.checks == null)
+						streamable = false;
+				rules.add(rule);
+			}
+			patterns.add(new Pattern(rules, streamable));
+		}
+		return new SNACSchematronModel(document, patterns, namespaces);
+	}
+
+	/**
+	 * Get the patterns
+	 *
+	 * @return Unmodifiable list of patterns, in profile order
+	 */
+	public List<Pattern> getPatterns() {
+		return patterns;
+	}
+
+	/**
+	 * Get the namespaces
+	 *
+	 * @return Namespace URIs by the prefix declared for them with sch:ns (and "xml")
+	 */
+	public Map<String, String> getNamespaces() {
+		return namespaces;
+	}
+
+	/**
+	 * Is every pattern streamable
+	 *
+	 * @return True if the whole profile can be checked in one streaming pass
+	 */
+	public boolean isStreamable() {
+		for (Pattern pattern : patterns)
+			if (!pattern.streamable)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Get the patterns that are not streamable
+	 *
+	 * @return Indexes (in profile order) of the patterns that need the Schematron engine
+	 */
+	public List<Integer> getFallbackPatterns() {
+		List<Integer> fallback = new ArrayList<Integer>();
+		for (int i = 0; i < patterns.size(); i++)
+			if (!patterns.get(i).streamable)
+				fallback.add(i);
+		return fallback;
+	}
+
+	/**
+	 * Get a profile with only the patterns that are not streamable
+	 *
+	 * Everything else in the profile (namespaces, phases, lets) is kept as it is.
+	 *
+	 * @return Contents of the reduced .sch file, or null if every pattern is streamable
+	 * @throws IOException
+	 */
+	public byte[] getFallbackProfile() throws IOException {
+		if (isStreamable())
+			return null;
+		return getProfile(getFallbackPatterns());
+	}
+
+	/**
+	 * Get a profile with only some of the patterns
+	 *
+	 * Everything else in the profile (namespaces, phases, lets) is kept as it is.
+	 *
+	 * @param keep Indexes of the patterns to keep
+	 * @return Contents of the reduced .sch file
+	 * @throws IOException
+	 */
+	public byte[] getProfile(Collection<Integer> keep) throws IOException {
+		Document reduced = (Document) document.cloneNode(true);
+		int index = 0;
+		for (Element child : children(reduced.getDocumentElement())) {
+			if (!child.getLocalName().equals("pattern"))
+				continue;
+			if (!keep.contains(index++))
+				child.getParentNode().removeChild(child);
+		}
+
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(reduced), new StreamResult(out));
+			return out.toByteArray();
+		} catch (TransformerException e) {
+			throw new IOException("Could not write reduced Schematron profile", e);
+		}
+	}
+
+	/**
+	 * Read one rule
+	 *
+	 * @param ruleElement sch:rule element
+	 * @param namespaces Prefixes declared in the profile
+	 * @return The rule; steps are null if the context is not an element name path
+	 */
+	private static Rule readRule(Element ruleElement, Map<String, String> namespaces) {
+		String context = ruleElement.getAttribute("context");
+		List<String[]> steps = new ArrayList<String[]>();
+		for (String step : context.trim().split("/", -1)) {
+			String[] name = step.trim().equals("*") ? new String[] {null, null} : resolve(step.trim(), namespaces);
+			if (name == null) {
+				steps = null;
+				break;
+			}
+			steps.add(name);
+		}
+
+		List<Assertion> assertions = new ArrayList<Assertion>();
+		for (Element child : children(ruleElement)) {
+			String name = child.getLocalName();
+			if (name.equals("assert") || name.equals("report")) {
+				String test = child.getAttribute("test");
+				String text = plainText(child);
+				List<Check> checks = text == null ? null : readTest(test, namespaces);
+				assertions.add(new Assertion(name.equals("report"), test, text, checks));
+			} else {
+				// let, extends and the like
+				steps = null;
+			}
+		}
+		return new Rule(ruleElement.hasAttribute("id") ? ruleElement.getAttribute("id") : null, context,
+				steps, assertions);
+	}
+
+	/**
+	 * Read an assertion test
+	 *
+	 * @param test XPath test
+	 * @param namespaces Prefixes declared in the profile
+	 * @return The checks joined by "or", or null if the test is not of a streamable form
+	 */
+	private static List<Check> readTest(String test, Map<String, String> namespaces) {
+		List<Check> checks = new ArrayList<Check>();
+		for (String term : test.trim().split("\\s+or\\s+")) {
+			term = term.trim();
+			boolean negated = false;
+			if (term.startsWith("not(") && term.endsWith(")")) {
+				negated = true;
+				term = term.substring(4, term.length() - 1).trim();
+			}
+
+			if (term.equals("text()")) {
+				checks.add(new Check(CheckType.TEXT, null, null, negated));
+				continue;
+			}
+			CheckType type = CheckType.CHILD;
+			if (term.startsWith("@")) {
+				type = CheckType.ATTRIBUTE;
+				term = term.substring(1);
+			}
+			String[] name = resolve(term, namespaces);
+			if (name == null)
+				return null;
+			if (type == CheckType.ATTRIBUTE && !term.contains(":"))
+				name[0] = "";
+			checks.add(new Check(type, name[0], name[1], negated));
+		}
+		return checks;
+	}
+
+	/**
+	 * Resolve a prefixed name
+	 *
+	 * Unprefixed element names are in no namespace, as in XPath.
+	 *
+	 * @param qname Name to resolve
+	 * @param namespaces Declared prefixes
+	 * @return Namespace URI and local name, or null if this is not a simple declared name
+	 */
+	private static String[] resolve(String qname, Map<String, String> namespaces) {
+		if (!qname.matches("([A-Za-z_][\\w.-]*:)?[A-Za-z_][\\w.-]*"))
+			return null;
+		int colon = qname.indexOf(':');
+		if (colon < 0)
+			return new String[] {"", qname};
+		String uri = namespaces.get(qname.substring(0, colon));
+		if (uri == null)
+			return null;
+		return new String[] {uri, qname.substring(colon + 1)};
+	}
+
+	/**
+	 * Get the message of an assertion, if it is plain text
+	 *
+	 * @param assertion sch:assert or sch:report element
+	 * @return The normalized message, or null if it is computed (value-of, name)
+	 */
+	private static String plainText(Element assertion) {
+		for (Node node = assertion.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				String name = node.getLocalName();
+				if (!SCH_NS.equals(node.getNamespaceURI())
+						|| !(name.equals("emph") || name.equals("dir") || name.equals("span")))
+					return null;
+			}
+		}
+		return SNACValidationResult.normalize(assertion.getTextContent());
+	}
+
+	/**
+	 * Get the Schematron child elements of an element
+	 *
+	 * @param parent Parent element
+	 * @return Child elements in the Schematron namespace, in order
+	 */
+	private static List<Element> children(Element parent) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+			if (node.getNodeType() == Node.ELEMENT_NODE && SCH_NS.equals(node.getNamespaceURI()))
+				children.add((Element) node);
+		return children;
+	}
+}
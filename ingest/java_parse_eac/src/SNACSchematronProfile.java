@@ -0,0 +1,591 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.oclc.purl.dsdl.svrl.SchematronOutputType;
+import org.w3c.dom.Document;
+
+import com.helger.schematron.pure.SchematronResourcePure;
+import com.helger.schematron.xslt.SchematronResourceSCH;
+
+/**
+ * SNAC Schematron Profile
+ *
+ * A Schematron validation profile compiled to its validation stylesheet.  Compiling a .sch
+ * file through the ISO Schematron XSLT chain is expensive, so each profile is compiled at
+ * most once per JVM and shared by all validations (the compiled stylesheet is thread-safe).  The
+ * compiled stylesheet is also kept on disk, named after the SHA-256 hash of the .sch
+ * contents, so a fresh launch can skip compilation entirely.
+ *
+ * Profiles are looked up by file path first and then on the classpath, so both profiles
+ * shipped in the schematron directory can be used by name.
+ *
+ * Documents are parsed once into a read-only Saxon tree and validated with a single
+ * transformation to SVRL; validity is derived from that report.  The pure (XPath
+ * interpreting) Schematron engine can be chosen instead with -Dsnac.schematron.engine=pure,
+ * or the streaming validator (SNACStreamingValidator), which checks files without building
+ * a tree, with -Dsnac.schematron.engine=streaming.  With -Dsnac.schematron.groups=n the XSLT
+ * engine validates each document with n threads (see SNACParallelValidator).
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACSchematronProfile {
+
+	/**
+	 * Schematron engines
+	 */
+	public enum Engine { XSLT, PURE, STREAMING }
+
+	/**
+	 * Profiles shipped with the utility
+	 */
+	public static final String DEFAULT_PROFILE = "SNAC_EAC-CPF_ValidationProfile.sch";
+	public static final String ALTERNATE_PROFILE = "SNAC_EAC-CPF_ValidationProfile2.sch";
+
+	/**
+	 * Compiled profiles for this JVM, by name.  Each entry is a task so that concurrent
+	 * callers asking for the same profile wait on a single compilation.
+	 */
+	private static final ConcurrentHashMap<String, FutureTask<SNACSchematronProfile>> profiles =
+			new ConcurrentHashMap<String, FutureTask<SNACSchematronProfile>>();
+
+	private static final Logger logger = Logger.getLogger(SNACSchematronProfile.class.getName());
+
+	/**
+	 * Saxon processor shared by all profiles, so parsed documents can be validated by any of them
+	 */
+	private static final Processor processor = new Processor(false);
+
+	/**
+	 * Profile information
+	 */
+	private final String name;
+	private final String hash;
+	private final XsltExecutable executable;
+	private final byte[] contents;
+
+	/**
+	 * Pure engine resource, created on first use
+	 */
+	private volatile SchematronResourcePure pureResource;
+
+	/**
+	 * Streaming validator, created on first use
+	 */
+	private volatile SNACStreamingValidator streamingValidator;
+
+	/**
+	 * Parallel validator over pattern groups, created on first use
+	 */
+	private volatile SNACParallelValidator parallelValidator;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Name of the profile
+	 * @param hash SHA-256 hash of the profile contents
+	 * @param contents Contents of the .sch file
+	 * @param executable Compiled validation stylesheet
+	 */
+	private SNACSchematronProfile(String name, String hash, byte[] contents, XsltExecutable executable) {
+		this.name = name;
+		this.hash = hash;
+		this.contents = contents;
+		this.executable = executable;
+	}
+
+	/**
+	 * Get Profile
+	 *
+	 * Returns the compiled profile with the given name, compiling (or loading it from the
+	 * on-disk cache) on first use.
+	 *
+	 * @param name File path or classpath name of the .sch file
+	 * @return The compiled profile
+	 * @throws IOException If the profile can not be read or is not valid Schematron
+	 */
+	public static SNACSchematronProfile getProfile(final String name) throws IOException {
+		FutureTask<SNACSchematronProfile> task = profiles.get(name);
+		if (task == null) {
+			FutureTask<SNACSchematronProfile> newTask = new FutureTask<SNACSchematronProfile>(
+					new Callable<SNACSchematronProfile>() {
+						public SNACSchematronProfile call() throws Exception {
+							long start = System.nanoTime();
+							try {
+								return compile(name);
+							} finally {
+								SNACPhaseTimer.add(SNACPhaseTimer.Phase.COMPILE, start);
+							}
+						}
+					});
+			task = profiles.putIfAbsent(name, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compiling " + name, e);
+		} catch (ExecutionException e) {
+			// Forget the failure so that a later call can try again
+			profiles.remove(name, task);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Could not compile " + name, e.getCause());
+		}
+	}
+
+	/**
+	 * Get the name of the profile
+	 *
+	 * @return The name the profile was requested with
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the hash of the profile
+	 *
+	 * @return Hex SHA-256 hash of the .sch contents
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * Get the Saxon processor
+	 *
+	 * @return The processor the profiles are compiled with
+	 */
+	public static Processor getProcessor() {
+		return processor;
+	}
+
+	/**
+	 * Parse an XML file
+	 *
+	 * Parses the file into a read-only tree that can be validated (by any profile) and
+	 * read by other stages without parsing the file again.
+	 *
+	 * @param xmlFile File to parse
+	 * @return The document node
+	 * @throws SaxonApiException If the file is not well-formed XML
+	 */
+	public static XdmNode parse(File xmlFile) throws SaxonApiException {
+		long start = System.nanoTime();
+		try {
+			return processor.newDocumentBuilder().build(xmlFile);
+		} finally {
+			SNACPhaseTimer.add(SNACPhaseTimer.Phase.READ, start);
+		}
+	}
+
+	/**
+	 * Apply the profile to a document
+	 *
+	 * Each call loads its own transformer from the compiled stylesheet, which is cheap.  A
+	 * transformer kept per thread would hold on to the last document and SVRL tree it saw for
+	 * as long as the thread lives (pool, daemon and SwingWorker threads live long).
+	 *
+	 * @param document Parsed document
+	 * @return The SVRL report
+	 * @throws SaxonApiException
+	 */
+	public XdmNode applyToSVRL(XdmNode document) throws SaxonApiException {
+		XsltTransformer transformer = executable.load();
+		XdmDestination svrl = new XdmDestination();
+		transformer.setInitialContextNode(document);
+		transformer.setDestination(svrl);
+		transformer.transform();
+		return svrl.getXdmNode();
+	}
+
+	/**
+	 * Validate a document
+	 *
+	 * Uses the engine chosen in the settings.
+	 *
+	 * @param file Name of the document, used in the result
+	 * @param document Parsed document
+	 * @return The validation result
+	 * @throws SaxonApiException
+	 */
+	public SNACValidationResult validate(String file, XdmNode document) throws SaxonApiException {
+		return validate(file, document, SNACIngestSettings.getSchematronEngine());
+	}
+
+	/**
+	 * Validate a document with the given engine
+	 *
+	 * The document has already been parsed, so the streaming engine gains nothing here and the
+	 * XSLT engine (which reports identical failures) is used in its place.
+	 *
+	 * @param file Name of the document, used in the result
+	 * @param document Parsed document
+	 * @param engine Schematron engine to use
+	 * @return The validation result
+	 * @throws SaxonApiException
+	 */
+	public SNACValidationResult validate(String file, XdmNode document, Engine engine) throws SaxonApiException {
+		long start = System.nanoTime();
+		try {
+			return transform(file, document, engine);
+		} finally {
+			SNACPhaseTimer.add(SNACPhaseTimer.Phase.TRANSFORM, start);
+		}
+	}
+
+	/**
+	 * Run the chosen engine over a document
+	 */
+	private SNACValidationResult transform(String file, XdmNode document, Engine engine) throws SaxonApiException {
+		if (engine == Engine.PURE) {
+			try {
+				// The pure engine reads DOM; give it a DOM view of the tree instead of parsing again
+				SchematronOutputType svrl = getPureResource().applySchematronValidationToSVRL(
+						NodeOverNodeInfo.wrap(document.getUnderlyingNode()), file);
+				return SNACValidationResult.fromSVRL(file, svrl);
+			} catch (Exception e) {
+				throw new SaxonApiException(e);
+			}
+		}
+		int groups = SNACIngestSettings.getSchematronGroups();
+		if (groups > 1)
+			return getParallelValidator(groups).validate(file, document);
+		return SNACValidationResult.fromSVRL(file, applyToSVRL(document));
+	}
+
+	/**
+	 * Get the parallel validator for this profile
+	 *
+	 * @param groups Number of pattern groups
+	 * @return The parallel validator
+	 * @throws SaxonApiException If a group can not be compiled
+	 */
+	private SNACParallelValidator getParallelValidator(int groups) throws SaxonApiException {
+		SNACParallelValidator validator = parallelValidator;
+		if (validator == null || validator.getRequestedGroups() != groups) {
+			synchronized (this) {
+				validator = parallelValidator;
+				if (validator == null || validator.getRequestedGroups() != groups) {
+					try {
+						validator = new SNACParallelValidator(this, groups);
+					} catch (IOException e) {
+						throw new SaxonApiException(e);
+					}
+					parallelValidator = validator;
+				}
+			}
+		}
+		return validator;
+	}
+
+	/**
+	 * Get the pure engine resource for this profile
+	 *
+	 * @return The pure Schematron resource
+	 * @throws IOException If the profile is not valid for the pure engine
+	 */
+	private SchematronResourcePure getPureResource() throws IOException {
+		SchematronResourcePure resource = pureResource;
+		if (resource == null) {
+			synchronized (this) {
+				resource = pureResource;
+				if (resource == null) {
+					// The pure engine reads the profile from a file it may come back to
+					File schFile = File.createTempFile("profile", ".sch");
+					schFile.deleteOnExit();
+					Files.write(schFile.toPath(), contents);
+					resource = SchematronResourcePure.fromFile(schFile);
+					if (!resource.isValidSchematron())
+						throw new IOException("Invalid Schematron for the pure engine: " + name);
+					pureResource = resource;
+				}
+			}
+		}
+		return resource;
+	}
+
+	/**
+	 * Get the model of this profile
+	 *
+	 * @return The patterns, rules and assertions of the profile
+	 * @throws IOException
+	 */
+	SNACSchematronModel getModel() throws IOException {
+		return SNACSchematronModel.read(contents);
+	}
+
+	/**
+	 * Get the streaming validator for this profile
+	 *
+	 * Patterns that can not be streamed are compiled into a reduced profile for the
+	 * streaming validator to fall back on.
+	 *
+	 * @return The streaming validator
+	 */
+	public SNACStreamingValidator getStreamingValidator() {
+		SNACStreamingValidator validator = streamingValidator;
+		if (validator == null) {
+			synchronized (this) {
+				validator = streamingValidator;
+				if (validator == null) {
+					try {
+						SNACSchematronModel model = getModel();
+						byte[] reduced = model.getFallbackProfile();
+						SNACSchematronProfile fallback = null;
+						if (reduced != null) {
+							logger.info(model.getFallbackPatterns().size() + " patterns of " + name
+									+ " can not be streamed and will use the Schematron engine");
+							fallback = compile(new File(name).getName().replaceAll("\\.sch$", "") + "-fallback.sch",
+									reduced);
+						}
+						validator = new SNACStreamingValidator(model, fallback);
+					} catch (IOException e) {
+						// The profile itself already compiled, so this is not expected
+						throw new IllegalStateException("Could not build streaming validator for " + name, e);
+					}
+					streamingValidator = validator;
+				}
+			}
+		}
+		return validator;
+	}
+
+	/**
+	 * Validate a file
+	 *
+	 * Parses and validates the file, or streams it through the streaming validator if that
+	 * engine is chosen.  A file that is not well-formed XML is reported as a single failure
+	 * rather than an exception.
+	 *
+	 * @param xmlFile File to validate
+	 * @return The validation result
+	 */
+	public SNACValidationResult validate(File xmlFile) {
+		if (SNACIngestSettings.getSchematronEngine() == Engine.STREAMING) {
+			// Reading and checking are one pass here, so it all counts as transform
+			long start = System.nanoTime();
+			try {
+				return getStreamingValidator().validate(xmlFile);
+			} finally {
+				SNACPhaseTimer.add(SNACPhaseTimer.Phase.TRANSFORM, start);
+			}
+		}
+		try {
+			return validate(xmlFile.getPath(), parse(xmlFile));
+		} catch (SaxonApiException e) {
+			return SNACValidationResult.notWellFormed(xmlFile.getPath(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Compile a profile
+	 *
+	 * Loads the compiled stylesheet from the cache directory if one exists for the current
+	 * contents of the profile, otherwise compiles the .sch file and stores the result.
+	 *
+	 * @param name File path or classpath name of the .sch file
+	 * @return The compiled profile
+	 * @throws IOException
+	 */
+	private static SNACSchematronProfile compile(String name) throws IOException {
+		return compile(name, readProfile(name));
+	}
+
+	/**
+	 * Compile a profile from its contents
+	 *
+	 * @param name Name of the profile
+	 * @param contents Contents of the .sch file
+	 * @return The compiled profile
+	 * @throws IOException
+	 */
+	static SNACSchematronProfile compile(String name, byte[] contents) throws IOException {
+		String hash = hash(contents);
+		String baseName = new File(name).getName().replaceAll("\\.sch$", "");
+
+		File cacheDir = SNACIngestSettings.getCacheDirectory("schematron");
+		if (cacheDir == null) {
+			// No place to keep the stylesheet, so just compile it in memory
+			logger.warning("No schematron cache directory available, compiling " + name + " in memory");
+			File schFile = File.createTempFile("profile", ".sch");
+			try {
+				Files.write(schFile.toPath(), contents);
+				SchematronResourceSCH sch = SchematronResourceSCH.fromFile(schFile);
+				if (!sch.isValidSchematron())
+					throw new IOException("Invalid Schematron: " + name);
+				return new SNACSchematronProfile(name, hash, contents,
+						compileStylesheet(new DOMSource(sch.getXSLTProvider().getXSLTDocument()), name));
+			} finally {
+				schFile.delete();
+			}
+		}
+
+		File xslFile = new File(cacheDir, baseName + "-" + hash + ".xsl");
+		if (!xslFile.isFile()) {
+			// Keep a copy of the exact .sch that was compiled next to its stylesheet
+			File schFile = new File(cacheDir, baseName + "-" + hash + ".sch");
+			if (!schFile.isFile())
+				writeAtomically(schFile, contents);
+
+			SchematronResourceSCH sch = SchematronResourceSCH.fromFile(schFile);
+			if (!sch.isValidSchematron())
+				throw new IOException("Invalid Schematron: " + name);
+			writeStylesheet(xslFile, sch.getXSLTProvider().getXSLTDocument());
+			logger.info("Compiled " + name + " to " + xslFile);
+		}
+
+		try {
+			return new SNACSchematronProfile(name, hash, contents, compileStylesheet(new StreamSource(xslFile), name));
+		} catch (IOException e) {
+			// A damaged cache entry should not stick around
+			xslFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Compile a validation stylesheet
+	 *
+	 * @param xslt Stylesheet source
+	 * @param name Name of the profile, for error messages
+	 * @return The compiled stylesheet
+	 * @throws IOException If the stylesheet does not compile
+	 */
+	private static XsltExecutable compileStylesheet(Source xslt, String name) throws IOException {
+		try {
+			return processor.newXsltCompiler().compile(xslt);
+		} catch (SaxonApiException e) {
+			throw new IOException("Invalid compiled Schematron: " + name, e);
+		}
+	}
+
+	/**
+	 * Read the contents of a profile from a file, or the classpath if no such file exists
+	 *
+	 * @param name File path or classpath name of the .sch file
+	 * @return The contents of the profile
+	 * @throws IOException
+	 */
+	static byte[] readProfile(String name) throws IOException {
+		File file = new File(name);
+		if (file.isFile())
+			return Files.readAllBytes(file.toPath());
+
+		InputStream in = SNACSchematronProfile.class.getClassLoader().getResourceAsStream(name);
+		if (in == null)
+			throw new IOException("Schematron profile not found: " + name);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Hash the given bytes
+	 *
+	 * @param contents Bytes to hash
+	 * @return Lower-case hex SHA-256 of the bytes
+	 */
+	static String hash(byte[] contents) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write the compiled stylesheet to the cache
+	 *
+	 * @param xslFile Destination file
+	 * @param xslt Stylesheet document
+	 * @throws IOException
+	 */
+	private static void writeStylesheet(File xslFile, Document xslt) throws IOException {
+		File tmp = File.createTempFile("profile", ".tmp", xslFile.getParentFile());
+		try {
+			Transformer t = TransformerFactory.newInstance().newTransformer();
+			t.transform(new DOMSource(xslt), new StreamResult(tmp));
+			// Other launches may be compiling the same profile; either copy is fine
+			Files.move(tmp.toPath(), xslFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (javax.xml.transform.TransformerException e) {
+			throw new IOException("Could not write " + xslFile, e);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Write bytes to a file through a temporary file, so readers never see a partial file
+	 *
+	 * @param file Destination file
+	 * @param contents Bytes to write
+	 * @throws IOException
+	 */
+	static void writeAtomically(File file, byte[] contents) throws IOException {
+		File tmp = File.createTempFile("profile", ".tmp", file.getParentFile());
+		try {
+			Files.write(tmp.toPath(), contents);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+}
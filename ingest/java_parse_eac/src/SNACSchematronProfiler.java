@@ -0,0 +1,378 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import net.sf.saxon.s9api.XdmValue;
+
+import org.json.JSONObject;
+
+/**
+ * SNAC Schematron Profiler
+ *
+ * Instrumented validation: finds out where the time goes when a batch of EAC-CPF files is
+ * validated against a Schematron profile.  For every document it records
+ *
+ *  - the time of the full validation, as the normal engine runs it
+ *  - the time of each pattern, by running a profile with only that pattern
+ *  - the time of each rule's context and each assertion's test, by evaluating them as
+ *    XPath over the document (every node matching the context, ignoring the shadowing of
+ *    earlier rules in the pattern, so these are upper bounds)
+ *  - how often each rule fired and each assertion failed, from the SVRL
+ *
+ * Totals over the batch are written as a profile report, one line per pattern, rule and
+ * assertion, sorted with the most expensive first.  The report is CSV if its name ends in
+ * ".csv" and JSON Lines otherwise.
+ *
+ * Usage: SNACSchematronProfiler [-profile file.sch] report.(jsonl|csv) input...
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACSchematronProfiler {
+
+	private static final Logger logger = Logger.getLogger(SNACSchematronProfiler.class.getName());
+
+	/**
+	 * SVRL names read for the counts
+	 */
+	private static final QName ATTR_CONTEXT = new QName("context");
+	private static final QName ATTR_ID = new QName("id");
+	private static final QName ATTR_TEST = new QName("test");
+
+	/**
+	 * Totals for one rule or assertion
+	 */
+	private static class Stats {
+		final String kind;
+		final int pattern;
+		final String rule;
+		final String test;
+		final XPathExecutable xpath;
+		long nanos;
+		long evaluations;
+		long fired;
+		long failed;
+
+		Stats(String kind, int pattern, String rule, String test, XPathExecutable xpath) {
+			this.kind = kind;
+			this.pattern = pattern;
+			this.rule = rule;
+			this.test = test;
+			this.xpath = xpath;
+		}
+	}
+
+	/**
+	 * Profile being measured
+	 */
+	private final SNACSchematronProfile profile;
+	private final SNACSchematronModel model;
+
+	/**
+	 * One single-pattern profile per pattern, and their totals
+	 */
+	private final List<SNACSchematronProfile> patternProfiles = new ArrayList<SNACSchematronProfile>();
+	private final List<Stats> patterns = new ArrayList<Stats>();
+
+	/**
+	 * Rule and assertion totals; assertions follow their rule
+	 */
+	private final List<Stats> rules = new ArrayList<Stats>();
+	private final Map<String, Stats> byName = new HashMap<String, Stats>();
+
+	/**
+	 * Batch totals
+	 */
+	private int documents;
+	private long validationNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * Compiles a single-pattern profile for each pattern (these are cached like any other
+	 * profile) and each rule context and test as XPath.
+	 *
+	 * @param profile Profile to measure
+	 * @throws IOException If the profile can not be split up
+	 */
+	public SNACSchematronProfiler(SNACSchematronProfile profile) throws IOException {
+		this.profile = profile;
+		this.model = profile.getModel();
+
+		XPathCompiler compiler = SNACSchematronProfile.getProcessor().newXPathCompiler();
+		for (Map.Entry<String, String> namespace : model.getNamespaces().entrySet())
+			compiler.declareNamespace(namespace.getKey(), namespace.getValue());
+
+		String baseName = new File(profile.getName()).getName().replaceAll("\\.sch$", "");
+		for (int p = 0; p < model.getPatterns().size(); p++) {
+			patternProfiles.add(SNACSchematronProfile.compile(baseName + "-pattern" + (p + 1) + ".sch",
+					model.getProfile(Collections.singleton(p))));
+			patterns.add(new Stats("pattern", p, null, null, null));
+
+			for (SNACSchematronModel.Rule rule : model.getPatterns().get(p).rules) {
+				String context = rule.context.trim();
+				Stats ruleStats = new Stats("rule", p, rule.getName(), rule.context,
+						compile(compiler, context.startsWith("/") ? context : "//(" + context + ")"));
+				rules.add(ruleStats);
+				byName.put(p + " " + rule.getName(), ruleStats);
+				for (SNACSchematronModel.Assertion assertion : rule.assertions) {
+					Stats assertStats = new Stats(assertion.report ? "report" : "assert", p, rule.getName(),
+							assertion.test, compile(compiler, assertion.test));
+					rules.add(assertStats);
+					byName.put(p + " " + rule.getName() + " " + assertion.test, assertStats);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+		int i = 0;
+		if (args.length > 1 && args[0].equals("-profile")) {
+			profileName = args[1];
+			i = 2;
+		}
+		if (args.length - i < 2)
+			usage();
+
+		String reportFile = args[i++];
+		List<File> files = new ArrayList<File>();
+		for (; i < args.length; i++)
+			SNACBatchValidator.collect(new File(args[i]), files);
+
+		SNACSchematronProfiler profiler = new SNACSchematronProfiler(SNACSchematronProfile.getProfile(profileName));
+		// One document at a time, so the timings do not compete with each other
+		for (File file : files) {
+			try {
+				profiler.profile(SNACSchematronProfile.parse(file));
+			} catch (SaxonApiException e) {
+				logger.warning("Skipping " + file + ": " + e.getMessage());
+			}
+		}
+		profiler.writeReport(reportFile);
+		profiler.printSummary(10);
+	}
+
+	/**
+	 * Measure the validation of one document
+	 *
+	 * @param document Parsed document
+	 * @throws SaxonApiException
+	 */
+	public void profile(XdmNode document) throws SaxonApiException {
+		long start = System.nanoTime();
+		XdmNode svrl = profile.applyToSVRL(document);
+		validationNanos += System.nanoTime() - start;
+		documents++;
+		count(svrl);
+
+		for (int p = 0; p < patternProfiles.size(); p++) {
+			start = System.nanoTime();
+			patternProfiles.get(p).applyToSVRL(document);
+			patterns.get(p).nanos += System.nanoTime() - start;
+		}
+
+		XdmValue contextNodes = null;
+		for (Stats stats : rules) {
+			if (stats.kind.equals("rule")) {
+				contextNodes = null;
+				if (stats.xpath == null)
+					continue;
+				XPathSelector selector = stats.xpath.load();
+				start = System.nanoTime();
+				selector.setContextItem(document);
+				contextNodes = selector.evaluate();
+				stats.nanos += System.nanoTime() - start;
+				stats.evaluations += contextNodes.size();
+			} else if (stats.xpath != null && contextNodes != null) {
+				XPathSelector selector = stats.xpath.load();
+				start = System.nanoTime();
+				for (XdmItem node : contextNodes) {
+					selector.setContextItem(node);
+					selector.effectiveBooleanValue();
+				}
+				stats.nanos += System.nanoTime() - start;
+				stats.evaluations += contextNodes.size();
+			}
+		}
+	}
+
+	/**
+	 * Count fired rules and failed assertions in an SVRL report
+	 *
+	 * @param svrl SVRL document
+	 */
+	private void count(XdmNode svrl) {
+		XdmSequenceIterator outputs = svrl.axisIterator(Axis.CHILD);
+		while (outputs.hasNext()) {
+			XdmNode output = (XdmNode) outputs.next();
+			if (output.getNodeKind() != XdmNodeKind.ELEMENT)
+				continue;
+
+			int pattern = -1;
+			String rule = null;
+			XdmSequenceIterator it = output.axisIterator(Axis.CHILD);
+			while (it.hasNext()) {
+				XdmNode node = (XdmNode) it.next();
+				if (node.getNodeKind() != XdmNodeKind.ELEMENT
+						|| !SNACValidationResult.SVRL_NS.equals(node.getNodeName().getNamespaceURI()))
+					continue;
+				String name = node.getNodeName().getLocalName();
+				if (name.equals("active-pattern")) {
+					pattern++;
+				} else if (name.equals("fired-rule")) {
+					rule = node.getAttributeValue(ATTR_ID);
+					if (rule == null)
+						rule = node.getAttributeValue(ATTR_CONTEXT);
+					Stats stats = byName.get(pattern + " " + rule);
+					if (stats != null)
+						stats.fired++;
+				} else if (name.equals("failed-assert") || name.equals("successful-report")) {
+					Stats stats = byName.get(pattern + " " + rule + " " + node.getAttributeValue(ATTR_TEST));
+					if (stats != null)
+						stats.failed++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the profile report
+	 *
+	 * @param filename Report file to (over)write
+	 * @throws IOException
+	 */
+	public void writeReport(String filename) throws IOException {
+		boolean csv = filename.toLowerCase().endsWith(".csv");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8));
+		try {
+			if (csv)
+				writer.write("kind,pattern,rule,test,total_ms,mean_us,evaluations,fired,failed\n");
+			for (Stats stats : sorted()) {
+				double totalMs = stats.nanos / 1e6;
+				double meanUs = stats.evaluations > 0 ? stats.nanos / 1e3 / stats.evaluations : 0;
+				String rule = stats.rule == null ? "" : stats.rule;
+				String test = stats.test == null ? "" : stats.test;
+				if (csv) {
+					writer.write(stats.kind + "," + (stats.pattern + 1) + "," + csv(rule) + "," + csv(test) + ","
+							+ String.format("%.3f,%.3f", totalMs, meanUs) + "," + stats.evaluations + ","
+							+ stats.fired + "," + stats.failed + "\n");
+				} else {
+					writer.write("{\"kind\":" + JSONObject.quote(stats.kind) +
+							",\"pattern\":" + (stats.pattern + 1) +
+							",\"rule\":" + JSONObject.quote(rule) +
+							",\"test\":" + JSONObject.quote(test) +
+							",\"total_ms\":" + String.format("%.3f", totalMs) +
+							",\"mean_us\":" + String.format("%.3f", meanUs) +
+							",\"evaluations\":" + stats.evaluations +
+							",\"fired\":" + stats.fired +
+							",\"failed\":" + stats.failed + "}\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Print the most expensive patterns and expressions
+	 *
+	 * @param top Number of entries to print of each
+	 */
+	public void printSummary(int top) {
+		System.err.println(String.format("Profiled %d documents: %.1f ms validating (%.2f ms per document)",
+				documents, validationNanos / 1e6, documents > 0 ? validationNanos / 1e6 / documents : 0.0));
+		int patternCount = 0;
+		int expressionCount = 0;
+		for (Stats stats : sorted()) {
+			boolean isPattern = stats.kind.equals("pattern");
+			if (isPattern ? patternCount++ >= top : expressionCount++ >= top)
+				continue;
+			System.err.println(String.format("  %-7s %2d %10.1f ms  %s %s", stats.kind, stats.pattern + 1,
+					stats.nanos / 1e6, stats.rule == null ? "" : stats.rule, stats.test == null ? "" : stats.test));
+		}
+	}
+
+	/**
+	 * Get all the totals, most expensive first
+	 */
+	private List<Stats> sorted() {
+		List<Stats> all = new ArrayList<Stats>(patterns);
+		all.addAll(rules);
+		Collections.sort(all, new Comparator<Stats>() {
+			public int compare(Stats a, Stats b) {
+				return Long.compare(b.nanos, a.nanos);
+			}
+		});
+		return all;
+	}
+
+	/**
+	 * Compile an expression for timing
+	 *
+	 * @return The compiled expression, or null if it is not plain XPath (it is still counted)
+	 */
+	private static XPathExecutable compile(XPathCompiler compiler, String xpath) {
+		try {
+			return compiler.compile(xpath);
+		} catch (SaxonApiException e) {
+			logger.info("Not timing " + xpath + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Quote a CSV field
+	 */
+	private static String csv(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Measure the cost of each pattern, rule and assertion of a Schematron profile\n" +
+				"Usage: SNACSchematronProfiler [-profile file.sch] report.(jsonl|csv) input...\n\n" +
+				"Inputs may be XML files or directories (searched recursively for .xml files).");
+		System.exit(2);
+	}
+}
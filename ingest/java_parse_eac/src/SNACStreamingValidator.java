@@ -0,0 +1,418 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.saxon.s9api.SaxonApiException;
+
+/**
+ * SNAC Streaming Validator
+ *
+ * Checks an EAC-CPF file against a Schematron profile in one StAX pass, without building a
+ * tree of the document.  Memory use depends on the nesting depth of the document and the
+ * number of failures, not on its size, so records with tens of thousands of relations
+ * validate in a few kilobytes of working memory.
+ *
+ * Rules are matched the way the Schematron engine matches them: each element fires at most
+ * the first matching rule of each pattern.  Attribute tests are decided when the element
+ * starts; child element and text() tests when it ends.  Failures are reported in the same
+ * order and with the same rule, test, location and text as the XSLT engine, so the two can
+ * be swapped freely (SNACValidatorConformance checks this).
+ *
+ * Patterns the model can not stream are run through the Schematron engine with a reduced
+ * profile, and their failures merged in profile order.  Only then is the document parsed
+ * into a tree.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACStreamingValidator {
+
+	/**
+	 * The profile being checked
+	 */
+	private final SNACSchematronModel model;
+
+	/**
+	 * Reduced profile for the patterns that can not be streamed, or null if there are none
+	 */
+	private final SNACSchematronProfile fallback;
+	private final List<Integer> fallbackPatterns;
+
+	/**
+	 * Candidate rules for each pattern, by element name.  Element names repeat heavily, so
+	 * the rules that could match an element are only worked out once per name.
+	 */
+	private final ConcurrentHashMap<String, SNACSchematronModel.Rule[][]> candidates =
+			new ConcurrentHashMap<String, SNACSchematronModel.Rule[][]>();
+
+	/**
+	 * StAX factories are not guaranteed to be thread-safe, so keep one per thread
+	 */
+	private static final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+			return factory;
+		}
+	};
+
+	/**
+	 * One open element
+	 */
+	private static class Frame {
+		final String namespace;
+		final String localName;
+		final String segment;
+		final long ordinal;
+		final Map<String, int[]> children = new HashMap<String, int[]>();
+		boolean text;
+		List<Pending> pending;
+
+		Frame(String namespace, String localName, String segment, long ordinal) {
+			this.namespace = namespace;
+			this.localName = localName;
+			this.segment = segment;
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * An assertion waiting for the end of its element
+	 */
+	private static class Pending {
+		final int pattern;
+		final SNACSchematronModel.Rule rule;
+		final int assertion;
+		final boolean attributes;
+
+		Pending(int pattern, SNACSchematronModel.Rule rule, int assertion, boolean attributes) {
+			this.pattern = pattern;
+			this.rule = rule;
+			this.assertion = assertion;
+			this.attributes = attributes;
+		}
+	}
+
+	/**
+	 * A failure with its position in report order
+	 */
+	private static class Found {
+		final int pattern;
+		final long ordinal;
+		final int assertion;
+		final SNACValidationFailure failure;
+
+		Found(int pattern, long ordinal, int assertion, SNACValidationFailure failure) {
+			this.pattern = pattern;
+			this.ordinal = ordinal;
+			this.assertion = assertion;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Report order: by pattern, then document order, then assertion order
+	 */
+	private static final Comparator<Found> REPORT_ORDER = new Comparator<Found>() {
+		public int compare(Found a, Found b) {
+			if (a.pattern != b.pattern)
+				return a.pattern < b.pattern ? -1 : 1;
+			if (a.ordinal != b.ordinal)
+				return a.ordinal < b.ordinal ? -1 : 1;
+			return a.assertion < b.assertion ? -1 : (a.assertion == b.assertion ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param model Model of the profile
+	 * @param fallback Compiled reduced profile for the patterns that can not be streamed
+	 *                 (see SNACSchematronModel.getFallbackProfile), or null if there are none
+	 */
+	public SNACStreamingValidator(SNACSchematronModel model, SNACSchematronProfile fallback) {
+		this.model = model;
+		this.fallback = fallback;
+		this.fallbackPatterns = model.getFallbackPatterns();
+	}
+
+	/**
+	 * Get the model
+	 *
+	 * @return The model of the profile being checked
+	 */
+	public SNACSchematronModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Validate a file
+	 *
+	 * A file that is not well-formed XML is reported as a single failure.
+	 *
+	 * @param xmlFile File to validate
+	 * @return The validation result
+	 */
+	public SNACValidationResult validate(File xmlFile) {
+		List<Found> found = new ArrayList<Found>();
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(xmlFile));
+			try {
+				stream(in, xmlFile.toURI().toString(), found);
+			} finally {
+				in.close();
+			}
+		} catch (XMLStreamException | IOException e) {
+			return SNACValidationResult.notWellFormed(xmlFile.getPath(), e.getMessage());
+		}
+
+		if (fallback != null) {
+			try {
+				List<List<SNACValidationFailure>> byPattern =
+						SNACValidationResult.readSVRL(fallback.applyToSVRL(SNACSchematronProfile.parse(xmlFile)));
+				for (int i = 0; i < byPattern.size() && i < fallbackPatterns.size(); i++) {
+					List<SNACValidationFailure> failures = byPattern.get(i);
+					for (int j = 0; j < failures.size(); j++)
+						found.add(new Found(fallbackPatterns.get(i), j, 0, failures.get(j)));
+				}
+			} catch (SaxonApiException e) {
+				return SNACValidationResult.notWellFormed(xmlFile.getPath(), e.getMessage());
+			}
+		}
+
+		Collections.sort(found, REPORT_ORDER);
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>(found.size());
+		for (Found f : found)
+			failures.add(f.failure);
+		return new SNACValidationResult(xmlFile.getPath(), failures);
+	}
+
+	/**
+	 * Check the streamable patterns over one document
+	 *
+	 * @param in Document to read
+	 * @param systemId System id of the document, for resolving relative references
+	 * @param found List to add failures to
+	 * @throws XMLStreamException If the document is not well-formed
+	 */
+	private void stream(InputStream in, String systemId, List<Found> found) throws XMLStreamException {
+		XMLStreamReader reader = inputFactories.get().createXMLStreamReader(systemId, in);
+		List<Frame> stack = new ArrayList<Frame>();
+		long ordinal = 0;
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Frame frame = open(reader, stack, ordinal++);
+					stack.add(frame);
+					startElement(reader, stack, frame, found);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement(stack, found);
+					stack.remove(stack.size() - 1);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (!stack.isEmpty() && reader.getTextLength() > 0)
+						stack.get(stack.size() - 1).text = true;
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Create the frame for an element that just started, counting it among its siblings
+	 */
+	private static Frame open(XMLStreamReader reader, List<Frame> stack, long ordinal) {
+		String namespace = reader.getNamespaceURI();
+		if (namespace == null)
+			namespace = "";
+		String localName = reader.getLocalName();
+
+		int position = 1;
+		if (!stack.isEmpty()) {
+			Map<String, int[]> siblings = stack.get(stack.size() - 1).children;
+			String key = key(namespace, localName);
+			int[] count = siblings.get(key);
+			if (count == null)
+				siblings.put(key, count = new int[1]);
+			position = ++count[0];
+		}
+
+		// Same location notation as the ISO Schematron stylesheets
+		String segment = namespace.isEmpty() ? "/" + localName + "[" + position + "]"
+				: "/*:" + localName + "[namespace-uri()='" + namespace + "'][" + position + "]";
+		return new Frame(namespace, localName, segment, ordinal);
+	}
+
+	/**
+	 * Fire the matching rules on an element start; decide the attribute-only assertions
+	 */
+	private void startElement(XMLStreamReader reader, List<Frame> stack, Frame frame, List<Found> found) {
+		SNACSchematronModel.Rule[][] rules = getCandidates(frame.namespace, frame.localName);
+		List<SNACSchematronModel.Pattern> patterns = model.getPatterns();
+		for (int p = 0; p < rules.length; p++) {
+			if (!patterns.get(p).streamable)
+				continue;
+			SNACSchematronModel.Rule rule = firstMatch(rules[p], stack);
+			if (rule == null)
+				continue;
+			for (int a = 0; a < rule.assertions.size(); a++) {
+				SNACSchematronModel.Assertion assertion = rule.assertions.get(a);
+				boolean attributes = false;
+				for (SNACSchematronModel.Check check : assertion.checks)
+					if (check.type == SNACSchematronModel.CheckType.ATTRIBUTE
+							&& hasAttribute(reader, check.namespace, check.localName) != check.negated)
+						attributes = true;
+
+				if (assertion.needsChildren()) {
+					if (frame.pending == null)
+						frame.pending = new ArrayList<Pending>();
+					frame.pending.add(new Pending(p, rule, a, attributes));
+				} else if (attributes == assertion.report) {
+					found.add(failure(p, rule, a, stack, frame));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decide the assertions that were waiting for the end of the element
+	 */
+	private static void endElement(List<Frame> stack, List<Found> found) {
+		Frame frame = stack.get(stack.size() - 1);
+		if (frame.pending == null)
+			return;
+		for (Pending pending : frame.pending) {
+			SNACSchematronModel.Assertion assertion = pending.rule.assertions.get(pending.assertion);
+			boolean result = pending.attributes;
+			for (SNACSchematronModel.Check check : assertion.checks) {
+				if (check.type == SNACSchematronModel.CheckType.CHILD)
+					result |= frame.children.containsKey(key(check.namespace, check.localName)) != check.negated;
+				else if (check.type == SNACSchematronModel.CheckType.TEXT)
+					result |= frame.text != check.negated;
+			}
+			if (result == assertion.report)
+				found.add(failure(pending.pattern, pending.rule, pending.assertion, stack, frame));
+		}
+	}
+
+	/**
+	 * Get the rules of each pattern that could match an element with the given name
+	 *
+	 * @return For each pattern, the rules whose last step matches the name, in rule order
+	 */
+	private SNACSchematronModel.Rule[][] getCandidates(String namespace, String localName) {
+		String key = key(namespace, localName);
+		SNACSchematronModel.Rule[][] rules = candidates.get(key);
+		if (rules != null)
+			return rules;
+
+		List<SNACSchematronModel.Pattern> patterns = model.getPatterns();
+		rules = new SNACSchematronModel.Rule[patterns.size()][];
+		for (int p = 0; p < rules.length; p++) {
+			List<SNACSchematronModel.Rule> matching = new ArrayList<SNACSchematronModel.Rule>();
+			if (patterns.get(p).streamable) {
+				for (SNACSchematronModel.Rule rule : patterns.get(p).rules)
+					if (matches(rule.steps.get(rule.steps.size() - 1), namespace, localName))
+						matching.add(rule);
+			}
+			rules[p] = matching.toArray(new SNACSchematronModel.Rule[matching.size()]);
+		}
+		candidates.putIfAbsent(key, rules);
+		return rules;
+	}
+
+	/**
+	 * Find the first candidate rule whose ancestor steps also match
+	 */
+	private static SNACSchematronModel.Rule firstMatch(SNACSchematronModel.Rule[] rules, List<Frame> stack) {
+		for (SNACSchematronModel.Rule rule : rules) {
+			int steps = rule.steps.size();
+			if (steps > stack.size())
+				continue;
+			boolean match = true;
+			for (int s = 0; s < steps - 1 && match; s++) {
+				Frame ancestor = stack.get(stack.size() - steps + s);
+				match = matches(rule.steps.get(s), ancestor.namespace, ancestor.localName);
+			}
+			if (match)
+				return rule;
+		}
+		return null;
+	}
+
+	/**
+	 * Does a context step match an element name
+	 */
+	private static boolean matches(String[] step, String namespace, String localName) {
+		return step[1] == null || (step[0].equals(namespace) && step[1].equals(localName));
+	}
+
+	/**
+	 * Does the current element have the given attribute
+	 */
+	private static boolean hasAttribute(XMLStreamReader reader, String namespace, String localName) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String attrNamespace = reader.getAttributeNamespace(i);
+			if (attrNamespace == null)
+				attrNamespace = "";
+			if (reader.getAttributeLocalName(i).equals(localName) && attrNamespace.equals(namespace))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Create a failure for an assertion on the element at the top of the stack
+	 */
+	private static Found failure(int pattern, SNACSchematronModel.Rule rule, int assertion, List<Frame> stack,
+			Frame frame) {
+		StringBuilder location = new StringBuilder();
+		for (Frame f : stack)
+			location.append(f.segment);
+		SNACSchematronModel.Assertion a = rule.assertions.get(assertion);
+		return new Found(pattern, frame.ordinal, assertion,
+				new SNACValidationFailure(rule.getName(), a.test, location.toString(), a.text));
+	}
+
+	/**
+	 * Map key for an element name
+	 */
+	private static String key(String namespace, String localName) {
+		return "{" + namespace + "}" + localName;
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Validation Cache
+ *
+ * Remembers validation results on disk, keyed by the SHA-256 hash of the document contents
+ * and the hash of the profile (and the engine, since the pure engine words locations
+ * differently).  A document that has not changed since it was last validated against the
+ * same profile gets its result back without being parsed, so re-validating a collection
+ * costs little more than reading the files that did change.
+ *
+ * Entries are small JSON files (validity and the failures) in directories sharded by the
+ * first two characters of the document hash, under the "validation" cache directory.
+ * Entries are written atomically and never modified, so any number of threads and
+ * processes can share the cache.  Set -Dsnac.validation.cache=false to turn it off.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACValidationCache {
+
+	private static final Logger logger = Logger.getLogger(SNACValidationCache.class.getName());
+
+	/**
+	 * Profile the results are for
+	 */
+	private final SNACSchematronProfile profile;
+
+	/**
+	 * Directory for this profile and engine, or null if the cache is off
+	 */
+	private final File directory;
+
+	/**
+	 * Counters for the summary
+	 */
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param profile Profile the cached results are for
+	 */
+	public SNACValidationCache(SNACSchematronProfile profile) {
+		this.profile = profile;
+		File base = SNACIngestSettings.isValidationCacheEnabled() ? SNACIngestSettings.getCacheDirectory("validation") : null;
+		this.directory = base == null ? null
+				: new File(base, profile.getHash() + "-" + SNACIngestSettings.getSchematronEngine().name().toLowerCase());
+	}
+
+	/**
+	 * Validate a file, using the cached result if the file has not changed
+	 *
+	 * @param xmlFile File to validate
+	 * @return The validation result
+	 */
+	public SNACValidationResult validate(File xmlFile) {
+		if (directory == null)
+			return profile.validate(xmlFile);
+
+		String contentHash;
+		try {
+			contentHash = hashFile(xmlFile);
+		} catch (IOException e) {
+			// Let the validator report the unreadable file
+			return profile.validate(xmlFile);
+		}
+
+		SNACValidationResult result = get(xmlFile.getPath(), contentHash);
+		if (result == null) {
+			result = profile.validate(xmlFile);
+			put(contentHash, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Look up a cached result
+	 *
+	 * @param file Name of the document, used in the result
+	 * @param contentHash Hash of the document contents (see hashFile)
+	 * @return The cached result, or null if there is none
+	 */
+	public SNACValidationResult get(String file, String contentHash) {
+		if (directory == null)
+			return null;
+		File entry = entry(contentHash);
+		if (!entry.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try {
+			JSONObject json = new JSONObject(new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8));
+			SNACValidationResult result = SNACValidationResult.fromJSON(file, json);
+			hits.incrementAndGet();
+			return result;
+		} catch (IOException | JSONException e) {
+			// A damaged entry is just a miss; it is replaced when the result is stored again
+			logger.warning("Ignoring damaged validation cache entry " + entry + ": " + e.getMessage());
+			entry.delete();
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Store a result
+	 *
+	 * Failing to store only costs a future validation, so errors are logged and ignored.
+	 *
+	 * @param contentHash Hash of the document contents (see hashFile)
+	 * @param result Result to store
+	 */
+	public void put(String contentHash, SNACValidationResult result) {
+		if (directory == null)
+			return;
+		File entry = entry(contentHash);
+		try {
+			// The file name is not part of the key, so it is not stored either
+			JSONObject json = result.toJSON();
+			json.remove("file");
+
+			entry.getParentFile().mkdirs();
+			SNACSchematronProfile.writeAtomically(entry, json.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (IOException | JSONException e) {
+			logger.warning("Could not store validation result in " + entry + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the number of results served from the cache
+	 *
+	 * @return Cache hits
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of results that had to be computed
+	 *
+	 * @return Cache misses
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Hash the contents of a file
+	 *
+	 * @param file File to hash
+	 * @return Lower-case hex SHA-256 of the file contents
+	 * @throws IOException
+	 */
+	public static String hashFile(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		long start = System.nanoTime();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		} finally {
+			in.close();
+			SNACPhaseTimer.add(SNACPhaseTimer.Phase.READ, start);
+		}
+
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : digest.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * Get the entry file for a document hash
+	 */
+	private File entry(String contentHash) {
+		return new File(new File(directory, contentHash.substring(0, 2)), contentHash + ".json");
+	}
+}
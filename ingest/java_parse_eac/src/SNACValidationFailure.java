@@ -0,0 +1,86 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+/**
+ * SNAC Validation Failure
+ *
+ * One failed assertion (or successful report) from validating an EAC-CPF document against
+ * a Schematron profile.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACValidationFailure {
+
+	/**
+	 * Failure information
+	 */
+	private final String rule;
+	private final String test;
+	private final String location;
+	private final String text;
+
+	/**
+	 * Constructor
+	 *
+	 * @param rule Rule id, or the rule context if the rule has no id
+	 * @param test XPath test of the assertion that failed
+	 * @param location XPath of the node the assertion failed on
+	 * @param text Message of the assertion
+	 */
+	public SNACValidationFailure(String rule, String test, String location, String text) {
+		this.rule = rule;
+		this.test = test;
+		this.location = location;
+		this.text = text;
+	}
+
+	/**
+	 * Get the rule
+	 *
+	 * @return Rule id, or the rule context if the rule has no id
+	 */
+	public String getRule() {
+		return rule;
+	}
+
+	/**
+	 * Get the test
+	 *
+	 * @return XPath test of the assertion that failed
+	 */
+	public String getTest() {
+		return test;
+	}
+
+	/**
+	 * Get the location
+	 *
+	 * @return XPath of the node the assertion failed on
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Get the text
+	 *
+	 * @return Message of the assertion
+	 */
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
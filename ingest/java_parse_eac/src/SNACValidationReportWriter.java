@@ -0,0 +1,167 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * SNAC Validation Report Writer
+ *
+ * Streams validation failures to a report as they are found, one line per failed
+ * assertion: file, rule id, location XPath and the assertion text.  Reports are written
+ * either as JSON Lines or CSV.  Writing is synchronized, so one writer can be shared by
+ * all the threads of a batch validation.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACValidationReportWriter implements Closeable {
+
+	/**
+	 * Report formats
+	 */
+	public enum Format { JSONL, CSV }
+
+	/**
+	 * Report output
+	 */
+	private final Writer writer;
+	private final Format format;
+
+	/**
+	 * Counters for the summary
+	 */
+	private int documents;
+	private int invalidDocuments;
+	private int failures;
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer Writer to send the report to
+	 * @param format Format of the report
+	 * @throws IOException
+	 */
+	public SNACValidationReportWriter(Writer writer, Format format) throws IOException {
+		this.writer = writer;
+		this.format = format;
+		if (format == Format.CSV)
+			writer.write("file,rule,location,text\n");
+	}
+
+	/**
+	 * Open a report file
+	 *
+	 * The format is taken from the file extension: ".csv" for CSV, anything else for JSON Lines.
+	 *
+	 * @param filename Report file to (over)write
+	 * @return The report writer
+	 * @throws IOException
+	 */
+	public static SNACValidationReportWriter open(String filename) throws IOException {
+		Format format = filename.toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSONL;
+		return new SNACValidationReportWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(filename), StandardCharsets.UTF_8)), format);
+	}
+
+	/**
+	 * Write the failures of one document
+	 *
+	 * @param result Validation result
+	 * @throws IOException
+	 */
+	public synchronized void write(SNACValidationResult result) throws IOException {
+		documents++;
+		if (result.isValid())
+			return;
+		invalidDocuments++;
+		long start = System.nanoTime();
+		for (SNACValidationFailure failure : result.getFailures()) {
+			writeLine(result.getFile(), failure.getRule(), failure.getLocation(), failure.getText());
+			failures++;
+		}
+		SNACPhaseTimer.add(SNACPhaseTimer.Phase.WRITE, start);
+	}
+
+	/**
+	 * Get the number of documents reported
+	 *
+	 * @return Documents written to the report
+	 */
+	public synchronized int getDocumentCount() {
+		return documents;
+	}
+
+	/**
+	 * Get the number of invalid documents reported
+	 *
+	 * @return Documents with at least one failure
+	 */
+	public synchronized int getInvalidDocumentCount() {
+		return invalidDocuments;
+	}
+
+	/**
+	 * Get the number of failures reported
+	 *
+	 * @return Failure lines written to the report
+	 */
+	public synchronized int getFailureCount() {
+		return failures;
+	}
+
+	/**
+	 * Flush the report, for long-running writers whose report is read while it grows
+	 */
+	public synchronized void flush() throws IOException {
+		writer.flush();
+	}
+
+	/**
+	 * Flush and close the report
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	/**
+	 * Write one report line
+	 */
+	private void writeLine(String file, String rule, String location, String text) throws IOException {
+		if (format == Format.CSV) {
+			writer.write(csv(file) + "," + csv(rule) + "," + csv(location) + "," + csv(text) + "\n");
+		} else {
+			writer.write("{\"file\":" + JSONObject.quote(file) +
+					",\"rule\":" + JSONObject.quote(rule) +
+					",\"location\":" + JSONObject.quote(location) +
+					",\"text\":" + JSONObject.quote(text) + "}\n");
+		}
+	}
+
+	/**
+	 * Quote a CSV field
+	 *
+	 * @param value Field value (may be null)
+	 * @return The quoted field
+	 */
+	private static String csv(String value) {
+		if (value == null)
+			return "";
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oclc.purl.dsdl.svrl.FailedAssert;
+import org.oclc.purl.dsdl.svrl.FiredRule;
+import org.oclc.purl.dsdl.svrl.SchematronOutputType;
+import org.oclc.purl.dsdl.svrl.SuccessfulReport;
+
+/**
+ * SNAC Validation Result
+ *
+ * The outcome of validating one EAC-CPF document: whether it is valid and the list of
+ * failures, in the order the SVRL report lists them.  Validity is derived from the SVRL
+ * itself (a document is valid when no assertion failed and no report fired), so only one
+ * transformation is needed per document.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACValidationResult {
+
+	/**
+	 * Rule id reported for documents that are not well-formed XML
+	 */
+	public static final String NOT_WELL_FORMED = "not-well-formed";
+
+	/**
+	 * SVRL namespace and the element names read from it
+	 */
+	static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+	private static final QName SVRL_TEXT = new QName(SVRL_NS, "text");
+	private static final QName ATTR_CONTEXT = new QName("context");
+	private static final QName ATTR_ID = new QName("id");
+	private static final QName ATTR_TEST = new QName("test");
+	private static final QName ATTR_LOCATION = new QName("location");
+
+	/**
+	 * Result information
+	 */
+	private final String file;
+	private final List<SNACValidationFailure> failures;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file Document that was validated
+	 * @param failures Failures found in the document
+	 */
+	public SNACValidationResult(String file, List<SNACValidationFailure> failures) {
+		this.file = file;
+		this.failures = Collections.unmodifiableList(failures);
+	}
+
+	/**
+	 * Create a result from an SVRL report
+	 *
+	 * @param file Document that was validated
+	 * @param svrl SVRL document produced by the validation stylesheet
+	 * @return The validation result
+	 */
+	public static SNACValidationResult fromSVRL(String file, XdmNode svrl) {
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>();
+		for (List<SNACValidationFailure> pattern : readSVRL(svrl))
+			failures.addAll(pattern);
+		return new SNACValidationResult(file, failures);
+	}
+
+	/**
+	 * Read the failures in an SVRL report, by pattern
+	 *
+	 * Walks the top-level SVRL elements once.  Each failed-assert or successful-report is
+	 * attributed to the fired-rule that precedes it, and to the pattern of the active-pattern
+	 * before that.
+	 *
+	 * @param svrl SVRL document produced by the validation stylesheet
+	 * @return One list of failures for each active pattern, in report order
+	 */
+	static List<List<SNACValidationFailure>> readSVRL(XdmNode svrl) {
+		List<List<SNACValidationFailure>> patterns = new ArrayList<List<SNACValidationFailure>>();
+		List<SNACValidationFailure> failures = null;
+		XdmNode output = firstElement(svrl);
+		String rule = null;
+		if (output != null) {
+			XdmSequenceIterator it = output.axisIterator(Axis.CHILD);
+			while (it.hasNext()) {
+				XdmNode node = (XdmNode) it.next();
+				if (node.getNodeKind() != XdmNodeKind.ELEMENT || !SVRL_NS.equals(node.getNodeName().getNamespaceURI()))
+					continue;
+				String name = node.getNodeName().getLocalName();
+				if (name.equals("active-pattern")) {
+					failures = new ArrayList<SNACValidationFailure>();
+					patterns.add(failures);
+					rule = null;
+				} else if (name.equals("fired-rule")) {
+					rule = node.getAttributeValue(ATTR_ID);
+					if (rule == null)
+						rule = node.getAttributeValue(ATTR_CONTEXT);
+				} else if (name.equals("failed-assert") || name.equals("successful-report")) {
+					if (failures == null) {
+						failures = new ArrayList<SNACValidationFailure>();
+						patterns.add(failures);
+					}
+					failures.add(new SNACValidationFailure(rule, node.getAttributeValue(ATTR_TEST),
+							node.getAttributeValue(ATTR_LOCATION), getText(node)));
+				}
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Create a result from an SVRL report produced by the pure engine
+	 *
+	 * @param file Document that was validated
+	 * @param svrl SVRL report
+	 * @return The validation result
+	 */
+	public static SNACValidationResult fromSVRL(String file, SchematronOutputType svrl) {
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>();
+		String rule = null;
+		for (Object object : svrl.getActivePatternAndFiredRuleAndFailedAssert()) {
+			if (object instanceof FiredRule) {
+				FiredRule firedRule = (FiredRule) object;
+				rule = firedRule.getId() != null ? firedRule.getId() : firedRule.getContext();
+			} else if (object instanceof FailedAssert) {
+				FailedAssert failedAssert = (FailedAssert) object;
+				failures.add(new SNACValidationFailure(rule, failedAssert.getTest(), failedAssert.getLocation(),
+						normalize(String.valueOf(failedAssert.getText()))));
+			} else if (object instanceof SuccessfulReport) {
+				SuccessfulReport report = (SuccessfulReport) object;
+				failures.add(new SNACValidationFailure(rule, report.getTest(), report.getLocation(),
+						normalize(String.valueOf(report.getText()))));
+			}
+		}
+		return new SNACValidationResult(file, failures);
+	}
+
+	/**
+	 * Create a result from its JSON form
+	 *
+	 * @param file Document that was validated
+	 * @param json Result as written by toJSON
+	 * @return The validation result
+	 * @throws JSONException If the JSON is not a validation result
+	 */
+	public static SNACValidationResult fromJSON(String file, JSONObject json) throws JSONException {
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>();
+		JSONArray array = json.getJSONArray("failures");
+		for (int i = 0; i < array.length(); i++) {
+			JSONObject failure = array.getJSONObject(i);
+			failures.add(new SNACValidationFailure(failure.optString("rule", null), failure.optString("test", null),
+					failure.optString("location", null), failure.optString("text", null)));
+		}
+		return new SNACValidationResult(file, failures);
+	}
+
+	/**
+	 * Get the result as JSON
+	 *
+	 * @return Object with the file, validity and the list of failures
+	 * @throws JSONException
+	 */
+	public JSONObject toJSON() throws JSONException {
+		JSONArray array = new JSONArray();
+		for (SNACValidationFailure failure : failures) {
+			JSONObject json = new JSONObject();
+			json.put("rule", failure.getRule());
+			json.put("test", failure.getTest());
+			json.put("location", failure.getLocation());
+			json.put("text", failure.getText());
+			array.put(json);
+		}
+		JSONObject json = new JSONObject();
+		json.put("file", file);
+		json.put("valid", isValid());
+		json.put("failures", array);
+		return json;
+	}
+
+	/**
+	 * Create a result for a document that could not be parsed
+	 *
+	 * @param file Document that was validated
+	 * @param message Parser error message
+	 * @return The validation result, with one failure
+	 */
+	public static SNACValidationResult notWellFormed(String file, String message) {
+		List<SNACValidationFailure> failures = new ArrayList<SNACValidationFailure>();
+		failures.add(new SNACValidationFailure(NOT_WELL_FORMED, null, "/", message));
+		return new SNACValidationResult(file, failures);
+	}
+
+	/**
+	 * Get the file
+	 *
+	 * @return Document that was validated
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * Is the document valid
+	 *
+	 * @return True if no assertion failed
+	 */
+	public boolean isValid() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * Get the failures
+	 *
+	 * @return Unmodifiable list of failures, in report order
+	 */
+	public List<SNACValidationFailure> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Get the failure messages as display text, one per line
+	 *
+	 * @return The failure messages
+	 */
+	public String getFailureText() {
+		StringBuilder sb = new StringBuilder();
+		for (SNACValidationFailure failure : failures)
+			sb.append(failure.getText()).append("\r\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Get the normalized svrl:text of a failed-assert or successful-report
+	 *
+	 * @param node SVRL element
+	 * @return The message text
+	 */
+	private static String getText(XdmNode node) {
+		XdmSequenceIterator it = node.axisIterator(Axis.CHILD, SVRL_TEXT);
+		if (!it.hasNext())
+			return "";
+		XdmItem text = it.next();
+		return normalize(text.getStringValue());
+	}
+
+	/**
+	 * Normalize the whitespace in a message
+	 *
+	 * @param text Message text
+	 * @return The trimmed text with runs of whitespace collapsed to one space
+	 */
+	static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * Get the document element
+	 *
+	 * @param node Document (or element) node
+	 * @return The first element child, or the node itself if it is an element
+	 */
+	private static XdmNode firstElement(XdmNode node) {
+		if (node.getNodeKind() == XdmNodeKind.ELEMENT)
+			return node;
+		XdmSequenceIterator it = node.axisIterator(Axis.CHILD);
+		while (it.hasNext()) {
+			XdmNode child = (XdmNode) it.next();
+			if (child.getNodeKind() == XdmNodeKind.ELEMENT)
+				return child;
+		}
+		return null;
+	}
+}
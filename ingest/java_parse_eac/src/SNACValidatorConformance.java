@@ -0,0 +1,248 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.sf.saxon.s9api.SaxonApiException;
+
+/**
+ * SNAC Validator Conformance
+ *
+ * Checks that the streaming validator reports exactly the same failures as the XSLT
+ * Schematron engine: same rules, tests, locations and text, in the same order.  Runs over
+ * the given EAC-CPF files, and over a fixture generated from the profile itself in which
+ * every streamable assertion fails at least once (and passes elsewhere).
+ *
+ * Usage: SNACValidatorConformance [-profile file.sch] [input...]
+ *
+ * Exits with 0 if the engines agree on every document.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACValidatorConformance {
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+		int i = 0;
+		if (args.length > 1 && args[0].equals("-profile")) {
+			profileName = args[1];
+			i = 2;
+		}
+
+		SNACSchematronProfile profile = SNACSchematronProfile.getProfile(profileName);
+		SNACStreamingValidator streaming = profile.getStreamingValidator();
+
+		List<File> files = new ArrayList<File>();
+		File fixture = File.createTempFile("conformance", ".xml");
+		fixture.deleteOnExit();
+		writeFixture(streaming.getModel(), fixture);
+		files.add(fixture);
+		for (; i < args.length; i++)
+			SNACBatchValidator.collect(new File(args[i]), files);
+
+		int mismatches = 0;
+		int failures = 0;
+		for (File file : files) {
+			SNACValidationResult expected;
+			try {
+				expected = profile.validate(file.getPath(), SNACSchematronProfile.parse(file),
+						SNACSchematronProfile.Engine.XSLT);
+			} catch (SaxonApiException e) {
+				expected = SNACValidationResult.notWellFormed(file.getPath(), e.getMessage());
+			}
+			SNACValidationResult actual = streaming.validate(file);
+			failures += expected.getFailures().size();
+
+			String difference = compare(expected, actual);
+			if (difference != null) {
+				mismatches++;
+				System.err.println("MISMATCH " + file + ": " + difference);
+			}
+		}
+
+		System.err.println(String.format("%d documents, %d failures compared, %d mismatches (%s)",
+				files.size(), failures, mismatches,
+				streaming.getModel().isStreamable() ? "fully streamed"
+						: streaming.getModel().getFallbackPatterns().size() + " patterns on the Schematron engine"));
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Compare two results
+	 *
+	 * Documents that are not well-formed only need to agree on that, since the parsers word
+	 * their messages differently.
+	 *
+	 * @param expected Result of the XSLT engine
+	 * @param actual Result of the streaming validator
+	 * @return A description of the first difference, or null if they are the same
+	 */
+	static String compare(SNACValidationResult expected, SNACValidationResult actual) {
+		List<SNACValidationFailure> e = expected.getFailures();
+		List<SNACValidationFailure> a = actual.getFailures();
+		boolean expectedBroken = !e.isEmpty() && SNACValidationResult.NOT_WELL_FORMED.equals(e.get(0).getRule());
+		boolean actualBroken = !a.isEmpty() && SNACValidationResult.NOT_WELL_FORMED.equals(a.get(0).getRule());
+		if (expectedBroken || actualBroken)
+			return expectedBroken == actualBroken ? null : "only one engine found the document not well-formed";
+
+		for (int i = 0; i < Math.min(e.size(), a.size()); i++) {
+			if (!describe(e.get(i)).equals(describe(a.get(i))))
+				return "failure " + (i + 1) + " differs:\n  expected " + describe(e.get(i)) + "\n  actual   "
+						+ describe(a.get(i));
+		}
+		if (e.size() != a.size())
+			return "expected " + e.size() + " failures, found " + a.size();
+		return null;
+	}
+
+	/**
+	 * Describe a failure for comparison
+	 */
+	private static String describe(SNACValidationFailure failure) {
+		return failure.getRule() + " | " + failure.getTest() + " | " + failure.getLocation() + " | " + failure.getText();
+	}
+
+	/**
+	 * Write a document that makes every streamable assertion of the profile fail
+	 *
+	 * For each rule, the document holds one element built to fail its assertions, followed
+	 * by a sibling built to pass them, under ancestors matching the rule's context path.
+	 *
+	 * @param model Model of the profile
+	 * @param file File to write
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	static void writeFixture(SNACSchematronModel model, File file) throws IOException, XMLStreamException {
+		// Give every namespace the profile uses a prefix
+		Map<String, String> prefixes = new HashMap<String, String>();
+		prefixes.put(XMLConstants.XML_NS_URI, "xml");
+		String rootNamespace = "";
+		for (SNACSchematronModel.Pattern pattern : model.getPatterns()) {
+			if (!pattern.streamable)
+				continue;
+			for (SNACSchematronModel.Rule rule : pattern.rules) {
+				for (String[] step : rule.steps)
+					if (step[0] != null && !step[0].isEmpty() && rootNamespace.isEmpty())
+						rootNamespace = step[0];
+				for (SNACSchematronModel.Assertion assertion : rule.assertions)
+					for (SNACSchematronModel.Check check : assertion.checks)
+						if (check.namespace != null && !check.namespace.isEmpty() && !prefixes.containsKey(check.namespace))
+							prefixes.put(check.namespace, "ns" + prefixes.size());
+			}
+		}
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("", "fixture", rootNamespace);
+			writer.writeDefaultNamespace(rootNamespace);
+			for (Map.Entry<String, String> prefix : prefixes.entrySet())
+				if (!prefix.getValue().equals("xml"))
+					writer.writeNamespace(prefix.getValue(), prefix.getKey());
+
+			for (SNACSchematronModel.Pattern pattern : model.getPatterns()) {
+				if (!pattern.streamable)
+					continue;
+				for (SNACSchematronModel.Rule rule : pattern.rules) {
+					for (int s = 0; s < rule.steps.size() - 1; s++)
+						startElement(writer, rule.steps.get(s), rootNamespace);
+					writeContext(writer, rule, true, rootNamespace, prefixes);
+					writeContext(writer, rule, false, rootNamespace, prefixes);
+					for (int s = 0; s < rule.steps.size() - 1; s++)
+						writer.writeEndElement();
+				}
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write one context element of a rule, built to fail or to pass all its assertions
+	 */
+	private static void writeContext(XMLStreamWriter writer, SNACSchematronModel.Rule rule, boolean fail,
+			String rootNamespace, Map<String, String> prefixes) throws XMLStreamException {
+		// Later assertions win where two ask for opposite things
+		Map<String, SNACSchematronModel.Check> attributes = new LinkedHashMap<String, SNACSchematronModel.Check>();
+		Map<String, SNACSchematronModel.Check> children = new LinkedHashMap<String, SNACSchematronModel.Check>();
+		Map<String, Boolean> present = new HashMap<String, Boolean>();
+		boolean text = false;
+		for (SNACSchematronModel.Assertion assertion : rule.assertions) {
+			// A failing assert makes every check false; a failing report makes them true
+			boolean target = fail == assertion.report;
+			for (SNACSchematronModel.Check check : assertion.checks) {
+				boolean exists = target != check.negated;
+				String key = check.namespace + " " + check.localName;
+				if (check.type == SNACSchematronModel.CheckType.ATTRIBUTE)
+					attributes.put(key, check);
+				else if (check.type == SNACSchematronModel.CheckType.CHILD)
+					children.put(key, check);
+				else
+					text = exists;
+				present.put(check.type + key, exists);
+			}
+		}
+
+		startElement(writer, rule.steps.get(rule.steps.size() - 1), rootNamespace);
+		for (Map.Entry<String, SNACSchematronModel.Check> attribute : attributes.entrySet()) {
+			SNACSchematronModel.Check check = attribute.getValue();
+			if (!present.get(check.type + attribute.getKey()))
+				continue;
+			if (check.namespace.isEmpty())
+				writer.writeAttribute(check.localName, "x");
+			else
+				writer.writeAttribute(prefixes.get(check.namespace), check.namespace, check.localName, "x");
+		}
+		for (Map.Entry<String, SNACSchematronModel.Check> child : children.entrySet()) {
+			SNACSchematronModel.Check check = child.getValue();
+			if (present.get(check.type + child.getKey()))
+				writer.writeEmptyElement(check.namespace, check.localName);
+		}
+		if (text)
+			writer.writeCharacters("x");
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Start an element for a context step; a wildcard step becomes an "any" element
+	 */
+	private static void startElement(XMLStreamWriter writer, String[] step, String rootNamespace)
+			throws XMLStreamException {
+		String namespace = step[1] == null ? rootNamespace : step[0];
+		writer.writeStartElement("", step[1] == null ? "any" : step[1], namespace);
+		writer.writeDefaultNamespace(namespace);
+	}
+}
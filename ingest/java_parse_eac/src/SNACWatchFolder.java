@@ -0,0 +1,352 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * SNAC Watch Folder
+ *
+ * Ingest service for a directory that other tools drop EAC-CPF files into.  The directory
+ * is watched with a WatchService, so there is no polling: a new or changed .xml file is
+ * validated and parsed a moment after it lands, on a bounded pool of worker threads.
+ * Results go to sibling directories, so writing them never triggers the watch:
+ *
+ *   dir-output/name.json            the constellation (and name.unparsed.txt)
+ *   dir-errors/name.invalid.jsonl   validation failures of an invalid file
+ *   dir-errors/name.error.txt       why a valid file could not be parsed
+ *   dir-errors/validation.jsonl     running report of all validation failures
+ *
+ * A file is only picked up once no change has been seen for the quiet period
+ * (-Dsnac.watch.quiet, 1000 ms by default), so files that are still being written are
+ * left alone.  Hidden files and names not ending in .xml (such as
+ * name.xml.part or name.tmp) are ignored.  On start,
+ * files without an up-to-date output are processed as well.
+ *
+ * Usage: SNACWatchFolder [-threads n] [-profile file.sch] [-url endpoint] directory
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACWatchFolder extends SNACIngestPipeline {
+
+	private static final Logger logger = Logger.getLogger(SNACWatchFolder.class.getName());
+
+	/**
+	 * Watched directory and where errors go
+	 */
+	private final File directory;
+	private final File errorDir;
+	private final long quietMillis;
+
+	/**
+	 * Workers, and the timer that waits out the quiet period
+	 */
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Time each changed file may be processed from, for files waiting out the quiet period
+	 */
+	private final ConcurrentHashMap<Path, Long> pending = new ConcurrentHashMap<Path, Long>();
+
+	private volatile WatchService watcher;
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory Directory to watch
+	 * @param profile Compiled profile to validate against
+	 * @param threads Number of worker threads
+	 * @param client Parser for the valid files
+	 * @param quietMillis How long a file must go unchanged before it is processed
+	 * @throws IOException If the output directories or the report can not be created
+	 */
+	public SNACWatchFolder(File directory, SNACSchematronProfile profile, int threads, SNACConstellationParser client,
+			long quietMillis) throws IOException {
+		super(profile, openReport(sibling(directory, "errors")), threads, client, sibling(directory, "output"));
+		this.directory = directory;
+		this.errorDir = sibling(directory, "errors");
+		this.quietMillis = quietMillis;
+		getOutputDirectory().mkdirs();
+
+		// A full queue makes the timer thread do the work itself, which holds back new files
+		this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String profileName = SNACSchematronProfile.DEFAULT_PROFILE;
+		String url = SNACClient.getURL(SNACParseClient.DEFAULT_URL);
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-profile"))
+				profileName = args[i + 1];
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else
+				usage();
+		}
+		if (args.length - i != 1)
+			usage();
+		File directory = new File(args[i]);
+		if (!directory.isDirectory()) {
+			System.err.println("Not a directory: " + directory);
+			System.exit(2);
+		}
+
+		final SNACWatchFolder watch = new SNACWatchFolder(directory, SNACSchematronProfile.getProfile(profileName),
+				threads, SNACIngestSettings.getParser(url), SNACIngestSettings.getWatchQuietMillis());
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				watch.stop();
+			}
+		}));
+		System.err.println("Watching " + directory + " (output in " + watch.getOutputDirectory() + ", errors in " +
+				watch.errorDir + ")");
+		watch.run();
+	}
+
+	/**
+	 * Watch the directory until stop() is called
+	 *
+	 * @throws IOException If the directory can not be watched
+	 */
+	public void run() throws IOException {
+		watcher = FileSystems.getDefault().newWatchService();
+		Path dir = directory.toPath();
+		dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		// Catch up on files that arrived while the service was not running
+		scan();
+
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+						scan();
+					else
+						changed(dir.resolve((Path) event.context()));
+				}
+				if (!key.reset())
+					break;
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Stopped
+		} finally {
+			stop();
+		}
+	}
+
+	/**
+	 * Stop watching and wait for the files in progress
+	 */
+	public void stop() {
+		try {
+			if (watcher != null)
+				watcher.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+		timer.shutdownNow();
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+			report.close();
+			SNACPhaseTimer.printSummary(System.err);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warning("Could not close the validation report: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Queue the files that have no output newer than themselves
+	 */
+	private void scan() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String base = getBaseName(file);
+			long modified = file.lastModified();
+			if (new File(getOutputDirectory(), base + ".json").lastModified() >= modified ||
+					new File(errorDir, base + ".invalid.jsonl").lastModified() >= modified ||
+					new File(errorDir, base + ".error.txt").lastModified() >= modified)
+				continue;
+			changed(file.toPath());
+		}
+	}
+
+	/**
+	 * Note a change to a file, and process it once it has been quiet long enough
+	 */
+	private void changed(final Path path) {
+		String name = path.getFileName().toString();
+		if (name.startsWith(".") || !name.toLowerCase().endsWith(".xml"))
+			return;
+		// Only schedule a check for the first change; later changes just move the time on
+		if (pending.put(path, System.currentTimeMillis() + quietMillis) == null)
+			schedule(path, quietMillis);
+	}
+
+	/**
+	 * Check a file again after a delay
+	 */
+	private void schedule(final Path path, long delay) {
+		try {
+			timer.schedule(new Runnable() {
+				public void run() {
+					ready(path);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopping
+		}
+	}
+
+	/**
+	 * Hand a file to the workers if it has stayed quiet, or check again later
+	 */
+	private void ready(final Path path) {
+		Long due = pending.get(path);
+		if (due == null)
+			return;
+		long wait = due - System.currentTimeMillis();
+		if (wait > 0) {
+			schedule(path, wait);
+			return;
+		}
+		pending.remove(path, due);
+
+		final File file = path.toFile();
+		if (!file.isFile())
+			return;
+		workers.execute(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				SNACPhaseTimer timer = SNACPhaseTimer.start(file.length());
+				try {
+					process(file);
+					report.flush();
+					logger.info(String.format("Processed %s in %.1fs", file.getName(), (System.nanoTime() - start) / 1e9));
+				} catch (IOException e) {
+					logger.warning("Could not process " + file + ": " + e.getMessage());
+				} finally {
+					timer.finish();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Process a file, clearing the outputs of its previous version first
+	 */
+	@Override
+	protected void process(File file) throws IOException {
+		String base = getBaseName(file);
+		for (File old : new File[] { new File(errorDir, base + ".invalid.jsonl"), new File(errorDir, base + ".error.txt"),
+				new File(getOutputDirectory(), base + ".json"), new File(getOutputDirectory(), base + ".unparsed.txt") })
+			old.delete();
+		super.process(file);
+	}
+
+	/**
+	 * Write the failures of an invalid file next to the other errors
+	 */
+	@Override
+	protected void invalid(File file, SNACValidationResult validation) throws IOException {
+		SNACValidationReportWriter failures = SNACValidationReportWriter.open(
+				new File(errorDir, getBaseName(file) + ".invalid.jsonl").getPath());
+		try {
+			failures.write(validation);
+		} finally {
+			failures.close();
+		}
+	}
+
+	/**
+	 * Write why a valid file could not be parsed
+	 */
+	@Override
+	protected void parseFailed(File file, Exception e) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(errorDir, getBaseName(file) + ".error.txt")),
+				StandardCharsets.UTF_8);
+		try {
+			writer.write(file + ": " + e + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Get a sibling directory of the watched directory
+	 */
+	private static File sibling(File directory, String suffix) {
+		File absolute = directory.getAbsoluteFile();
+		return new File(absolute.getParentFile(), absolute.getName() + "-" + suffix);
+	}
+
+	/**
+	 * Open the running validation report, appending to what is there
+	 */
+	private static SNACValidationReportWriter openReport(File errorDir) throws IOException {
+		errorDir.mkdirs();
+		return new SNACValidationReportWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(errorDir, "validation.jsonl"), true), StandardCharsets.UTF_8)),
+				SNACValidationReportWriter.Format.JSONL);
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Validate and parse EAC-CPF files as they are dropped into a directory\n" +
+				"Usage: SNACWatchFolder [-threads n] [-profile file.sch] [-url endpoint] directory\n\n" +
+				"Constellations are written to directory-output, failures to directory-errors.\n" +
+				"Files are picked up once unchanged for -D" + SNACIngestSettings.WATCH_QUIET + " ms.");
+		System.exit(2);
+	}
+}
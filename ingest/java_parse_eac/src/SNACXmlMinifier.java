@@ -0,0 +1,222 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * SNAC XML Minifier
+ *
+ * Rewrites an XML document in one streaming pass without the parts that do not change its
+ * meaning to SNAC, before it is uploaded:
+ *  - comments
+ *  - indentation (whitespace-only text that contains a line break) between element-only
+ *    children; in mixed content, where it separates words, it is collapsed to one space, and
+ *    the whitespace that is all the text of a leaf element is kept as it is
+ *  - namespace declarations that repeat a binding already in scope
+ *  - CDATA sections, which are written as escaped text
+ * The output is always UTF-8.  Pretty-printed exports typically shrink by a third to a half.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACXmlMinifier {
+
+	/**
+	 * One StAX input factory per thread (the factories are not thread-safe to configure)
+	 */
+	private static final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			return factory;
+		}
+	};
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	/**
+	 * Minify a document
+	 *
+	 * @param in Document to read (left open)
+	 * @param out Stream to write the minified document to (left open)
+	 * @throws IOException If the document can not be read or is not well-formed
+	 */
+	public static void minify(InputStream in, OutputStream out) throws IOException {
+		XMLStreamReader reader = null;
+		XMLStreamWriter writer = null;
+		try {
+			reader = inputFactories.get().createXMLStreamReader(in);
+			writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+			copy(reader, writer);
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not minify: " + e.getMessage(), e);
+		} finally {
+			try {
+				if (writer != null)
+					writer.close();
+				if (reader != null)
+					reader.close();
+			} catch (XMLStreamException e) {
+				// Nothing left to write
+			}
+		}
+	}
+
+	/**
+	 * Copy the events of a document
+	 */
+	private static void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		// Namespace bindings in scope, one map of prefix to URI per open element
+		Deque<Map<String, String>> scopes = new ArrayDeque<Map<String, String>>();
+		scopes.push(new HashMap<String, String>());
+		// Content of the open elements
+		Deque<Content> contents = new ArrayDeque<Content>();
+		contents.push(new Content());
+		// Indentation not written yet: what it becomes depends on the next event
+		StringBuilder pending = new StringBuilder();
+
+		writer.writeStartDocument("UTF-8", "1.0");
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamReader.START_ELEMENT: {
+				Content parent = contents.peek();
+				// A child right after the start tag is written inline, not indented
+				if (!parent.elements && !parent.indented)
+					parent.mixed = true;
+				writeSeparator(writer, pending, parent);
+				parent.elements = true;
+
+				Map<String, String> scope = new HashMap<String, String>(scopes.peek());
+				String prefix = reader.getPrefix() == null ? "" : reader.getPrefix();
+				String namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+				writer.writeStartElement(prefix, reader.getLocalName(), namespace);
+				for (int i = 0; i < reader.getNamespaceCount(); i++) {
+					String p = reader.getNamespacePrefix(i) == null ? "" : reader.getNamespacePrefix(i);
+					String uri = reader.getNamespaceURI(i) == null ? "" : reader.getNamespaceURI(i);
+					if (uri.equals(scope.get(p)) || (p.isEmpty() && uri.isEmpty() && !scope.containsKey(p)))
+						continue;
+					scope.put(p, uri);
+					if (p.isEmpty())
+						writer.writeDefaultNamespace(uri);
+					else
+						writer.writeNamespace(p, uri);
+				}
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					String p = reader.getAttributePrefix(i);
+					String uri = reader.getAttributeNamespace(i);
+					if (uri == null || uri.isEmpty())
+						writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+					else
+						writer.writeAttribute(p == null ? "" : p, uri, reader.getAttributeLocalName(i),
+								reader.getAttributeValue(i));
+				}
+				scopes.push(scope);
+				contents.push(new Content());
+				break;
+			}
+			case XMLStreamReader.END_ELEMENT: {
+				Content content = contents.pop();
+				if (!content.elements) {
+					// Whitespace is all the text of a leaf element: it is its value, not indentation
+					if (pending.length() > 0)
+						writer.writeCharacters(pending.toString());
+					pending.setLength(0);
+				} else
+					writeSeparator(writer, pending, content);
+				writer.writeEndElement();
+				scopes.pop();
+				break;
+			}
+			case XMLStreamReader.CHARACTERS:
+			case XMLStreamReader.CDATA: {
+				Content content = contents.peek();
+				if (isIndentation(reader)) {
+					content.indented = true;
+					pending.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				} else {
+					content.mixed = true;
+					writeSeparator(writer, pending, content);
+					writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+			}
+			case XMLStreamReader.PROCESSING_INSTRUCTION:
+				writeSeparator(writer, pending, contents.peek());
+				writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+				break;
+			case XMLStreamReader.DTD:
+				writer.writeDTD(reader.getText());
+				break;
+			default:
+				// Comments and whitespace outside the root element
+				break;
+			}
+		}
+		writer.writeEndDocument();
+	}
+
+	/**
+	 * Write the pending indentation before the next sibling or the end of its element: a single
+	 * space in mixed content, where it separates words, and nothing between element-only children
+	 */
+	private static void writeSeparator(XMLStreamWriter writer, StringBuilder pending, Content content)
+			throws XMLStreamException {
+		if (pending.length() == 0)
+			return;
+		pending.setLength(0);
+		if (content.mixed)
+			writer.writeCharacters(" ");
+	}
+
+	/**
+	 * Is the current text only indentation: whitespace with a line break
+	 */
+	private static boolean isIndentation(XMLStreamReader reader) {
+		char[] text = reader.getTextCharacters();
+		int end = reader.getTextStart() + reader.getTextLength();
+		boolean lineBreak = false;
+		for (int i = reader.getTextStart(); i < end; i++) {
+			char c = text[i];
+			if (c == '\n' || c == '\r')
+				lineBreak = true;
+			else if (c != ' ' && c != '\t')
+				return false;
+		}
+		return lineBreak;
+	}
+
+	/**
+	 * What is known so far of the content of an open element.  It is mixed once it has text
+	 * other than indentation, or a child element right after its start tag.
+	 */
+	private static class Content {
+		boolean mixed;
+		boolean elements;
+		boolean indented;
+	}
+}
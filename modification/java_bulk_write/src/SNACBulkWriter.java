@@ -0,0 +1,457 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Bulk Writer
+ *
+ * Inserts and publishes a directory of constellation JSON files, such as the output of
+ * SNACJavaParserWorker or SNACIngestPipeline, the way insert_publish_example.php does for
+ * one record, but several at a time.  Each file is inserted with insert_constellation and
+ * the constellation SNAC returns is published with publish_constellation.
+ *
+ * Every step is recorded in a journal (see SNACWriteJournal) before the next is taken, so
+ * the same command can be run again after an interruption or failure: constellations that
+ * were published are skipped, those that were inserted are only published, and files with
+ * the same contents as one already written are not inserted again.  An insert that was sent
+ * but never answered may or may not have reached SNAC; it is not sent again, but listed in
+ * failures.csv to be checked.  Only requests SNAC never received are retried on the spot.
+ *
+ * The user file holds the user object from SNAC's API key page.
+ *
+ * Usage: SNACBulkWriter [-threads n] [-url endpoint] [-retries n] [-message text] user.json input-dir [journal-dir]
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACBulkWriter {
+
+	/**
+	 * Default endpoint: the development server, as in insert_publish_example.php
+	 */
+	public static final String DEFAULT_URL = "http://snac-dev.iath.virginia.edu/api/";
+
+	/**
+	 * Name of the list of failed files in the journal directory
+	 */
+	public static final String FAILURES_FILENAME = "failures.csv";
+
+	/**
+	 * Write settings
+	 */
+	private final SNACWriteClient client;
+	private final SNACWriteJournal journal;
+	private final File journalDir;
+	private final int threads;
+	private final int retries;
+
+	/**
+	 * Counters for the summary
+	 */
+	private final AtomicInteger inserted = new AtomicInteger();
+	private final AtomicInteger published = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger duplicates = new AtomicInteger();
+	private final AtomicInteger retried = new AtomicInteger();
+
+	/**
+	 * Files that could not be written, with the reason
+	 */
+	private final List<String[]> failures = new ArrayList<String[]>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param client Client to write with
+	 * @param journalDir Directory of the journal and the list of failures
+	 * @param threads Number of constellations to write at a time
+	 * @param retries Times to send a request again that SNAC did not receive
+	 * @throws IOException If the journal can not be opened
+	 */
+	public SNACBulkWriter(SNACWriteClient client, File journalDir, int threads, int retries) throws IOException {
+		this.client = client;
+		this.journalDir = journalDir;
+		this.threads = threads;
+		this.retries = retries;
+		this.journal = new SNACWriteJournal(journalDir);
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = 4;
+		int retries = 3;
+		String url = SNACClient.getURL(DEFAULT_URL);
+		String message = "Bulk write of constellation JSON files";
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else if (args[i].equals("-retries"))
+				retries = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-message"))
+				message = args[i + 1];
+			else
+				usage();
+		}
+		if (args.length - i < 2 || args.length - i > 3)
+			usage();
+
+		JSONObject user = new JSONObject(new String(Files.readAllBytes(new File(args[i]).toPath()),
+				StandardCharsets.UTF_8));
+		File inputDir = new File(args[i + 1]);
+		File journalDir = args.length - i > 2 ? new File(args[i + 2]) : inputDir;
+		if (!inputDir.isDirectory())
+			usage();
+		journalDir.mkdirs();
+
+		// One pooled keep-alive connection per thread; this must be set before the first request
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+
+		List<File> files = listFiles(inputDir);
+		SNACBulkWriter writer = new SNACBulkWriter(new SNACWriteClient(url, user, message), journalDir, threads,
+				retries);
+		long start = System.nanoTime();
+		try {
+			writer.run(files);
+		} finally {
+			writer.journal.close();
+		}
+		writer.printSummary(files.size(), (System.nanoTime() - start) / 1e9);
+		System.exit(writer.failures.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Write the constellations
+	 *
+	 * At most a few files per thread are queued at a time.
+	 *
+	 * @param files Constellation JSON files
+	 * @throws IOException If the list of failures can not be written
+	 * @throws InterruptedException
+	 */
+	public void run(List<File> files) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Semaphore queued = new Semaphore(threads * 4);
+		final AtomicInteger finished = new AtomicInteger();
+		final int total = files.size();
+
+		try {
+			for (final File file : files) {
+				queued.acquire();
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							write(file);
+						} catch (IOException e) {
+							failed(file, "Could not record the write: " + e.getMessage());
+						} finally {
+							queued.release();
+						}
+						int count = finished.incrementAndGet();
+						if (count % 100 == 0)
+							System.err.println(String.format("%d of %d files: %d published, %d failed", count, total,
+									published.get(), getFailureCount()));
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		writeFailures();
+	}
+
+	/**
+	 * Insert and publish one constellation, taking up where the journal left it
+	 *
+	 * @param file Constellation JSON file
+	 * @throws IOException If the journal can not be written
+	 */
+	private void write(File file) throws IOException {
+		byte[] bytes;
+		JSONObject constellation;
+		try {
+			bytes = Files.readAllBytes(file.toPath());
+			constellation = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+		} catch (IOException | JSONException e) {
+			failed(file, "Not a constellation JSON file: " + e.getMessage());
+			return;
+		}
+		if (constellation.optJSONObject("constellation") != null)
+			constellation = constellation.optJSONObject("constellation");
+
+		String hash = hash(bytes);
+		String name = file.getName();
+		if (!journal.claim(hash)) {
+			duplicates.incrementAndGet();
+			return;
+		}
+		SNACWriteJournal.Entry entry = journal.get(hash);
+		String state = entry != null ? entry.getState() : null;
+		if (SNACWriteJournal.PUBLISHED.equals(state)) {
+			skipped.incrementAndGet();
+			return;
+		}
+		if (SNACWriteJournal.SENDING.equals(state)) {
+			failed(file, "An earlier insert was not confirmed; check SNAC for it, then remove its lines from "
+					+ SNACWriteJournal.FILENAME + " to send it again");
+			return;
+		}
+
+		if (!SNACWriteJournal.INSERTED.equals(state)) {
+			if (!constellation.optString("id", "").isEmpty()) {
+				failed(file, "Already in SNAC as constellation " + constellation.optString("id", ""));
+				return;
+			}
+			markInsert(constellation);
+
+			journal.add(hash, SNACWriteJournal.SENDING, name, null, null, null);
+			JSONObject response;
+			try {
+				response = send(true, constellation);
+			} catch (SNACClient.NotSentException e) {
+				journal.add(hash, SNACWriteJournal.FAILED, name, null, null, null);
+				failed(file, "Insert not sent: " + e.getMessage());
+				return;
+			} catch (IOException e) {
+				failed(file, "Insert not confirmed (" + e.getMessage() + "); check SNAC for it before sending it again");
+				return;
+			}
+			JSONObject written = response.optJSONObject("constellation");
+			if (written == null || written.optString("id", "").isEmpty()) {
+				journal.add(hash, SNACWriteJournal.FAILED, name, null, null, null);
+				failed(file, "Insert refused: " + String.valueOf(response.opt("error")));
+				return;
+			}
+			entry = new SNACWriteJournal.Entry(SNACWriteJournal.INSERTED, name, written.optString("id", ""),
+					written.optString("version", ""), written.optString("ark", ""));
+			journal.add(hash, SNACWriteJournal.INSERTED, name, entry.getId(), entry.getVersion(), entry.getArk());
+			inserted.incrementAndGet();
+		}
+
+		JSONObject response;
+		try {
+			response = send(false, new JSONObject()
+					.put("dataType", "Constellation")
+					.put("id", entry.getId())
+					.put("version", entry.getVersion()));
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			failed(file, "Inserted as " + entry.getId() + " but not published: " + e.getMessage());
+			return;
+		}
+		JSONObject publishedConstellation = response.optJSONObject("constellation");
+		if (publishedConstellation == null) {
+			failed(file, "Inserted as " + entry.getId() + " but publishing was refused: " + String.valueOf(response.opt("error")));
+			return;
+		}
+		String ark = publishedConstellation.optString("ark", entry.getArk());
+		journal.add(hash, SNACWriteJournal.PUBLISHED, name, entry.getId(),
+				publishedConstellation.optString("version", entry.getVersion()), ark);
+		published.incrementAndGet();
+	}
+
+	/**
+	 * Send an insert or publish, again and again while SNAC does not receive it
+	 *
+	 * @param insert True to insert, false to publish
+	 * @param constellation Constellation to send
+	 * @return SNAC's response
+	 * @throws IOException If it could not be sent, or the outcome is unknown
+	 */
+	private JSONObject send(boolean insert, JSONObject constellation) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			try {
+				return insert ? client.insert(constellation) : client.publish(constellation);
+			} catch (SNACClient.NotSentException e) {
+				if (attempt >= retries)
+					throw e;
+				retried.incrementAndGet();
+				try {
+					// Back off: 1, 2, 4... seconds
+					Thread.sleep(1000L << Math.min(attempt, 6));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mark the parts of a new constellation to be inserted
+	 *
+	 * SNAC only inserts the parts that say "operation": "insert".  Vocabulary terms are
+	 * references to what SNAC already has, so they are left alone.
+	 *
+	 * @param value Constellation, or part of one
+	 */
+	static void markInsert(Object value) {
+		try {
+			if (value instanceof JSONObject) {
+				JSONObject object = (JSONObject) value;
+				if (object.has("dataType") && !object.optString("dataType", "").equals("Term")
+						&& !object.has("operation"))
+					object.put("operation", "insert");
+				JSONArray names = object.names();
+				for (int i = 0; names != null && i < names.length(); i++)
+					markInsert(object.opt(names.getString(i)));
+			} else if (value instanceof JSONArray) {
+				JSONArray array = (JSONArray) value;
+				for (int i = 0; i < array.length(); i++)
+					markInsert(array.opt(i));
+			}
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void failed(File file, String reason) {
+		synchronized (failures) {
+			failures.add(new String[] { file.getPath(), reason });
+		}
+	}
+
+	private int getFailureCount() {
+		synchronized (failures) {
+			return failures.size();
+		}
+	}
+
+	/**
+	 * Write the failed files, with the reason as a second column
+	 */
+	private void writeFailures() throws IOException {
+		File file = new File(journalDir, FAILURES_FILENAME);
+		synchronized (failures) {
+			if (failures.isEmpty()) {
+				file.delete();
+				return;
+			}
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+			try {
+				writer.write("File,Error\n");
+				for (String[] failure : failures)
+					writer.write("\"" + failure[0].replace("\"", "\"\"") + "\",\""
+							+ failure[1].replace("\"", "\"\"").replaceAll("[\r\n]+", " ") + "\"\n");
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Print the summary
+	 *
+	 * @param listed Number of files in the input directory
+	 * @param seconds Time the run took
+	 */
+	private void printSummary(int listed, double seconds) {
+		System.err.println(String.format("%d files: %d inserted, %d published, %d already published, %d duplicates, %d failed (%d retries)",
+				listed, inserted.get(), published.get(), skipped.get(), duplicates.get(), getFailureCount(),
+				retried.get()));
+		System.err.println(String.format("%.1fs: %.1f constellations/s on %d threads", seconds,
+				published.get() / seconds, threads));
+		client.printMetrics(System.err);
+
+		synchronized (failures) {
+			int shown = 0;
+			for (String[] failure : failures) {
+				if (shown++ == 10) {
+					System.err.println("  ...");
+					break;
+				}
+				System.err.println("  " + failure[0] + ": " + failure[1]);
+			}
+			if (!failures.isEmpty())
+				System.err.println("Failed files are listed in " + new File(journalDir, FAILURES_FILENAME));
+		}
+	}
+
+	/**
+	 * List the constellation JSON files of a directory, in name order
+	 *
+	 * @param directory Input directory
+	 * @return The .json files
+	 */
+	static List<File> listFiles(File directory) {
+		File[] files = directory.listFiles();
+		List<File> list = new ArrayList<File>();
+		if (files == null)
+			return list;
+		Arrays.sort(files);
+		for (File file : files)
+			if (file.isFile() && file.getName().endsWith(".json"))
+				list.add(file);
+		return list;
+	}
+
+	/**
+	 * Hash the contents of a file
+	 */
+	private static String hash(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest)
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Insert and publish a directory of constellation JSON files\n" +
+				"Usage: SNACBulkWriter [-threads n] [-url endpoint] [-retries n] [-message text] user.json input-dir [journal-dir]\n\n" +
+				"user.json should hold the user object from SNAC's API key page.\n" +
+				"Progress is recorded in the journal directory's " + SNACWriteJournal.FILENAME + " (the input directory\n" +
+				"by default); running again only writes what is not published yet.");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Write Client
+ *
+ * Sends the insert_constellation and publish_constellation commands of
+ * insert_publish_example.php on behalf of a user.
+ *
+ * A write that fails on the way may or may not have been carried out by SNAC, so the client
+ * tells the caller which failures are safe to send again: a SNACClient.NotSentException
+ * means SNAC never received the request (the connection could not be opened or SNAC
+ * answered that it was too busy), and any other IOException means the outcome is unknown.
+ *
+ * Requests go through the shared SNACClient, over keep-alive connections.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACWriteClient {
+
+	/**
+	 * Client of the endpoint, user and edit message of the writes
+	 */
+	private final SNACClient client;
+	private final JSONObject user;
+	private final String message;
+
+	/**
+	 * Constructor
+	 *
+	 * @param url SNAC REST endpoint
+	 * @param user User object from the SNAC API key page
+	 * @param message Message recorded with each change
+	 */
+	public SNACWriteClient(String url, JSONObject user, String message) {
+		this.client = SNACClient.get(url);
+		this.user = user;
+		this.message = message;
+	}
+
+	/**
+	 * Insert a constellation
+	 *
+	 * @param constellation Constellation, with "operation": "insert" on its parts
+	 * @return SNAC's response, with the inserted constellation (and its new ID and version)
+	 *         in "constellation", or an "error"
+	 * @throws SNACClient.NotSentException If SNAC did not receive the request
+	 * @throws IOException If the request failed after it was sent
+	 */
+	public JSONObject insert(JSONObject constellation) throws IOException {
+		return send("insert_constellation", constellation);
+	}
+
+	/**
+	 * Publish a constellation
+	 *
+	 * @param constellation Constellation with the ID and version to publish
+	 * @return SNAC's response, with the published constellation in "constellation", or an
+	 *         "error"
+	 * @throws SNACClient.NotSentException If SNAC did not receive the request
+	 * @throws IOException If the request failed after it was sent
+	 */
+	public JSONObject publish(JSONObject constellation) throws IOException {
+		return send("publish_constellation", constellation);
+	}
+
+	/**
+	 * Print the metrics of the requests sent
+	 *
+	 * @param out Stream to print to
+	 */
+	public void printMetrics(PrintStream out) {
+		client.printMetrics(out);
+	}
+
+	/**
+	 * Send a command
+	 *
+	 * @param command SNAC command
+	 * @param constellation Constellation to send with it
+	 * @return The response
+	 * @throws IOException
+	 */
+	private JSONObject send(String command, JSONObject constellation) throws IOException {
+		JSONObject query;
+		try {
+			query = new JSONObject()
+					.put("command", command)
+					.put("user", user)
+					.put("constellation", constellation)
+					.put("message", message);
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			return client.send(query);
+		} catch (SNACClient.HttpException e) {
+			// SNAC explains what it refused in a JSON body.  After a server error, whether the
+			// command was carried out is unknown, so it is never taken for a refusal.
+			if (e.getStatus() < 400 || e.getStatus() >= 500)
+				throw e;
+			try {
+				return new JSONObject(e.getBody());
+			} catch (JSONException je) {
+				throw e;
+			}
+		}
+	}
+}
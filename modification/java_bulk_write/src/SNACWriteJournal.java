@@ -0,0 +1,208 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SNAC Write Journal
+ *
+ * Records how far each constellation of a bulk write has got, so that running the write
+ * again never inserts a constellation twice.  Constellations are identified by the SHA-256
+ * hash of their file, so a renamed or copied file is recognized too.
+ *
+ * The journal is a tab-separated file with one line per step: hash, state, filename, and
+ * the constellation ID, version and ark SNAC gave it.  The last line of a hash is its
+ * state:
+ *
+ *   sending    the insert was sent, but SNAC's answer has not been recorded
+ *   inserted   SNAC inserted it; it still has to be published
+ *   published  it is done
+ *   failed     SNAC refused it, so it was not inserted and can be sent again
+ *
+ * Lines are flushed as they are written, so after a crash the journal knows everything
+ * except the answers to the requests that were in flight, which are left as "sending".
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACWriteJournal implements Closeable {
+
+	/**
+	 * Name of the journal file
+	 */
+	public static final String FILENAME = "written.tsv";
+
+	/**
+	 * States of a constellation
+	 */
+	public static final String SENDING = "sending";
+	public static final String INSERTED = "inserted";
+	public static final String PUBLISHED = "published";
+	public static final String FAILED = "failed";
+
+	/**
+	 * The last journal line of a constellation
+	 */
+	public static class Entry {
+		private final String state;
+		private final String filename;
+		private final String id;
+		private final String version;
+		private final String ark;
+
+		Entry(String state, String filename, String id, String version, String ark) {
+			this.state = state;
+			this.filename = filename;
+			this.id = id;
+			this.version = version;
+			this.ark = ark;
+		}
+
+		public String getState() {
+			return state;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public String getArk() {
+			return ark;
+		}
+	}
+
+	/**
+	 * Last entry of each hash
+	 */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Hashes being worked on in this run
+	 */
+	private final Set<String> claimed = new HashSet<String>();
+
+	private final Writer writer;
+
+	/**
+	 * Constructor
+	 *
+	 * Reads the journal of the directory, if there is one, and opens it for appending.
+	 *
+	 * @param directory Journal directory
+	 * @throws IOException If the journal can not be read or opened
+	 */
+	public SNACWriteJournal(File directory) throws IOException {
+		File file = new File(directory, FILENAME);
+		if (file.isFile()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+					StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", -1);
+					// A line cut short by a crash says nothing
+					if (fields.length >= 6)
+						entries.put(fields[0], new Entry(fields[1], fields[2], fields[3], fields[4], fields[5]));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get the state of a constellation
+	 *
+	 * @param hash Hash of the constellation's file
+	 * @return The last entry, or null if the journal does not have it
+	 */
+	public synchronized Entry get(String hash) {
+		return entries.get(hash);
+	}
+
+	/**
+	 * Claim a constellation for this run, so that a copy of it in another file is not
+	 * written at the same time
+	 *
+	 * @param hash Hash of the constellation's file
+	 * @return True if no other file with the same contents has been claimed
+	 */
+	public synchronized boolean claim(String hash) {
+		return claimed.add(hash);
+	}
+
+	/**
+	 * Record a step
+	 *
+	 * @param hash Hash of the constellation's file
+	 * @param state New state
+	 * @param filename Name of the file
+	 * @param id Constellation ID, or null
+	 * @param version Constellation version, or null
+	 * @param ark Ark, or null
+	 * @throws IOException If the journal can not be written
+	 */
+	public synchronized void add(String hash, String state, String filename, String id, String version, String ark)
+			throws IOException {
+		Entry entry = new Entry(state, clean(filename), clean(id), clean(version), clean(ark));
+		writer.write(hash + "\t" + entry.state + "\t" + entry.filename + "\t" + entry.id + "\t" + entry.version + "\t"
+				+ entry.ark + "\n");
+		writer.flush();
+		entries.put(hash, entry);
+	}
+
+	/**
+	 * Count the constellations in a state
+	 *
+	 * @param state State
+	 * @return Constellations whose last entry has that state, including those of earlier runs
+	 */
+	public synchronized int count(String state) {
+		int count = 0;
+		for (Entry entry : entries.values())
+			if (entry.state.equals(state))
+				count++;
+		return count;
+	}
+
+	/**
+	 * Close the journal
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	private static String clean(String field) {
+		return field == null ? "" : field.replaceAll("[\t\r\n]", " ");
+	}
+}
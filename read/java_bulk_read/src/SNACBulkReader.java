@@ -0,0 +1,419 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Bulk Reader
+ *
+ * Downloads the constellations of a list of ICIDs, like read_from_list.php, but many at a
+ * time.  Each thread sends download_constellation requests over its own keep-alive
+ * connection and streams the file in each response straight to disk (see
+ * SNACConstellationDownloader).  Requests that fail on the way (timeouts, dropped
+ * connections, server errors) are tried again after a pause; ICIDs that SNAC refuses are
+ * not.
+ *
+ * Finished downloads are recorded in a journal in the download directory (see
+ * SNACDownloadJournal), so running the same command again after an interruption only
+ * fetches what is missing.  At the end a summary of throughput and failures is printed,
+ * and the ICIDs that failed are written to failures.csv, which can be given back as the
+ * list to try them again.
+ *
+ * Constellation JSON downloads are kept in the local constellation store (see
+ * SNACConstellationStore), and constellations the store already has are written from it
+ * without asking SNAC.  Run with -Dsnac.store=false to download everything again.
+ *
+ * Usage: SNACBulkReader [-threads n] [-url endpoint] [-retries n] list.csv [directory] [type]
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACBulkReader {
+
+	/**
+	 * Default endpoint
+	 */
+	public static final String DEFAULT_URL = "http://api.snaccooperative.org/";
+
+	/**
+	 * Name of the list of failed ICIDs in the download directory
+	 */
+	public static final String FAILURES_FILENAME = "failures.csv";
+
+	/**
+	 * Download settings
+	 */
+	private final SNACConstellationDownloader downloader;
+	private final String type;
+	private final File directory;
+	private final int threads;
+	private final int retries;
+	private final SNACDownloadJournal journal;
+
+	/**
+	 * Local copies of constellations, or null if there is none or the type is not stored
+	 */
+	private final SNACConstellationStore store;
+
+	/**
+	 * Counters for the summary
+	 */
+	private final AtomicInteger downloaded = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger stored = new AtomicInteger();
+	private final AtomicInteger retried = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong downloadNanos = new AtomicLong();
+	private final AtomicLong slowestNanos = new AtomicLong();
+
+	/**
+	 * ICIDs that could not be downloaded, with the reason
+	 */
+	private final List<String[]> failures = new ArrayList<String[]>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param url SNAC REST endpoint
+	 * @param type Type of file to download: eac-cpf or constellation_json
+	 * @param directory Directory to download to
+	 * @param threads Number of downloads at a time
+	 * @param retries Times to try a failed download again
+	 * @throws IOException If the journal can not be opened
+	 */
+	public SNACBulkReader(String url, String type, File directory, int threads, int retries) throws IOException {
+		this.downloader = new SNACConstellationDownloader(url, type);
+		this.type = type;
+		this.directory = directory;
+		this.threads = threads;
+		this.retries = retries;
+		this.journal = new SNACDownloadJournal(directory);
+		this.store = type.equals("constellation_json") ? SNACConstellationStore.getDefault() : null;
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = 8;
+		int retries = 3;
+		String url = SNACClient.getURL(DEFAULT_URL);
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else if (args[i].equals("-retries"))
+				retries = Integer.parseInt(args[i + 1]);
+			else
+				usage();
+		}
+		if (args.length - i < 1 || args.length - i > 3)
+			usage();
+
+		File list = new File(args[i]);
+		File directory = new File(args.length - i > 1 ? args[i + 1] : ".");
+		String type = args.length - i > 2 ? args[i + 2] : "eac-cpf";
+		if (!type.equals("eac-cpf") && !type.equals("constellation_json"))
+			usage();
+		directory.mkdirs();
+
+		// One pooled keep-alive connection per thread; this must be set before the first request
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+
+		List<String> icids = readList(list);
+		SNACBulkReader reader = new SNACBulkReader(url, type, directory, threads, retries);
+		long start = System.nanoTime();
+		try {
+			reader.run(icids);
+		} finally {
+			reader.journal.close();
+		}
+		reader.printSummary(icids.size(), (System.nanoTime() - start) / 1e9);
+		System.exit(reader.failures.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Download the constellations
+	 *
+	 * At most a few downloads per thread are queued at a time.
+	 *
+	 * @param icids ICIDs to download
+	 * @throws IOException If the journal or the list of failures can not be written
+	 * @throws InterruptedException
+	 */
+	public void run(List<String> icids) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Semaphore queued = new Semaphore(threads * 4);
+		final AtomicInteger finished = new AtomicInteger();
+		final int total = icids.size();
+
+		try {
+			for (final String icid : icids) {
+				if (journal.isDone(icid, type)) {
+					skipped.incrementAndGet();
+					continue;
+				}
+				queued.acquire();
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							download(icid);
+						} finally {
+							queued.release();
+						}
+						int count = finished.incrementAndGet();
+						if (count % 100 == 0)
+							System.err.println(String.format("%d of %d downloaded, %d failed", downloaded.get(),
+									total - skipped.get(), getFailureCount()));
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		writeFailures();
+	}
+
+	/**
+	 * Download one constellation, trying again if the request fails on the way
+	 *
+	 * @param icid ICID to download
+	 */
+	private void download(String icid) {
+		long start = System.nanoTime();
+		long id = getStoreId(icid);
+		SNACConstellationDownloader.Download download = null;
+		if (id > 0) {
+			try {
+				String json = store.get(id, SNACConstellationStore.LATEST);
+				if (json != null) {
+					download = downloader.write(icid, json, directory);
+					stored.incrementAndGet();
+				}
+			} catch (IOException e) {
+				// Download it instead
+			}
+		}
+
+		for (int attempt = 0; download == null; attempt++) {
+			try {
+				download = downloader.download(icid, directory);
+				if (id > 0)
+					keep(id, download.getFile());
+				break;
+			} catch (SNACConstellationDownloader.RefusedException e) {
+				failed(icid, e.getMessage());
+				return;
+			} catch (IOException e) {
+				if (attempt >= retries) {
+					failed(icid, e.toString());
+					return;
+				}
+				retried.incrementAndGet();
+				try {
+					// Back off: 1, 2, 4... seconds
+					Thread.sleep(1000L << Math.min(attempt, 6));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					failed(icid, "Interrupted");
+					return;
+				}
+			}
+		}
+
+		try {
+			journal.add(icid, type, download);
+		} catch (IOException e) {
+			failed(icid, "Could not record the download: " + e.getMessage());
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		downloaded.incrementAndGet();
+		bytes.addAndGet(download.getBytes());
+		downloadNanos.addAndGet(nanos);
+		long slowest;
+		while ((slowest = slowestNanos.get()) < nanos && !slowestNanos.compareAndSet(slowest, nanos))
+			;
+	}
+
+	/**
+	 * Get the store key of an ICID
+	 *
+	 * @param icid ICID from the list
+	 * @return The constellation ID, or -1 if downloads are not stored or the ICID is not numeric
+	 */
+	private long getStoreId(String icid) {
+		if (store == null)
+			return -1;
+		try {
+			return Long.parseLong(icid);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Keep a downloaded constellation in the local store
+	 *
+	 * A download that can not be stored is still a download, so failures are only reported.
+	 *
+	 * @param id Constellation ID
+	 * @param file Downloaded constellation JSON
+	 */
+	private void keep(long id, File file) {
+		try {
+			String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			if (!store.put(new JSONObject(json)))
+				store.put(id, 1, json);
+		} catch (IOException | JSONException e) {
+			System.err.println("Could not keep constellation " + id + ": " + e.getMessage());
+		}
+	}
+
+	private void failed(String icid, String reason) {
+		synchronized (failures) {
+			failures.add(new String[] { icid, reason });
+		}
+	}
+
+	private int getFailureCount() {
+		synchronized (failures) {
+			return failures.size();
+		}
+	}
+
+	/**
+	 * Write the failed ICIDs in the list format, with the reason as a second column
+	 */
+	private void writeFailures() throws IOException {
+		File file = new File(directory, FAILURES_FILENAME);
+		synchronized (failures) {
+			if (failures.isEmpty()) {
+				file.delete();
+				return;
+			}
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+			try {
+				writer.write("ICID,Error\n");
+				for (String[] failure : failures)
+					writer.write(failure[0] + ",\"" + failure[1].replace("\"", "\"\"").replaceAll("[\r\n]+", " ") + "\"\n");
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Print the summary
+	 *
+	 * @param listed Number of ICIDs in the list
+	 * @param seconds Time the run took
+	 */
+	private void printSummary(int listed, double seconds) {
+		int count = downloaded.get();
+		System.err.println(String.format("%d ICIDs: %d downloaded, %d already downloaded, %d failed (%d retries)",
+				listed, count, skipped.get(), getFailureCount(), retried.get()));
+		if (store != null)
+			System.err.println(String.format("%d written from the local store (%s)", stored.get(), store.getStats()));
+		System.err.println(String.format("%.1f MB in %.1fs: %.1f files/s, %.2f MB/s on %d threads",
+				bytes.get() / 1e6, seconds, count / seconds, bytes.get() / 1e6 / seconds, threads));
+		if (count > 0)
+			System.err.println(String.format("Download time: %.0f ms average, %.0f ms slowest",
+					downloadNanos.get() / 1e6 / count, slowestNanos.get() / 1e6));
+		SNACClient.get(downloader.getEndpoint()).printMetrics(System.err);
+
+		synchronized (failures) {
+			int shown = 0;
+			for (String[] failure : failures) {
+				if (shown++ == 10) {
+					System.err.println("  ...");
+					break;
+				}
+				System.err.println("  " + failure[0] + ": " + failure[1]);
+			}
+			if (!failures.isEmpty())
+				System.err.println("Failed ICIDs are listed in " + new File(directory, FAILURES_FILENAME));
+		}
+	}
+
+	/**
+	 * Read a list of ICIDs
+	 *
+	 * The list is a CSV file with a header row and the ICIDs in the first column.  Blank lines
+	 * and repeated ICIDs are skipped.
+	 *
+	 * @param list CSV file
+	 * @return The ICIDs, in the order of the file
+	 * @throws IOException
+	 */
+	static List<String> readList(File list) throws IOException {
+		Set<String> icids = new LinkedHashSet<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(list),
+				StandardCharsets.UTF_8));
+		try {
+			String line = reader.readLine(); // ignore the header row
+			while ((line = reader.readLine()) != null) {
+				int comma = line.indexOf(',');
+				String icid = (comma >= 0 ? line.substring(0, comma) : line).replace("\"", "").trim();
+				if (!icid.isEmpty())
+					icids.add(icid);
+			}
+		} finally {
+			reader.close();
+		}
+		return new ArrayList<String>(icids);
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Download from list of ICIDs\n" +
+				"Usage: SNACBulkReader [-threads n] [-url endpoint] [-retries n] list.csv [directory] [type]\n\n" +
+				"The list.csv file should have a header and the first column should contain ICIDs.\n" +
+				"Type must be a valid type: eac-cpf, constellation_json\n" +
+				"Downloads already recorded in the directory's " + SNACDownloadJournal.FILENAME + " are skipped.");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,457 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Constellation Downloader
+ *
+ * Downloads one constellation with SNAC's download_constellation command and writes the
+ * file it contains straight to disk.  The response is a JSON object whose "file" holds the
+ * filename and the Base64-encoded contents; rather than reading the whole response into
+ * memory, it is scanned as it arrives and the contents are decoded on the fly into a
+ * temporary file, which is renamed once the response is complete.  The file is named after
+ * the ICID (see getFile), not SNAC's filename, so that it does not depend on where the
+ * constellation came from and two ICIDs never share a file.
+ *
+ * Requests go through the shared SNACClient, which keeps connections alive: every response
+ * is read to the end and closed, so the next request on the same thread reuses the
+ * connection.  Set the http.maxConnections system property to at least the number of
+ * threads.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACConstellationDownloader {
+
+	/**
+	 * Size of the buffers used to read the response and write the file
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Longest error text kept from a response
+	 */
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	/**
+	 * A download that failed for a reason that trying again will not fix, such as an ICID
+	 * SNAC does not know
+	 */
+	public static class RefusedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public RefusedException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A downloaded file
+	 */
+	public static class Download {
+		private final File file;
+		private final long bytes;
+
+		Download(File file, long bytes) {
+			this.file = file;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Get the file written
+		 *
+		 * @return The file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Get the size of the file written
+		 *
+		 * @return Bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Client of the endpoint, and file type to download
+	 */
+	private final SNACClient client;
+	private final String type;
+
+	/**
+	 * Constructor
+	 *
+	 * @param url SNAC REST endpoint
+	 * @param type Type of file to download: eac-cpf or constellation_json
+	 */
+	public SNACConstellationDownloader(String url, String type) {
+		this.client = SNACClient.get(url);
+		this.type = type;
+	}
+
+	/**
+	 * Get the endpoint
+	 *
+	 * @return The SNAC REST endpoint
+	 */
+	public String getEndpoint() {
+		return client.getEndpoint();
+	}
+
+	/**
+	 * Download a constellation
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param directory Directory to write the file to
+	 * @return The file written
+	 * @throws RefusedException If SNAC answered with an error
+	 * @throws IOException If SNAC could not be reached, or the response was cut short
+	 */
+	public Download download(String icid, File directory) throws IOException {
+		byte[] query;
+		try {
+			query = new JSONObject()
+					.put("command", "download_constellation")
+					.put("constellationid", icid)
+					.put("type", type)
+					.toString().getBytes(StandardCharsets.UTF_8);
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+
+		SNACClient.Request request = client.open("download_constellation");
+		InputStream in;
+		try {
+			request.getConnection().setFixedLengthStreamingMode(query.length);
+			OutputStream os = request.getOutputStream();
+			try {
+				os.write(query);
+			} finally {
+				os.close();
+			}
+			in = request.getInputStream();
+		} catch (SNACClient.HttpException e) {
+			if (e.isTemporary())
+				throw e;
+			throw new RefusedException(e.getMessage());
+		} catch (IOException e) {
+			request.close();
+			throw e;
+		}
+		File target = getFile(icid, directory);
+		File part = new File(directory, target.getName() + ".part");
+		try {
+			Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+			ResponseScanner response = new ResponseScanner(reader, part);
+			response.scan();
+			// Anything after the object (normally nothing) is read so the connection can be reused
+			while (reader.read() != -1)
+				;
+
+			if (response.bytes < 0) {
+				part.delete();
+				throw new RefusedException(response.error != null ? response.error : "No file in the response");
+			}
+			if (target.exists() && !target.delete())
+				throw new IOException("Could not replace " + target);
+			if (!part.renameTo(target))
+				throw new IOException("Could not rename " + part + " to " + target);
+			return new Download(target, response.bytes);
+		} catch (IOException e) {
+			part.delete();
+			// A response cut short can not be reused
+			request.close();
+			throw e;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write a constellation the caller already has, as download() would have
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param contents Contents of the file
+	 * @param directory Directory to write the file to
+	 * @return The file written
+	 * @throws IOException If the file can not be written
+	 */
+	public Download write(String icid, String contents, File directory) throws IOException {
+		File target = getFile(icid, directory);
+		File part = new File(directory, target.getName() + ".part");
+		byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+		OutputStream out = new FileOutputStream(part);
+		try {
+			out.write(bytes);
+		} catch (IOException e) {
+			out.close();
+			part.delete();
+			throw e;
+		}
+		out.close();
+		if (target.exists() && !target.delete())
+			throw new IOException("Could not replace " + target);
+		if (!part.renameTo(target))
+			throw new IOException("Could not rename " + part + " to " + target);
+		return new Download(target, bytes.length);
+	}
+
+	/**
+	 * Get the file a constellation is written to, whether downloaded or written
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param directory Directory the file is in
+	 * @return The ICID, made safe for a file name, with the extension of the type
+	 */
+	public File getFile(String icid, File directory) {
+		String safeName = icid.replaceAll("[^A-Za-z0-9_-]", "_");
+		return new File(directory, safeName + (type.equals("eac-cpf") ? ".xml" : ".json"));
+	}
+
+	/**
+	 * Response Scanner
+	 *
+	 * Reads a download_constellation response a character at a time.  file.content is
+	 * decoded into the temporary file as it is read, and any other top-level value (normally
+	 * only an error) is kept as text, cut short if it is long.
+	 */
+	private static class ResponseScanner {
+		private final Reader in;
+		private final File part;
+		private int peeked = -2;
+
+		String error;
+		long bytes = -1;
+
+		ResponseScanner(Reader in, File part) {
+			this.in = in;
+			this.part = part;
+		}
+
+		void scan() throws IOException {
+			expect('{');
+			if (skipSpace() == '}') {
+				next();
+				return;
+			}
+			while (true) {
+				String key = readString();
+				expect(':');
+				if (key.equals("file") && skipSpace() == '{')
+					scanFile();
+				else if (key.equals("error"))
+					error = capture();
+				else
+					capture();
+				int c = skipSpace();
+				next();
+				if (c == '}')
+					return;
+				if (c != ',')
+					throw new IOException("Malformed response from SNAC");
+			}
+		}
+
+		private void scanFile() throws IOException {
+			expect('{');
+			if (skipSpace() == '}') {
+				next();
+				return;
+			}
+			while (true) {
+				String key = readString();
+				expect(':');
+				if (key.equals("content") && skipSpace() == '"')
+					bytes = decodeContent();
+				else
+					capture();
+				int c = skipSpace();
+				next();
+				if (c == '}')
+					return;
+				if (c != ',')
+					throw new IOException("Malformed response from SNAC");
+			}
+		}
+
+		/**
+		 * Decode the Base64 string at the current position into the temporary file
+		 */
+		private long decodeContent() throws IOException {
+			expect('"');
+			InputStream encoded = new InputStream() {
+				private boolean done;
+
+				@Override
+				public int read() throws IOException {
+					if (done)
+						return -1;
+					int c = next();
+					if (c == '"') {
+						done = true;
+						return -1;
+					}
+					// PHP escapes the slashes of the Base64 alphabet
+					return c == '\\' ? unescape() : c;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = 0;
+					while (n < len) {
+						int c = read();
+						if (c == -1)
+							return n == 0 ? -1 : n;
+						b[off + n++] = (byte) c;
+					}
+					return n;
+				}
+			};
+
+			// The MIME decoder skips the line breaks some encoders put into long contents
+			InputStream decoded = Base64.getMimeDecoder().wrap(encoded);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(part), BUFFER_SIZE);
+			long written = 0;
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = decoded.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					written += read;
+				}
+			} finally {
+				out.close();
+			}
+			// Drain the string in case the decoder stopped at padding
+			while (encoded.read() != -1)
+				;
+			return written;
+		}
+
+		/**
+		 * Read any value, keeping the first characters of it as text
+		 */
+		private String capture() throws IOException {
+			StringBuilder text = new StringBuilder();
+			int c = skipSpace();
+			if (c == '"') {
+				return readString();
+			}
+			int depth = 0;
+			boolean inString = false;
+			while (true) {
+				c = peek();
+				if (c == -1)
+					throw new IOException("Response from SNAC ended early");
+				if (!inString && depth == 0 && (c == ',' || c == '}' || c == ']'))
+					break;
+				next();
+				if (text.length() < MAX_ERROR_LENGTH)
+					text.append((char) c);
+				if (inString) {
+					if (c == '\\') {
+						int escaped = next();
+						if (text.length() < MAX_ERROR_LENGTH)
+							text.append((char) escaped);
+					} else if (c == '"') {
+						inString = false;
+					}
+				} else if (c == '"') {
+					inString = true;
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					depth--;
+				}
+			}
+			return text.toString().trim();
+		}
+
+		private String readString() throws IOException {
+			expect('"');
+			StringBuilder text = new StringBuilder();
+			while (true) {
+				int c = next();
+				if (c == '"')
+					return text.toString();
+				text.append((char) (c == '\\' ? unescape() : c));
+			}
+		}
+
+		private int unescape() throws IOException {
+			int c = next();
+			switch (c) {
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++)
+					value = value * 16 + Character.digit(next(), 16);
+				return value;
+			default:
+				return c;
+			}
+		}
+
+		private void expect(char expected) throws IOException {
+			if (skipSpace() != expected)
+				throw new IOException("Malformed response from SNAC: expected '" + expected + "'");
+			next();
+		}
+
+		private int skipSpace() throws IOException {
+			int c;
+			while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+				next();
+			return c;
+		}
+
+		private int peek() throws IOException {
+			if (peeked == -2)
+				peeked = in.read();
+			return peeked;
+		}
+
+		private int next() throws IOException {
+			int c = peek();
+			peeked = -2;
+			if (c == -1)
+				throw new IOException("Response from SNAC ended early");
+			return c;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * SNAC Download Journal
+ *
+ * Records which constellations of a bulk read have been downloaded, so that an interrupted
+ * run picks up where it stopped.  The journal is a tab-separated file in the download
+ * directory with one line per finished download: ICID, type, filename and size.  A line is
+ * only written once the file is complete and in place, and is flushed straight away, so a
+ * crash loses at most the downloads that were in flight.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACDownloadJournal implements Closeable {
+
+	/**
+	 * Name of the journal file in the download directory
+	 */
+	public static final String FILENAME = "downloaded.tsv";
+
+	/**
+	 * Constellations already downloaded, as "type\ticid"
+	 */
+	private final Set<String> done = new HashSet<String>();
+
+	private final Writer writer;
+
+	/**
+	 * Constructor
+	 *
+	 * Reads the journal of the directory, if there is one, and opens it for appending.
+	 *
+	 * @param directory Download directory
+	 * @throws IOException If the journal can not be read or opened
+	 */
+	public SNACDownloadJournal(File directory) throws IOException {
+		File file = new File(directory, FILENAME);
+		if (file.isFile()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+					StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t");
+					// A line cut short by a crash is not a finished download
+					if (fields.length >= 4)
+						done.add(fields[1] + "\t" + fields[0]);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Has a constellation been downloaded
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param type Type of file
+	 * @return True if the journal has it
+	 */
+	public synchronized boolean isDone(String icid, String type) {
+		return done.contains(type + "\t" + icid);
+	}
+
+	/**
+	 * Get the number of downloads in the journal
+	 *
+	 * @return Downloads recorded, including those of earlier runs
+	 */
+	public synchronized int size() {
+		return done.size();
+	}
+
+	/**
+	 * Record a finished download
+	 *
+	 * @param icid Identity Constellation ID
+	 * @param type Type of file
+	 * @param download The file written
+	 * @throws IOException If the journal can not be written
+	 */
+	public synchronized void add(String icid, String type, SNACConstellationDownloader.Download download)
+			throws IOException {
+		writer.write(icid + "\t" + type + "\t" + download.getFile().getName() + "\t" + download.getBytes() + "\n");
+		writer.flush();
+		done.add(type + "\t" + icid);
+	}
+
+	/**
+	 * Close the journal
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
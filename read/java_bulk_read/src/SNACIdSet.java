@@ -0,0 +1,102 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+/**
+ * SNAC ID Set
+ *
+ * A set of constellation IDs kept in a single long array (open addressing with linear
+ * probing), so a crawl of millions of constellations costs 16 bytes or less per ID instead
+ * of a boxed Long and a hash map entry each.  IDs must be positive; 0 marks an empty slot.
+ *
+ * The set is safe to share between threads.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACIdSet {
+
+	private long[] slots;
+	private int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param expected Number of IDs expected, to size the table
+	 */
+	public SNACIdSet(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		slots = new long[capacity];
+	}
+
+	/**
+	 * Add an ID, unless the set already has it or is full
+	 *
+	 * @param id Positive ID
+	 * @param limit Most IDs the set may hold
+	 * @return True if the ID was added
+	 */
+	public synchronized boolean add(long id, int limit) {
+		if (id <= 0)
+			throw new IllegalArgumentException("Not a constellation ID: " + id);
+		int slot = find(slots, id);
+		if (slots[slot] == id || size >= limit)
+			return false;
+		slots[slot] = id;
+		if (++size * 2 > slots.length)
+			grow();
+		return true;
+	}
+
+	/**
+	 * Is an ID in the set
+	 *
+	 * @param id ID
+	 * @return True if it has been added
+	 */
+	public synchronized boolean contains(long id) {
+		return id > 0 && slots[find(slots, id)] == id;
+	}
+
+	/**
+	 * Get the number of IDs
+	 *
+	 * @return Size of the set
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Double the table
+	 */
+	private void grow() {
+		long[] old = slots;
+		slots = new long[old.length * 2];
+		for (long id : old)
+			if (id != 0)
+				slots[find(slots, id)] = id;
+	}
+
+	/**
+	 * Find the slot holding an ID, or the empty slot it would go in
+	 */
+	private static int find(long[] table, long id) {
+		int mask = table.length - 1;
+		// Mix the bits, since IDs are often close together
+		long h = id * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (table[slot] != 0 && table[slot] != id)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+}
@@ -0,0 +1,421 @@
+/**
+ * SNAC Reconciliation Example (CBW Java Example)
+ *
+ * For the full license, see the LICENSE file in the repository root
+ *
+ * @author Robbie Hott
+ * @license http://opensource.org/licenses/BSD-3-Clause BSD 3-Clause
+ * @copyright 2017 the Rector and Visitors of the University of Virginia, and
+ *            the Regents of the University of California
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * SNAC Relation Crawler
+ *
+ * Builds the neighborhood graph around a list of constellations, several hops deep.  The
+ * constellations of the list are read first (read_constellation, like
+ * read_relations_from_list.php), then the constellations they are related to, and so on,
+ * breadth first: every constellation at one depth is read, many at a time, before any at
+ * the next.  A compact set of the IDs seen so far (see SNACIdSet) makes sure no
+ * constellation is read twice, however many paths lead to it.
+ *
+ * The crawl finds the relations up to the given number of hops from the list (-depth, 2 by
+ * default: the relations of the list and of the constellations related to it), and stops
+ * early once the node budget (-max-nodes) has been read.  Every relation of a constellation
+ * that is read is written to the edge list as soon as it is found, so the file can be
+ * watched, and is useful, while the crawl runs:
+ *
+ *   Source,Target,Type,Target Name,Depth
+ *
+ * Constellations are looked up in the local constellation store first (see
+ * SNACConstellationStore), and those read from SNAC are kept there, so crawling the same
+ * neighborhood again is answered mostly from disk.
+ *
+ * Usage: SNACRelationCrawler [-threads n] [-url endpoint] [-depth n] [-max-nodes n] list.csv edges.csv
+ *
+ * @author Robbie Hott
+ *
+ */
+public class SNACRelationCrawler {
+
+	/**
+	 * Size of the buffer of the edge list
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Crawl settings
+	 */
+	private final SNACClient client;
+	private final int threads;
+	private final int maxDepth;
+	private final int maxNodes;
+	private final int retries;
+
+	/**
+	 * Constellations seen so far: read, or queued to be read
+	 */
+	private final SNACIdSet visited;
+
+	/**
+	 * Local copies of constellations, or null if there is no store
+	 */
+	private final SNACConstellationStore store = SNACConstellationStore.getDefault();
+
+	/**
+	 * Edge list
+	 */
+	private final Writer edges;
+
+	/**
+	 * Counters for the summary
+	 */
+	private final AtomicInteger read = new AtomicInteger();
+	private final AtomicInteger stored = new AtomicInteger();
+	private final AtomicLong edgeCount = new AtomicLong();
+	private final List<String> failures = new ArrayList<String>();
+	private final List<Integer> levelSizes = new ArrayList<Integer>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param url SNAC REST endpoint
+	 * @param threads Number of constellations to read at a time
+	 * @param maxDepth Hops from the list to crawl
+	 * @param maxNodes Most constellations to read
+	 * @param retries Times to try a failed read again
+	 * @param edges Writer for the edge list
+	 */
+	public SNACRelationCrawler(String url, int threads, int maxDepth, int maxNodes, int retries, Writer edges) {
+		this.client = SNACClient.get(url);
+		this.threads = threads;
+		this.maxDepth = maxDepth;
+		this.maxNodes = maxNodes;
+		this.retries = retries;
+		this.edges = edges;
+		this.visited = new SNACIdSet(Math.min(maxNodes, 1 << 20));
+	}
+
+	/**
+	 * Main Method
+	 *
+	 * @param args Command-line arguments
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = 8;
+		int depth = 2;
+		int maxNodes = 100000;
+		int retries = 3;
+		String url = SNACClient.getURL(SNACBulkReader.DEFAULT_URL);
+
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				usage();
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-url"))
+				url = args[i + 1];
+			else if (args[i].equals("-depth"))
+				depth = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-max-nodes"))
+				maxNodes = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-retries"))
+				retries = Integer.parseInt(args[i + 1]);
+			else
+				usage();
+		}
+		if (args.length - i != 2 || depth < 1)
+			usage();
+
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+
+		List<Long> seeds = new ArrayList<Long>();
+		for (String icid : SNACBulkReader.readList(new File(args[i]))) {
+			try {
+				seeds.add(Long.parseLong(icid));
+			} catch (NumberFormatException e) {
+				System.err.println("Skipping " + icid + ": not a constellation ID");
+			}
+		}
+
+		Writer edges = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[i + 1]),
+				StandardCharsets.UTF_8), BUFFER_SIZE);
+		SNACRelationCrawler crawler = new SNACRelationCrawler(url, threads, depth, maxNodes, retries, edges);
+		long start = System.nanoTime();
+		try {
+			crawler.crawl(seeds);
+		} finally {
+			edges.close();
+		}
+		crawler.printSummary((System.nanoTime() - start) / 1e9);
+		System.exit(crawler.failures.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Crawl from a list of constellations
+	 *
+	 * @param seeds Constellation IDs to start from
+	 * @throws IOException If the edge list can not be written
+	 * @throws InterruptedException
+	 */
+	public void crawl(List<Long> seeds) throws IOException, InterruptedException {
+		writeEdge("Source", "Target", "Type", "Target Name", "Depth");
+
+		List<Long> level = new ArrayList<Long>();
+		for (long id : seeds)
+			if (id > 0 && visited.add(id, maxNodes))
+				level.add(id);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int depth = 0; !level.isEmpty(); depth++) {
+				levelSizes.add(level.size());
+				level = crawlLevel(pool, level, depth);
+				System.err.println(String.format("Depth %d done: %d constellations read, %d edges, %d queued",
+						depth, read.get(), edgeCount.get(), level.size()));
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+	}
+
+	/**
+	 * Read every constellation of one depth
+	 *
+	 * @param pool Threads to read with
+	 * @param level Constellations at this depth
+	 * @param depth Hops from the list
+	 * @return Constellations at the next depth, not seen before
+	 * @throws IOException If the edge list can not be written
+	 * @throws InterruptedException
+	 */
+	private List<Long> crawlLevel(ExecutorService pool, List<Long> level, final int depth)
+			throws IOException, InterruptedException {
+		final ConcurrentLinkedQueue<Long> next = new ConcurrentLinkedQueue<Long>();
+		final CountDownLatch finished = new CountDownLatch(level.size());
+		final IOException[] writeError = new IOException[1];
+		// Related constellations are only read if their own relations are still within depth
+		final boolean expand = depth + 1 < maxDepth;
+
+		for (final long id : level) {
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						JSONArray relations = readRelations(id);
+						if (relations == null)
+							return;
+						for (int i = 0; i < relations.length(); i++) {
+							JSONObject relation = relations.optJSONObject(i);
+							if (relation == null)
+								continue;
+							String target = relation.optString("targetConstellation", "");
+							JSONObject type = relation.optJSONObject("type");
+							writeEdge(Long.toString(id), target, type != null ? type.optString("term", "") : "",
+									relation.optString("content", ""), Integer.toString(depth + 1));
+
+							long targetId = parseId(target);
+							if (expand && targetId > 0 && visited.add(targetId, maxNodes))
+								next.add(targetId);
+						}
+					} catch (IOException e) {
+						synchronized (writeError) {
+							writeError[0] = e;
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		finished.await();
+		edges.flush();
+		synchronized (writeError) {
+			if (writeError[0] != null)
+				throw writeError[0];
+		}
+		return new ArrayList<Long>(next);
+	}
+
+	/**
+	 * Read the relations of a constellation, trying again if the request fails on the way
+	 *
+	 * @param id Constellation ID
+	 * @return The relations, or null if the constellation could not be read
+	 */
+	private JSONArray readRelations(long id) {
+		try {
+			String json = store != null ? store.get(id, SNACConstellationStore.LATEST) : null;
+			if (json != null) {
+				read.incrementAndGet();
+				stored.incrementAndGet();
+				JSONArray relations = new JSONObject(json).optJSONArray("relations");
+				return relations != null ? relations : new JSONArray();
+			}
+		} catch (IOException | JSONException e) {
+			// Fall back to SNAC
+		}
+
+		for (int attempt = 0;; attempt++) {
+			try {
+				JSONObject response = readConstellation(id);
+				if (!response.has("constellation")) {
+					failed(id, response.has("error") ? String.valueOf(response.opt("error")) : "No constellation");
+					return null;
+				}
+				read.incrementAndGet();
+				JSONObject constellation = response.getJSONObject("constellation");
+				keep(constellation);
+				JSONArray relations = constellation.optJSONArray("relations");
+				return relations != null ? relations : new JSONArray();
+			} catch (JSONException e) {
+				failed(id, "Not a constellation: " + e.getMessage());
+				return null;
+			} catch (IOException e) {
+				if (attempt >= retries) {
+					failed(id, e.toString());
+					return null;
+				}
+				try {
+					Thread.sleep(1000L << Math.min(attempt, 6));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					failed(id, "Interrupted");
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keep a constellation read from SNAC in the local store
+	 *
+	 * A store that can not be written only costs the next crawl a request, so the crawl
+	 * goes on.
+	 *
+	 * @param constellation Constellation
+	 */
+	private void keep(JSONObject constellation) {
+		if (store == null)
+			return;
+		try {
+			store.put(constellation);
+		} catch (IOException e) {
+			System.err.println("Could not keep constellation " + constellation.optString("id", "") + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Send a read_constellation request
+	 *
+	 * The response is parsed as it is read, over a keep-alive connection.
+	 *
+	 * @param id Constellation ID
+	 * @return The response
+	 * @throws IOException If SNAC could not be reached or did not answer with JSON
+	 */
+	private JSONObject readConstellation(long id) throws IOException, JSONException {
+		return client.send(new JSONObject()
+				.put("command", "read_constellation")
+				.put("constellationid", id));
+	}
+
+	/**
+	 * Write a line of the edge list
+	 */
+	private void writeEdge(String... fields) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				line.append(',');
+			String field = fields[i];
+			if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0)
+				field = "\"" + field.replace("\"", "\"\"") + "\"";
+			line.append(field);
+		}
+		line.append('\n');
+		synchronized (edges) {
+			edges.write(line.toString());
+		}
+		if (!fields[0].equals("Source"))
+			edgeCount.incrementAndGet();
+	}
+
+	private void failed(long id, String reason) {
+		synchronized (failures) {
+			failures.add(id + ": " + reason);
+		}
+	}
+
+	private static long parseId(String id) {
+		try {
+			return Long.parseLong(id.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Print the summary
+	 *
+	 * @param seconds Time the crawl took
+	 */
+	private void printSummary(double seconds) {
+		System.err.println(String.format("Read %d constellations in %.1fs (%.1f/s), %d edges, %d failed",
+				read.get(), seconds, read.get() / seconds, edgeCount.get(), failures.size()));
+		client.printMetrics(System.err);
+		if (store != null)
+			System.err.println(String.format("%d constellations came from the local store (%s)", stored.get(),
+					store.getStats()));
+		StringBuilder levels = new StringBuilder("Constellations per depth:");
+		for (int depth = 0; depth < levelSizes.size(); depth++)
+			levels.append(' ').append(depth).append('=').append(levelSizes.get(depth));
+		System.err.println(levels);
+		if (visited.size() >= maxNodes)
+			System.err.println("Stopped at the node budget of " + maxNodes);
+		int shown = 0;
+		for (String failure : failures) {
+			if (shown++ == 10) {
+				System.err.println("  ...");
+				break;
+			}
+			System.err.println("  " + failure);
+		}
+	}
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.err.println("Crawl the relations around a list of ICIDs\n" +
+				"Usage: SNACRelationCrawler [-threads n] [-url endpoint] [-depth n] [-max-nodes n] list.csv edges.csv\n\n" +
+				"The list.csv file should have a header and the first column should contain ICIDs.\n" +
+				"Relations up to -depth hops from the list (default 2) are followed, reading at most\n" +
+				"-max-nodes (default 100000) constellations.  Each relation is written to edges.csv as it is found.");
+		System.exit(2);
+	}
+}
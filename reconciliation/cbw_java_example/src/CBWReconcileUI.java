@@ -69,20 +69,15 @@ public class CBWReconcileUI extends javax.swing.JFrame {
 	private String toCSVFile;
 
 
-	{
-		//Set Look & Feel
-		try {
-			javax.swing.UIManager.setLookAndFeel(javax.swing.UIManager.getSystemLookAndFeelClassName());
-		} catch(Exception e) {
-			// Silently ignoring errors
-		}
-	}
-
 	/**
 	 * Main Method
 	 * 
 	 * Creates an instance of this GUI and starts the example
 	 * 
+	 * The CSV, JSON and SNAC client classes are only loaded once a reconciliation starts.
+	 * With -Dsnac.cds.training=true the frame closes as soon as it is shown, which is the
+	 * training run of the class-data sharing archive (see the cds profile).
+	 * 
 	 * @param args Command-line arguments
 	 */
 	public static void main(String[] args) {
@@ -92,9 +87,26 @@ public class CBWReconcileUI extends javax.swing.JFrame {
 
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				CBWReconcileUI inst = new CBWReconcileUI();
+				//Set Look & Feel
+				try {
+					javax.swing.UIManager.setLookAndFeel(javax.swing.UIManager.getSystemLookAndFeelClassName());
+				} catch(Exception e) {
+					// Silently ignoring errors
+				}
+
+				final CBWReconcileUI inst = new CBWReconcileUI();
 				inst.setLocationRelativeTo(null);
 				inst.setVisible(true);
+
+				if (Boolean.getBoolean("snac.cds.training")) {
+					// Everything the first frame needs is loaded once it has been painted
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							inst.dispose();
+							System.exit(0);
+						}
+					});
+				}
 			}
 		});
 	}
@@ -9,19 +9,18 @@
  *            the Regents of the University of California
  */
 
-import java.io.BufferedInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.swing.SwingWorker;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.opencsv.CSVReader;
@@ -33,11 +32,19 @@ import com.opencsv.CSVWriter;
  * This class does the actual work of connecting to SNAC and requesting for reconciliation.
  * It also handles the result from the server (JSON) and parses the data into a CSV.
  * 
+ * Requests go through the shared SNACClient, several at a time over keep-alive
+ * connections; the results are still written in the order of the input file.
+ * 
  * @author Robbie Hott
  *
  */
 public class CBWReconcileWorker extends SwingWorker<Void, Void> {
 
+	/**
+	 * Reconciliation endpoint (-Dsnac.url overrides it)
+	 */
+	public static final String RECONCILE_URL = "http://snac-web.iath.virginia.edu:81/";
+
 	/**
 	 * Filenames to use
 	 */
@@ -141,11 +148,15 @@ public class CBWReconcileWorker extends SwingWorker<Void, Void> {
 		};
 		writer.writeNext(headers);
 
+		// Queries sent, with the name and CBW ID of each, oldest first
+		SNACClient client = SNACClient.get(SNACClient.getURL(RECONCILE_URL));
+		int window = SNACClient.getThreads() * 2;
+		Deque<CompletableFuture<JSONObject>> pending = new ArrayDeque<CompletableFuture<JSONObject>>();
+		Deque<String[]> names = new ArrayDeque<String[]>();
+		int written = 0;
+
 		// Step through the input data lines
 		for (int i = 1; i < toReconcile.size(); i++) {
-			// Calculate a "percent done" maxing out at 95%
-			int percentage = (i * 95) / reconcileCount;
-
 			// Pull the current line of the CSV as array
 			String[] data = toReconcile.get(i);
 
@@ -176,84 +187,17 @@ public class CBWReconcileWorker extends SwingWorker<Void, Void> {
 				}
 			}
 
-			// Update the progress for this run of the reconciliation
-			setProgress(percentage);
-			setProgressText(name);
-
-			// Create the JSON query string for the SNAC RestAPI
-			String query = "{"+ 
-					"\"command\" : \"reconcile\"," +
-					"\"constellation\" : { " +
-						"\"dataType\" : \"Constellation\"," +
-						"\"entityType\" : {" +
-							"\"term\" : \"person\"" +
-						"}," +
-						"\"nameEntries\" : [" +
-							"{" +
-								"\"dataType\" : \"NameEntry\"," +
-								"\"original\" : \""+ name +"\"," +
-								"\"preferenceScore\" : 1" +
-							"}" +
-						"]" +
-					"}" +
-				"}";
-
-			// Perform connection to SNAC
-			HttpURLConnection httpcon = (HttpURLConnection) ((new URL("http://snac-web.iath.virginia.edu:81/").openConnection()));
-			httpcon.setDoOutput(true);
-			httpcon.setRequestProperty("Content-Type", "application/json");
-			httpcon.setRequestMethod("PUT");
-			httpcon.connect();
-
-			// Write the query to the RestAPI
-			byte[] outputBytes = query.getBytes("UTF-8");
-			OutputStream os = httpcon.getOutputStream();
-			os.write(outputBytes);
-			os.close();
-
-			// Read the response from the RestAPI
-			InputStream in = new BufferedInputStream(httpcon.getInputStream());
-			String resultStr = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-			JSONObject resultObj = new JSONObject(resultStr);
-			in.close();
-
-			// Close the connection
-			httpcon.disconnect();
-
-			// If reconciliation succeeded, then process the results
-			if (resultObj.has("reconciliation")) {
-				for (int j = 0; j < resultObj.getJSONArray("reconciliation").length(); j++) {
-
-					JSONObject result = (JSONObject) resultObj.getJSONArray("reconciliation").get(j);
-					// only grab the first 6 results
-					if (j > 5) break;
-
-					if (!result.has("vector"))
-						continue;
-					JSONObject vector = result.getJSONObject("vector");
-
-					// Create the result data to add to the CSV output file
-					String[] output = {
-							name,
-							toReconcile.get(i)[0],
-							((JSONObject) result.getJSONObject("identity").getJSONArray("nameEntries").get(0)).getString("original"),
-							result.getJSONObject("identity").getString("ark"),
-							String.format("%.2f", result.getDouble("strength")),
-							vector.has("ElasticOriginalNameEntry") ? JSONObject.doubleToString(vector.getDouble("ElasticOriginalNameEntry")) : "0",
-							vector.has("ElasticNameOnly") ? JSONObject.doubleToString(vector.getDouble("ElasticNameOnly")) : "0",
-							vector.has("ElasticSeventyFive") ? JSONObject.doubleToString(vector.getDouble("ElasticSeventyFive")) : "0",
-							vector.has("OriginalLength") ? JSONObject.doubleToString(vector.getDouble("OriginalLength")) : "0",
-							vector.has("OriginalLengthDifference") ? JSONObject.doubleToString(vector.getDouble("OriginalLengthDifference")) : "0",
-							vector.has("EntityTypeFilter") ? JSONObject.doubleToString(vector.getDouble("EntityTypeFilter")) : "0",
-							vector.has("MultiStage:ElasticNameOnly:SNACDegree") ? JSONObject.doubleToString(vector.getDouble("MultiStage:ElasticNameOnly:SNACDegree")) : "0"
-					};
-
-					// Write the line to the CSV file
-					writer.writeNext(output);
-				}
-			}
+			// Send the query to SNAC; at most a few are waiting for an answer at a time
+			pending.add(client.reconcile(query(name)));
+			names.add(new String[] { name, data[0] });
+			if (pending.size() >= window)
+				writeResults(pending.poll().get(), names.poll(), writer, ++written, reconcileCount);
 		}
 
+		// Write the answers still outstanding
+		while (!pending.isEmpty())
+			writeResults(pending.poll().get(), names.poll(), writer, ++written, reconcileCount);
+
 		// Close the CSV Writer
 		writer.close();
 
@@ -265,4 +209,72 @@ public class CBWReconcileWorker extends SwingWorker<Void, Void> {
 		setProgress(100);
 
 	}
+
+	/**
+	 * Build the constellation to reconcile a name against
+	 * 
+	 * @param name Name heading
+	 * @return A person with the name as its only name entry
+	 * @throws Exception
+	 */
+	private static JSONObject query(String name) throws Exception {
+		JSONObject nameEntry = new JSONObject()
+				.put("dataType", "NameEntry")
+				.put("original", name)
+				.put("preferenceScore", 1);
+		return new JSONObject()
+				.put("dataType", "Constellation")
+				.put("entityType", new JSONObject().put("term", "person"))
+				.put("nameEntries", new JSONArray().put(nameEntry));
+	}
+
+	/**
+	 * Write the results of one name to the CSV file
+	 * 
+	 * @param resultObj Response from SNAC
+	 * @param name Name heading and CBW ID of the line
+	 * @param writer CSV writer
+	 * @param done Number of lines answered so far
+	 * @param reconcileCount Number of lines
+	 * @throws Exception
+	 */
+	private void writeResults(JSONObject resultObj, String[] name, CSVWriter writer, int done, int reconcileCount)
+			throws Exception {
+		// Update the progress for this run of the reconciliation, maxing out at 95%
+		setProgress((done * 95) / reconcileCount);
+		setProgressText(name[0]);
+
+		// If reconciliation succeeded, then process the results
+		if (resultObj.has("reconciliation")) {
+			for (int j = 0; j < resultObj.getJSONArray("reconciliation").length(); j++) {
+
+				JSONObject result = (JSONObject) resultObj.getJSONArray("reconciliation").get(j);
+				// only grab the first 6 results
+				if (j > 5) break;
+
+				if (!result.has("vector"))
+					continue;
+				JSONObject vector = result.getJSONObject("vector");
+
+				// Create the result data to add to the CSV output file
+				String[] output = {
+						name[0],
+						name[1],
+						((JSONObject) result.getJSONObject("identity").getJSONArray("nameEntries").get(0)).getString("original"),
+						result.getJSONObject("identity").getString("ark"),
+						String.format("%.2f", result.getDouble("strength")),
+						vector.has("ElasticOriginalNameEntry") ? JSONObject.doubleToString(vector.getDouble("ElasticOriginalNameEntry")) : "0",
+						vector.has("ElasticNameOnly") ? JSONObject.doubleToString(vector.getDouble("ElasticNameOnly")) : "0",
+						vector.has("ElasticSeventyFive") ? JSONObject.doubleToString(vector.getDouble("ElasticSeventyFive")) : "0",
+						vector.has("OriginalLength") ? JSONObject.doubleToString(vector.getDouble("OriginalLength")) : "0",
+						vector.has("OriginalLengthDifference") ? JSONObject.doubleToString(vector.getDouble("OriginalLengthDifference")) : "0",
+						vector.has("EntityTypeFilter") ? JSONObject.doubleToString(vector.getDouble("EntityTypeFilter")) : "0",
+						vector.has("MultiStage:ElasticNameOnly:SNACDegree") ? JSONObject.doubleToString(vector.getDouble("MultiStage:ElasticNameOnly:SNACDegree")) : "0"
+				};
+
+				// Write the line to the CSV file
+				writer.writeNext(output);
+			}
+		}
+	}
 }